@@ -1,9 +1,8 @@
 package com.air;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 
 import javax.servlet.ReadListener;
@@ -15,50 +14,161 @@ import org.apache.commons.io.IOUtils;
 
 /**
  * 可重复调用 getReader 和 getInputStream
+ *
+ * body 保存在 {@link CaptureBuffer} 中，超出内存预算时可以溢出到磁盘；
+ * tee 模式下不提前读取 body，应用读取时边读边捕获，最多捕获 body 的上限，此时只能读一遍
  * @date 18/3/26
  */
 public class AlwaysReadableRequest extends HttpServletRequestWrapper{
 
-    private final byte[] body;
+    private static final CaptureBufferPool UNPOOLED = new CaptureBufferPool(false, 0);
+
+    private final CaptureBuffer body;
+
+    private final boolean tee;
+
+    private TeeServletInputStream teeInputStream;
+
+    private BufferedReader teeReader;
 
     public AlwaysReadableRequest(HttpServletRequest request) throws IOException {
+        this(request, new CaptureBuffer(UNPOOLED, Integer.MAX_VALUE), false);
+    }
+
+    /**
+     * @param request
+     * @param body 保存 body 的缓冲，非 tee 模式下必须不限长度
+     * @param tee 是否 tee 模式
+     */
+    AlwaysReadableRequest(HttpServletRequest request, CaptureBuffer body, boolean tee) throws IOException {
         super(request);
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        IOUtils.copy(request.getInputStream(), byteArrayOutputStream);
-        body = byteArrayOutputStream.toByteArray();
+        this.body = body;
+        this.tee = tee;
+        if (!tee) {
+            IOUtils.copy(request.getInputStream(), body);
+        }
     }
 
     @Override
     public BufferedReader getReader() throws IOException {
-        return new BufferedReader(new InputStreamReader(getInputStream(), "UTF-8"));
+        if (!tee) {
+            return new BufferedReader(new InputStreamReader(getInputStream(), "UTF-8"));
+        }
+        if (teeReader == null) {
+            teeReader = new BufferedReader(new InputStreamReader(getInputStream(), "UTF-8"));
+        }
+        return teeReader;
     }
 
     @Override
     public ServletInputStream getInputStream() throws IOException {
+        if (!tee) {
+            return new BufferedServletInputStream(body.newInputStream());
+        }
+        if (teeInputStream == null) {
+            teeInputStream = new TeeServletInputStream(getRequest().getInputStream(), body);
+        }
+        return teeInputStream;
+    }
 
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(body);
+    /**
+     * @return 保存 body 的缓冲，tee 模式下只包含应用已经读取的部分
+     */
+    CaptureBuffer getBody() {
+        return body;
+    }
 
-        return new ServletInputStream() {
-            @Override
-            public boolean isFinished() {
+    /**
+     * tee 模式下把应用没有读完的 body 读掉并捕获；应用设置了 ReadListener 时阻塞读会抛出 IllegalStateException，
+     * 只保留应用已经读取的部分
+     */
+    void drainUnreadBody() throws IOException {
+        if (!tee) {
+            return;
+        }
+        final TeeServletInputStream inputStream = (TeeServletInputStream)getInputStream();
+        if (!inputStream.isNonBlocking()) {
+            inputStream.drain();
+        }
+    }
 
-                return byteArrayInputStream.available() == 0;
-            }
+    /**
+     * 基于已缓存 body 的输入流，数据已全部就绪，非阻塞读时通过 AsyncContext 在容器线程上回调 ReadListener；
+     * 没有开启异步（如 upgrade 之后的请求）时直接在当前线程回调。
+     * isReady 总是返回 true，按 ReadListener 的约定 onDataAvailable 只回调一次，监听器应该一直读到结束
+     */
+    private class BufferedServletInputStream extends ServletInputStream {
 
-            @Override
-            public boolean isReady() {
-                return false;
+        private final InputStream bodyInputStream;
+
+        private ReadListener readListener;
+
+        private boolean allDataReadNotified;
+
+        BufferedServletInputStream(InputStream bodyInputStream) {
+            this.bodyInputStream = bodyInputStream;
+        }
+
+        @Override
+        public boolean isFinished() {
+            try {
+                return bodyInputStream.available() == 0;
+            } catch (IOException e) {
+                return true;
             }
+        }
 
-            @Override
-            public void setReadListener(ReadListener readListener) {
+        /**
+         * body 已经在内存里，任何时候读都不会阻塞
+         */
+        @Override
+        public boolean isReady() {
+            return true;
+        }
 
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            if (readListener == null) {
+                throw new NullPointerException("readListener");
+            }
+            if (this.readListener != null) {
+                throw new IllegalStateException("ReadListener already set");
             }
+            this.readListener = readListener;
+            if (isAsyncStarted()) {
+                getAsyncContext().start(this::notifyReadListener);
+            } else {
+                notifyReadListener();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            return bodyInputStream.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return bodyInputStream.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return bodyInputStream.available();
+        }
 
-            @Override
-            public int read() throws IOException {
-                return byteArrayInputStream.read();
+        private void notifyReadListener() {
+            try {
+                if (!isFinished()) {
+                    readListener.onDataAvailable();
+                }
+                if (isFinished() && !allDataReadNotified) {
+                    allDataReadNotified = true;
+                    readListener.onAllDataRead();
+                }
+            } catch (Throwable t) {
+                readListener.onError(t);
             }
-        };
+        }
     }
 }
@@ -0,0 +1,174 @@
+package com.air;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 异步日志管道：请求线程只负责往环形队列里填充事件，渲染和写盘由后台消费线程完成，
+ * 磁盘抖动不会再阻塞 tomcat 的工作线程
+ *
+ * @date 2026/10/15
+ */
+final class AsyncLogDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncLogDispatcher.class);
+
+    /**
+     * 队列满时的处理策略
+     */
+    enum FullPolicy {
+        /**
+         * 直接丢弃并计数
+         */
+        DROP,
+        /**
+         * 等待消费者腾出槽位
+         */
+        BLOCK;
+
+        static FullPolicy parse(String value) {
+            return "block".equalsIgnoreCase(value) ? BLOCK : DROP;
+        }
+    }
+
+    private static final int SPIN_TRIES = 100;
+
+    private static final int MAX_BACKOFF_TRIES = SPIN_TRIES * 2 + 10;
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final LogRingBuffer ringBuffer;
+
+    private final FullPolicy fullPolicy;
+
+    private final Consumer<LogEvent> handler;
+
+    private final Thread[] consumers;
+
+    private final LongAdder publishedCount = new LongAdder();
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    private volatile boolean running;
+
+    AsyncLogDispatcher(int bufferSize, int consumerCount, FullPolicy fullPolicy, Consumer<LogEvent> handler) {
+        this.ringBuffer = new LogRingBuffer(bufferSize);
+        this.fullPolicy = fullPolicy;
+        this.handler = handler;
+        this.consumers = new Thread[Math.max(1, consumerCount)];
+        for (int i = 0; i < consumers.length; i++) {
+            final Thread consumer = new Thread(this::consume, "whisper-log-consumer-" + i);
+            consumer.setDaemon(true);
+            consumers[i] = consumer;
+        }
+    }
+
+    void start() {
+        running = true;
+        for (Thread consumer : consumers) {
+            consumer.start();
+        }
+        LOGGER.info("async log dispatcher started, capacity={}, consumers={}, fullPolicy={}",
+            ringBuffer.capacity(), consumers.length, fullPolicy);
+    }
+
+    /**
+     * 领取一个事件槽位，领取成功后必须调用 {@link #publish(long)}
+     *
+     * @return 槽位序号，被丢弃时返回 -1
+     */
+    long claim() {
+        long sequence = ringBuffer.tryClaim();
+        if (sequence >= 0) {
+            return sequence;
+        }
+        if (fullPolicy == FullPolicy.DROP) {
+            droppedCount.increment();
+            return -1;
+        }
+        int tries = 0;
+        while ((sequence = ringBuffer.tryClaim()) < 0) {
+            if (!running) {
+                droppedCount.increment();
+                return -1;
+            }
+            tries = Math.min(tries + 1, MAX_BACKOFF_TRIES);
+            backoff(tries);
+        }
+        return sequence;
+    }
+
+    LogEvent event(long sequence) {
+        return ringBuffer.get(sequence);
+    }
+
+    void publish(long sequence) {
+        ringBuffer.publish(sequence);
+        publishedCount.increment();
+    }
+
+    long getPublishedCount() {
+        return publishedCount.sum();
+    }
+
+    long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * 停止接收新事件，等待消费者把队列里剩余的事件处理完
+     */
+    void shutdown(long timeoutMillis) {
+        running = false;
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Thread consumer : consumers) {
+            try {
+                consumer.join(Math.max(1L, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        LOGGER.info("async log dispatcher stopped, published={}, dropped={}", getPublishedCount(),
+            getDroppedCount());
+    }
+
+    private void consume() {
+        int idle = 0;
+        while (running || !ringBuffer.isEmpty()) {
+            final long sequence = ringBuffer.tryTake();
+            if (sequence < 0) {
+                idle = Math.min(idle + 1, MAX_BACKOFF_TRIES);
+                backoff(idle);
+                continue;
+            }
+            idle = 0;
+            try {
+                final LogEvent event = ringBuffer.get(sequence);
+                if (event.isValid()) {
+                    handler.accept(event);
+                }
+            } catch (Throwable t) {
+                LOGGER.error("error occured when writing async log event", t);
+            } finally {
+                ringBuffer.release(sequence);
+            }
+        }
+    }
+
+    private static void backoff(int tries) {
+        if (tries < SPIN_TRIES) {
+            return;
+        }
+        if (tries < SPIN_TRIES * 2) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1000L << Math.min(10, tries - SPIN_TRIES * 2)));
+        }
+    }
+}
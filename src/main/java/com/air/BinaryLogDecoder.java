@@ -0,0 +1,529 @@
+package com.air;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 二进制日志的解码器，也是命令行工具：
+ *
+ * <pre>
+ * java -cp whisper.jar com.air.BinaryLogDecoder [--text] file...
+ * </pre>
+ *
+ * 默认每条记录输出一行 json，--text 输出和 filter 文本日志相同的格式。
+ * 从文件解码时，长度为0的位置如果在索引里还有更靠后的记录，说明是领取之后没有写完的空洞，跳到下一条记录继续读
+ *
+ * @date 2026/10/15
+ */
+public final class BinaryLogDecoder implements Closeable {
+
+    /**
+     * 从文件打开时用于 {@link #readAt(long)} 和跳过空洞，否则为 null
+     */
+    private final FileChannel channel;
+
+    private final File file;
+
+    /**
+     * 索引里所有记录的 offset，第一次遇到长度为0的位置时加载
+     */
+    private long[] indexedOffsets;
+
+    private int holeCount;
+
+    /**
+     * 最近一次 readRecord 读到的长度是否为0
+     */
+    private boolean zeroLength;
+
+    private InputStream inputStream;
+
+    private final List<String> dictionary = new ArrayList<>();
+
+    private long baseMillis;
+
+    private long position;
+
+    private byte[] record = new byte[4096];
+
+    private int recordLength;
+
+    private int cursor;
+
+    public BinaryLogDecoder(File file) throws IOException {
+        this(file, FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    BinaryLogDecoder(InputStream inputStream) throws IOException {
+        this.channel = null;
+        this.file = null;
+        this.inputStream = inputStream;
+        readFileHeader();
+    }
+
+    private BinaryLogDecoder(File file, FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.file = file;
+        this.inputStream = new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024);
+        try {
+            readFileHeader();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean text = false;
+        final List<File> files = new ArrayList<>();
+        for (String arg : args) {
+            if ("--text".equals(arg)) {
+                text = true;
+            } else {
+                files.add(new File(arg));
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("usage: java -cp whisper.jar com.air.BinaryLogDecoder [--text] file...");
+            System.exit(1);
+        }
+        final Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        for (File file : files) {
+            try (BinaryLogDecoder decoder = new BinaryLogDecoder(file)) {
+                BinaryLogRecord logRecord;
+                while ((logRecord = decoder.next()) != null) {
+                    out.write(text ? logRecord.toText() : toJson(logRecord));
+                    out.write('\n');
+                }
+                if (decoder.getHoleCount() > 0) {
+                    System.err.println(file + ": skipped " + decoder.getHoleCount() + " unfinished records");
+                }
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * @return 下一条请求记录，文件结束或者最后一条记录不完整时返回 null
+     */
+    BinaryLogRecord next() throws IOException {
+        while (true) {
+            final long offset = position;
+            if (!readRecord()) {
+                if (zeroLength && skipHole(offset)) {
+                    continue;
+                }
+                return null;
+            }
+            final int type = readByte();
+            if (type == BinaryRecordFormat.TYPE_DICT) {
+                readDictionaryEntry();
+            } else if (type == BinaryRecordFormat.TYPE_EVENT) {
+                final BinaryLogRecord logRecord = readEvent();
+                logRecord.offset = offset;
+                return logRecord;
+            }
+            // 不认识的记录类型直接跳过
+        }
+    }
+
+    /**
+     * 跳到 offset 读一条记录，之后 {@link #next()} 从这条记录后面继续读
+     *
+     * @param offset {@link BinaryLogRecord#offset} 或者索引项里的 offset
+     * @return 事件记录，字典记录只加载字典并返回 null
+     */
+    BinaryLogRecord readAt(long offset) throws IOException {
+        if (channel == null) {
+            throw new IOException("random access requires a file");
+        }
+        seek(offset);
+        if (!readRecord()) {
+            throw new EOFException("no record at " + offset);
+        }
+        final int type = readByte();
+        if (type == BinaryRecordFormat.TYPE_DICT) {
+            readDictionaryEntry();
+        } else if (type == BinaryRecordFormat.TYPE_EVENT) {
+            final BinaryLogRecord logRecord = readEvent();
+            logRecord.offset = offset;
+            return logRecord;
+        }
+        return null;
+    }
+
+    /**
+     * @return 当前已经读到的位置
+     */
+    long position() {
+        return position;
+    }
+
+    long getBaseMillis() {
+        return baseMillis;
+    }
+
+    /**
+     * @return 顺序读取时跳过的空洞数
+     */
+    int getHoleCount() {
+        return holeCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    private void readFileHeader() throws IOException {
+        final DataInputStream header = new DataInputStream(inputStream);
+        final byte[] magic = new byte[BinaryRecordFormat.MAGIC.length];
+        header.readFully(magic);
+        if (!Arrays.equals(magic, BinaryRecordFormat.MAGIC)) {
+            throw new IOException("not a whisper binary log");
+        }
+        final int version = header.readUnsignedByte();
+        if (version < BinaryRecordFormat.MIN_VERSION || version > BinaryRecordFormat.VERSION) {
+            throw new IOException("unsupported whisper binary log version " + version);
+        }
+        baseMillis = header.readLong();
+        position = BinaryRecordFormat.FILE_HEADER_BYTES;
+    }
+
+    private void seek(long offset) throws IOException {
+        channel.position(offset);
+        inputStream = new BufferedInputStream(Channels.newInputStream(channel), 8 * 1024);
+        position = offset;
+    }
+
+    /**
+     * 长度为0可能是预分配空间的结尾，也可能是写入线程领取之后没有写完的空洞；
+     * 索引里有更靠后的记录时是空洞，跳到那条记录
+     *
+     * @param offset 长度为0的位置
+     * @return 是否跳过了空洞
+     */
+    private boolean skipHole(long offset) throws IOException {
+        if (channel == null) {
+            return false;
+        }
+        if (indexedOffsets == null) {
+            indexedOffsets = loadIndexedOffsets();
+        }
+        int next = Arrays.binarySearch(indexedOffsets, offset + 1);
+        if (next < 0) {
+            next = -next - 1;
+        }
+        if (next == indexedOffsets.length) {
+            return false;
+        }
+        seek(indexedOffsets[next]);
+        holeCount++;
+        return true;
+    }
+
+    private long[] loadIndexedOffsets() throws IOException {
+        final SegmentIndex.Contents contents = SegmentIndex.read(SegmentIndex.fileFor(file));
+        if (contents == null) {
+            return new long[0];
+        }
+        final long[] offsets = new long[contents.entries.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = contents.entries.get(i).offset;
+        }
+        Arrays.sort(offsets);
+        return offsets;
+    }
+
+    /**
+     * 把一条记录完整读入 record
+     */
+    private boolean readRecord() throws IOException {
+        zeroLength = false;
+        long length = 0;
+        int shift = 0;
+        int prefixBytes = 0;
+        int b;
+        do {
+            b = inputStream.read();
+            if (b < 0) {
+                return false;
+            }
+            prefixBytes++;
+            length |= (long)(b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 35);
+        if (length == 0) {
+            // 预分配文件里还没写到的部分，或者没有写完的空洞
+            zeroLength = true;
+            return false;
+        }
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("corrupted record length " + length + " at " + position);
+        }
+        recordLength = (int)length;
+        if (record.length < recordLength) {
+            record = new byte[Math.max(recordLength, record.length * 2)];
+        }
+        int read = 0;
+        while (read < recordLength) {
+            final int n = inputStream.read(record, read, recordLength - read);
+            if (n < 0) {
+                return false;
+            }
+            read += n;
+        }
+        cursor = 0;
+        position += prefixBytes + recordLength;
+        return true;
+    }
+
+    private void readDictionaryEntry() throws IOException {
+        final int id = (int)readVarint();
+        final String value = readString();
+        while (dictionary.size() < id) {
+            dictionary.add(null);
+        }
+        dictionary.set(id - 1, value);
+    }
+
+    private BinaryLogRecord readEvent() throws IOException {
+        final BinaryLogRecord logRecord = new BinaryLogRecord();
+        logRecord.requestStartAt = baseMillis + readZigZag();
+        logRecord.requestEndTime = logRecord.requestStartAt + readZigZag();
+        logRecord.status = (int)readVarint();
+        logRecord.flags = (int)readVarint();
+
+        final RequestSnapshot snapshot = new RequestSnapshot();
+        snapshot.multipart = (logRecord.flags & BinaryRecordFormat.FLAG_MULTIPART) != 0;
+        snapshot.remoteAddr = readString();
+        snapshot.method = readRef();
+        snapshot.scheme = readRef();
+        snapshot.serverName = readRef();
+        snapshot.serverPort = (int)readZigZag();
+        snapshot.requestURI = readRef();
+
+        final int paramCount = (int)readVarint();
+        snapshot.paramNames = new String[paramCount];
+        snapshot.paramValues = new String[paramCount][];
+        for (int i = 0; i < paramCount; i++) {
+            snapshot.paramNames[i] = readRef();
+            final String[] values = new String[(int)readVarint()];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = readString();
+            }
+            snapshot.paramValues[i] = values;
+        }
+        snapshot.headerCount = (int)readVarint();
+        snapshot.headerNames = new String[snapshot.headerCount];
+        snapshot.headerValues = new String[snapshot.headerCount];
+        for (int i = 0; i < snapshot.headerCount; i++) {
+            snapshot.headerNames[i] = readRef();
+            snapshot.headerValues[i] = readString();
+        }
+        final String outcome = readString();
+        snapshot.outcome = outcome.isEmpty() ? null : outcome;
+        logRecord.requestSnapshot = snapshot;
+
+        if (logRecord.hasRequestBody()) {
+            logRecord.requestCharset = readRef();
+            logRecord.requestBodyTotalSize = readVarint();
+            logRecord.requestBody = readBytes((int)readVarint());
+            if ((logRecord.flags & BinaryRecordFormat.FLAG_REQUEST_TAIL) != 0) {
+                logRecord.requestBodyTail = readBytes((int)readVarint());
+            }
+            if ((logRecord.flags & BinaryRecordFormat.FLAG_REQUEST_CHECKSUM) != 0) {
+                logRecord.requestBodyChecksum = readVarint();
+            }
+        }
+        if (logRecord.hasResponseBody()) {
+            logRecord.responseCharset = readRef();
+            if ((logRecord.flags & BinaryRecordFormat.FLAG_RESPONSE_ENCODED) != 0) {
+                logRecord.responseContentEncoding = readRef();
+            }
+            logRecord.responseBodyTotalSize = readVarint();
+            logRecord.responseBody = readBytes((int)readVarint());
+            if ((logRecord.flags & BinaryRecordFormat.FLAG_RESPONSE_TAIL) != 0) {
+                logRecord.responseBodyTail = readBytes((int)readVarint());
+            }
+            if ((logRecord.flags & BinaryRecordFormat.FLAG_RESPONSE_CHECKSUM) != 0) {
+                logRecord.responseBodyChecksum = readVarint();
+            }
+        }
+        return logRecord;
+    }
+
+    private int readByte() throws IOException {
+        if (cursor >= recordLength) {
+            throw new EOFException("record overflow at " + position);
+        }
+        return record[cursor++] & 0xFF;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = readByte();
+            value |= (long)(b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private long readZigZag() throws IOException {
+        final long value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private byte[] readBytes(int length) throws IOException {
+        if (cursor + length > recordLength) {
+            throw new EOFException("record overflow at " + position);
+        }
+        final byte[] bytes = Arrays.copyOfRange(record, cursor, cursor + length);
+        cursor += length;
+        return bytes;
+    }
+
+    private String readString() throws IOException {
+        final int length = (int)readVarint();
+        if (cursor + length > recordLength) {
+            throw new EOFException("record overflow at " + position);
+        }
+        final String value = new String(record, cursor, length, StandardCharsets.UTF_8);
+        cursor += length;
+        return value;
+    }
+
+    private String readRef() throws IOException {
+        final int id = (int)readVarint();
+        if (id == 0) {
+            return readString();
+        }
+        if (id > dictionary.size() || dictionary.get(id - 1) == null) {
+            throw new IOException("unknown dictionary id " + id + " at " + position);
+        }
+        return dictionary.get(id - 1);
+    }
+
+    static String toJson(BinaryLogRecord logRecord) {
+        final RequestSnapshot snapshot = logRecord.requestSnapshot;
+        final StringBuilder json = new StringBuilder(512);
+        json.append("{\"start\":")
+            .append(logRecord.requestStartAt)
+            .append(",\"end\":")
+            .append(logRecord.requestEndTime)
+            .append(",\"cost\":")
+            .append(logRecord.requestEndTime - logRecord.requestStartAt)
+            .append(",\"status\":")
+            .append(logRecord.status);
+        appendField(json, "ip", snapshot.remoteAddr);
+        appendField(json, "method", snapshot.method);
+        appendField(json, "url", snapshot.requestURL());
+        json.append(",\"params\":{");
+        for (int i = 0; i < snapshot.paramNames.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendString(json, snapshot.paramNames[i]);
+            json.append(":[");
+            final String[] values = snapshot.paramValues[i];
+            for (int j = 0; j < values.length; j++) {
+                if (j > 0) {
+                    json.append(',');
+                }
+                appendString(json, values[j]);
+            }
+            json.append(']');
+        }
+        json.append("},\"headers\":{");
+        for (int i = 0; i < snapshot.headerCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendString(json, snapshot.headerNames[i]);
+            json.append(':');
+            appendString(json, snapshot.headerValues[i]);
+        }
+        json.append('}');
+        if (snapshot.multipart) {
+            json.append(",\"multipart\":true");
+        }
+        if (snapshot.outcome != null) {
+            appendField(json, "outcome", snapshot.outcome);
+        }
+        if (logRecord.hasRequestBody()) {
+            appendField(json, "requestBody", logRecord.requestBodyText());
+            json.append(",\"requestBodyBytes\":")
+                .append(logRecord.requestBodyTotalSize);
+        }
+        if (logRecord.hasResponseBody()) {
+            appendField(json, "responseBody", logRecord.responseBodyText());
+            json.append(",\"responseBodyBytes\":")
+                .append(logRecord.responseBodyTotalSize);
+            if (logRecord.responseContentEncoding != null) {
+                appendField(json, "responseContentEncoding", logRecord.responseContentEncoding);
+            }
+        }
+        return json.append('}')
+            .toString();
+    }
+
+    private static void appendField(StringBuilder json, String name, String value) {
+        json.append(",\"")
+            .append(name)
+            .append("\":");
+        appendString(json, value);
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int)c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,117 @@
+package com.air;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+
+/**
+ * 从二进制日志中解码出来的一条请求记录
+ *
+ * @date 2026/10/15
+ */
+final class BinaryLogRecord {
+
+    /**
+     * 记录在文件中的起始位置，包括长度前缀
+     */
+    long offset;
+
+    long requestStartAt;
+
+    long requestEndTime;
+
+    int status;
+
+    int flags;
+
+    RequestSnapshot requestSnapshot;
+
+    String requestCharset;
+
+    long requestBodyTotalSize;
+
+    byte[] requestBody;
+
+    /**
+     * 尾部窗口，没有时为 null
+     */
+    byte[] requestBodyTail;
+
+    /**
+     * 完整请求体的 crc32，没有时为 -1
+     */
+    long requestBodyChecksum = -1;
+
+    String responseCharset;
+
+    /**
+     * 响应的 Content-Encoding，不为 null 时 responseBody 是编码后的原始字节
+     */
+    String responseContentEncoding;
+
+    long responseBodyTotalSize;
+
+    byte[] responseBody;
+
+    byte[] responseBodyTail;
+
+    long responseBodyChecksum = -1;
+
+    boolean hasRequestBody() {
+        return (flags & BinaryRecordFormat.FLAG_REQUEST_BODY) != 0;
+    }
+
+    boolean hasResponseBody() {
+        return (flags & BinaryRecordFormat.FLAG_RESPONSE_BODY) != 0;
+    }
+
+    String requestBodyText() {
+        return hasRequestBody() ? bodyText(requestBody, requestBodyTail, requestBodyTotalSize, requestBodyChecksum,
+            requestCharset) : null;
+    }
+
+    /**
+     * 压缩过的响应在这里解压，解压后最多保留 {@link ContentDecoder#DEFAULT_LIMIT} 个字节
+     */
+    String responseBodyText() {
+        if (!hasResponseBody()) {
+            return null;
+        }
+        if (responseContentEncoding != null) {
+            try {
+                return ContentDecoder.toString(ContentDecoder.decode(new ByteArrayInputStream(responseBody),
+                    responseBody.length, responseBodyTotalSize, responseContentEncoding, ContentDecoder.DEFAULT_LIMIT),
+                    responseContentEncoding, responseBodyTotalSize, charsetOf(responseCharset).name(), null);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return bodyText(responseBody, responseBodyTail, responseBodyTotalSize, responseBodyChecksum,
+            responseCharset);
+    }
+
+    /**
+     * 还原成 filter 的文本日志格式
+     */
+    String toText() {
+        return TextLogLayout.format(TextLogLayout.requestInfo(requestSnapshot, requestBodyText()), requestStartAt,
+            requestEndTime, responseBodyText());
+    }
+
+    private static String bodyText(byte[] body, byte[] tail, long totalSize, long checksum, String charset) {
+        try {
+            return TextLogLayout.bodyText(body, tail, totalSize, checksum, charsetOf(charset).name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Charset charsetOf(String charset) {
+        try {
+            return Charset.forName(charset);
+        } catch (RuntimeException e) {
+            return Charset.forName("ISO-8859-1");
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.air;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按 {@link BinaryRecordFormat} 编码日志事件，交给 {@link RecordSink} 落盘，同时生成记录的 {@link IndexEntry}
+ *
+ * 记录在调用线程上编码到线程私有的缓冲里，只有新增字典项时加锁；查字典不加锁。
+ * 不脱敏的大 body 不拷贝进编码缓冲，引用计数之后把内存段直接交给 sink gather 写入，整个过程不解码成字符串
+ *
+ * @date 2026/10/15
+ */
+final class BinaryLogWriter implements Closeable {
+
+    private static final int MAX_DICTIONARY_SIZE = 65536;
+
+    private static final int ENCODER_INITIAL_BYTES = 4096;
+
+    /**
+     * 编码过大的记录之后，超过这个大小的线程私有缓冲缩回初始大小，
+     * 容器线程数再多，编码缓冲常驻的堆也只有线程数乘以这个大小
+     */
+    private static final int RETAINED_ENCODER_BYTES = 64 * 1024;
+
+    /**
+     * 小于这个大小的 body 拷贝比多一段 gather 写入更便宜
+     */
+    private static final int ZERO_COPY_MIN_BYTES = 8 * 1024;
+
+    private final RecordSink sink;
+
+    private final long baseMillis;
+
+    private final Map<String, Integer> dictionary = new ConcurrentHashMap<>();
+
+    private final RecordEncoder dictionaryEncoder = new RecordEncoder(256);
+
+    private final ThreadLocal<RecordEncoder> encoders = ThreadLocal.withInitial(
+        () -> new RecordEncoder(ENCODER_INITIAL_BYTES));
+
+    private final ThreadLocal<IndexEntry> indexEntries = ThreadLocal.withInitial(IndexEntry::new);
+
+    private final String[] requestIdHeaders;
+
+    private final JsonMasker jsonMasker;
+
+    private int dictionarySize;
+
+    private volatile boolean closed;
+
+    BinaryLogWriter(RecordSink sink) {
+        this(sink, IndexEntry.DEFAULT_REQUEST_ID_HEADERS, null);
+    }
+
+    /**
+     * @param requestIdHeaders 按顺序查找 request id 的请求头，第一个出现的值写入索引
+     * @param jsonMasker body 脱敏，为 null 时写入原始字节
+     */
+    BinaryLogWriter(RecordSink sink, String[] requestIdHeaders, JsonMasker jsonMasker) {
+        this.sink = sink;
+        this.baseMillis = sink.getBaseMillis();
+        this.requestIdHeaders = requestIdHeaders;
+        this.jsonMasker = jsonMasker;
+    }
+
+    void append(LogEvent event) throws IOException {
+        append(event, true);
+    }
+
+    /**
+     * @param decode 是否可以在当前线程上解压压缩过的响应，为 false 时需要脱敏的压缩响应只记录长度
+     */
+    void append(LogEvent event, boolean decode) throws IOException {
+        if (closed) {
+            return;
+        }
+        final RecordEncoder encoder = encoders.get();
+        try {
+            encoder.begin(BinaryRecordFormat.TYPE_EVENT);
+            encodeEvent(encoder, event, decode);
+            final int start = encoder.finish();
+            if (encoder.hasReferences()) {
+                sink.append(encoder.gatherBuffers(), encoder.gather(start), encoder.recordLength(start),
+                    indexEntry(event));
+            } else {
+                sink.append(encoder.array(), start, encoder.position() - start, indexEntry(event));
+            }
+        } finally {
+            encoder.releaseReferences();
+            if (encoder.array().length > RETAINED_ENCODER_BYTES) {
+                encoder.shrink();
+            }
+        }
+    }
+
+    File getCurrentFile() {
+        return sink.getCurrentFile();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        sink.close();
+    }
+
+    private void encodeEvent(RecordEncoder encoder, LogEvent event, boolean decode) throws IOException {
+        final RequestSnapshot snapshot = event.requestSnapshot;
+        encoder.writeZigZag(event.requestStartAt - baseMillis);
+        encoder.writeZigZag(event.requestEndTime - event.requestStartAt);
+        encoder.writeVarint(event.status);
+        final int flags = flags(event);
+        encoder.writeVarint(flags);
+
+        encoder.writeString(snapshot.remoteAddr);
+        writeRef(encoder, snapshot.method);
+        writeRef(encoder, snapshot.scheme);
+        writeRef(encoder, snapshot.serverName);
+        encoder.writeZigZag(snapshot.serverPort);
+        // 带 id 的 uri 基数太高，不进字典
+        final RoutePolicy routePolicy = event.routePolicy;
+        if (routePolicy != null && routePolicy.template == routePolicy.route && routePolicy.route.equals(
+            snapshot.requestURI)) {
+            writeRef(encoder, snapshot.requestURI);
+        } else {
+            writeInline(encoder, snapshot.requestURI);
+        }
+
+        encoder.writeVarint(snapshot.paramNames.length);
+        for (int i = 0; i < snapshot.paramNames.length; i++) {
+            writeRef(encoder, snapshot.paramNames[i]);
+            final String[] values = snapshot.paramValues[i];
+            final int valueCount = values == null ? 0 : values.length;
+            encoder.writeVarint(valueCount);
+            for (int j = 0; j < valueCount; j++) {
+                encoder.writeString(values[j]);
+            }
+        }
+        encoder.writeVarint(snapshot.headerCount);
+        for (int i = 0; i < snapshot.headerCount; i++) {
+            writeRef(encoder, snapshot.headerNames[i]);
+            encoder.writeString(snapshot.headerValues[i]);
+        }
+        encoder.writeString(snapshot.outcome);
+
+        if ((flags & BinaryRecordFormat.FLAG_REQUEST_BODY) != 0) {
+            writeCapture(encoder, event.requestBody, event.requestCharset);
+            writeWindow(encoder, event.requestBody, flags, BinaryRecordFormat.FLAG_REQUEST_TAIL,
+                BinaryRecordFormat.FLAG_REQUEST_CHECKSUM);
+        }
+        if ((flags & BinaryRecordFormat.FLAG_RESPONSE_BODY) != 0) {
+            if ((flags & BinaryRecordFormat.FLAG_RESPONSE_ENCODED) != 0) {
+                writeRef(encoder, event.responseCharset);
+                writeRef(encoder, event.responseContentEncoding);
+                writeRawCapture(encoder, event.responseBody);
+            } else if (ContentDecoder.isEncoded(event.responseContentEncoding)) {
+                writeDecodedCapture(encoder, event.responseBody, event.responseCharset,
+                    event.responseContentEncoding, decode);
+            } else {
+                writeCapture(encoder, event.responseBody, event.responseCharset);
+            }
+            writeWindow(encoder, event.responseBody, flags, BinaryRecordFormat.FLAG_RESPONSE_TAIL,
+                BinaryRecordFormat.FLAG_RESPONSE_CHECKSUM);
+        }
+    }
+
+    /**
+     * 开启脱敏时压缩过的响应先解压再脱敏，无法解压或不能在当前线程解压时只记录长度，不写入无法脱敏的字节。
+     * 解压被截断时记录的总长度是解压后长度的下限
+     */
+    private void writeDecodedCapture(RecordEncoder encoder, CaptureBuffer captureBuffer, String charset,
+        String contentEncoding, boolean decode) throws IOException {
+        final ContentDecoder.Decoded decoded = decode ? ContentDecoder.decode(captureBuffer.newInputStream(),
+            captureBuffer.size(), captureBuffer.totalSize(), contentEncoding, ContentDecoder.DEFAULT_LIMIT) : null;
+        if (decoded == null) {
+            writeRef(encoder, charset);
+            encoder.writeVarint(captureBuffer.totalSize());
+            encoder.writeVarint(0);
+            return;
+        }
+        writeRef(encoder, jsonMasker.outputCharset(charset));
+        encoder.writeCapture(decoded.newInputStream(), decoded.decodedSize - decoded.bytes.length, jsonMasker,
+            charset);
+    }
+
+    private static void writeWindow(RecordEncoder encoder, CaptureBuffer captureBuffer, int flags, int tailFlag,
+        int checksumFlag) {
+        if ((flags & tailFlag) != 0) {
+            encoder.writeTail(captureBuffer);
+        }
+        if ((flags & checksumFlag) != 0) {
+            encoder.writeVarint(captureBuffer.checksum());
+        }
+    }
+
+    private void writeCapture(RecordEncoder encoder, CaptureBuffer captureBuffer, String charset)
+        throws IOException {
+        if (jsonMasker == null) {
+            writeRef(encoder, charset);
+            writeRawCapture(encoder, captureBuffer);
+        } else {
+            writeRef(encoder, jsonMasker.outputCharset(charset));
+            encoder.writeCapture(captureBuffer, jsonMasker, charset);
+        }
+    }
+
+    private static void writeRawCapture(RecordEncoder encoder, CaptureBuffer captureBuffer) throws IOException {
+        if (captureBuffer.size() >= ZERO_COPY_MIN_BYTES && !captureBuffer.isSpilled()) {
+            encoder.writeCaptureReference(captureBuffer);
+        } else {
+            encoder.writeCapture(captureBuffer);
+        }
+    }
+
+    private IndexEntry indexEntry(LogEvent event) {
+        final RequestSnapshot snapshot = event.requestSnapshot;
+        final IndexEntry entry = indexEntries.get();
+        entry.startAt = event.requestStartAt;
+        entry.cost = (int)Math.min(Integer.MAX_VALUE, event.requestEndTime - event.requestStartAt);
+        entry.status = event.status;
+        entry.methodHash = IndexEntry.hash(snapshot.method);
+        entry.routeHash = event.routePolicy != null ? event.routePolicy.template.hashCode()
+            : IndexEntry.routeHash(snapshot.requestURI);
+        entry.requestIdHash = IndexEntry.hash(IndexEntry.requestId(snapshot, requestIdHeaders));
+        entry.flags = flags(event);
+        return entry;
+    }
+
+    private int flags(LogEvent event) {
+        int flags = event.requestSnapshot.multipart ? BinaryRecordFormat.FLAG_MULTIPART : 0;
+        if (event.requestBody != null) {
+            flags |= BinaryRecordFormat.FLAG_REQUEST_BODY | windowFlags(event.requestBody, jsonMasker == null,
+                BinaryRecordFormat.FLAG_REQUEST_TAIL, BinaryRecordFormat.FLAG_REQUEST_CHECKSUM);
+        }
+        if (event.logResponse && event.responseBody != null) {
+            final boolean encoded = ContentDecoder.isEncoded(event.responseContentEncoding);
+            flags |= BinaryRecordFormat.FLAG_RESPONSE_BODY | windowFlags(event.responseBody,
+                jsonMasker == null && !encoded, BinaryRecordFormat.FLAG_RESPONSE_TAIL,
+                BinaryRecordFormat.FLAG_RESPONSE_CHECKSUM);
+            if (encoded && jsonMasker == null) {
+                flags |= BinaryRecordFormat.FLAG_RESPONSE_ENCODED;
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * 脱敏时尾部从 json 中间开始，没有上下文无法脱敏；压缩过的内容尾部无法单独解压，这两种情况都不写入尾部，
+     * 解码后按截断处理；校验和是脱敏、解压前完整内容的
+     */
+    private static int windowFlags(CaptureBuffer captureBuffer, boolean withTail, int tailFlag, int checksumFlag) {
+        int flags = 0;
+        if (captureBuffer.tailSize() > 0 && withTail) {
+            flags |= tailFlag;
+        }
+        if (captureBuffer.checksum() >= 0) {
+            flags |= checksumFlag;
+        }
+        return flags;
+    }
+
+    private void writeRef(RecordEncoder encoder, String value) throws IOException {
+        final String key = value == null ? "" : value;
+        Integer id = dictionary.get(key);
+        if (id == null) {
+            id = register(key);
+        }
+        if (id == null) {
+            writeInline(encoder, key);
+        } else {
+            encoder.writeVarint(id);
+        }
+    }
+
+    private static void writeInline(RecordEncoder encoder, String value) {
+        encoder.writeVarint(0);
+        encoder.writeString(value);
+    }
+
+    /**
+     * 新增字典项，字典项记录先写入文件再对其他线程可见，保证引用它的记录一定在它后面
+     *
+     * @return 字典 id，字典已满或者已经关闭时返回 null
+     */
+    private synchronized Integer register(String value) throws IOException {
+        Integer id = dictionary.get(value);
+        if (id != null) {
+            return id;
+        }
+        if (closed || dictionarySize >= MAX_DICTIONARY_SIZE) {
+            return null;
+        }
+        id = dictionarySize + 1;
+        dictionaryEncoder.begin(BinaryRecordFormat.TYPE_DICT);
+        dictionaryEncoder.writeVarint(id);
+        dictionaryEncoder.writeString(value);
+        final int start = dictionaryEncoder.finish();
+        sink.appendDictionary(dictionaryEncoder.array(), start, dictionaryEncoder.position() - start);
+        dictionarySize = id;
+        dictionary.put(value, id);
+        return id;
+    }
+}
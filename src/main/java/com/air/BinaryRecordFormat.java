@@ -0,0 +1,115 @@
+package com.air;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 二进制日志文件格式
+ *
+ * <pre>
+ * 文件头: "WHSP" | 版本(1 byte) | 基准时间(8 bytes, 大端毫秒, 同一个 writer 写出的文件相同)
+ * 记录:   长度(varint, 不含自身) | 类型(1 byte) | 内容，长度为0表示后面没有记录（映射文件预分配的空间），
+ *        或者是映射文件里领取之后没有写完的空洞，索引里还有更靠后的记录时从那里继续读
+ *
+ * DICT:  id(varint) | 字符串
+ * PAD:   写入失败的记录占用的空间，长度前缀可能是补齐宽度的 varint，内容没有意义，解码时跳过
+ * EVENT: 开始时间相对基准的差值(zigzag varint) | 耗时(zigzag varint) | 状态码(varint) | flags(varint)
+ *        | ip(字符串) | method(引用) | scheme(引用) | server name(引用) | server port(zigzag varint)
+ *        | request uri(引用)
+ *        | 参数个数(varint) | { 参数名(引用) | 值个数(varint) | { 值(字符串) } }
+ *        | header 个数(varint) | { header 名(引用) | 值(字符串) }
+ *        | 异步结果(字符串, 空串表示没有)
+ *        | [FLAG_REQUEST_BODY] 字符集(引用) | 总长度(varint) | 长度(varint) | 原始字节
+ *          [FLAG_REQUEST_TAIL] 尾部长度(varint) | 尾部字节  [FLAG_REQUEST_CHECKSUM] 完整内容的 crc32(varint)
+ *        | [FLAG_RESPONSE_BODY] 字符集(引用) | [FLAG_RESPONSE_ENCODED] Content-Encoding(引用)
+ *          | 总长度(varint) | 长度(varint) | 原始字节
+ *          [FLAG_RESPONSE_TAIL] 尾部长度(varint) | 尾部字节  [FLAG_RESPONSE_CHECKSUM] 完整内容的 crc32(varint)
+ *
+ * 字符串: 长度(varint) | utf-8 字节
+ * 引用:   0 后跟字符串表示不在字典里，否则为字典 id
+ * </pre>
+ *
+ * 版本2增加了尾部窗口和校验和，版本3增加了响应的 Content-Encoding，旧版本的文件没有这些 flag，可以按同样的方式解码。
+ * 响应被压缩时保存压缩后的原始字节，解码时再解压；开启脱敏时由异步日志线程在写入前解压并脱敏，不设置 FLAG_RESPONSE_ENCODED，
+ * 解压被截断时总长度只是下限；同步写入时不解压，只记录总长度
+ *
+ * 字典 id 在进程内不变，滚动到新文件时先写入已有的字典项，每个文件可以单独解码
+ *
+ * @date 2026/10/15
+ */
+final class BinaryRecordFormat {
+
+    static final byte[] MAGIC = {'W', 'H', 'S', 'P'};
+
+    static final int VERSION = 3;
+
+    static final int MIN_VERSION = 1;
+
+    static final int FILE_HEADER_BYTES = MAGIC.length + 1 + 8;
+
+    static final String FILE_SUFFIX = ".wbin";
+
+    static final int TYPE_DICT = 1;
+
+    static final int TYPE_EVENT = 2;
+
+    static final int TYPE_PAD = 3;
+
+    static final int FLAG_MULTIPART = 1;
+
+    static final int FLAG_REQUEST_BODY = 1 << 1;
+
+    static final int FLAG_RESPONSE_BODY = 1 << 2;
+
+    static final int FLAG_REQUEST_TAIL = 1 << 3;
+
+    static final int FLAG_RESPONSE_TAIL = 1 << 4;
+
+    static final int FLAG_REQUEST_CHECKSUM = 1 << 5;
+
+    static final int FLAG_RESPONSE_CHECKSUM = 1 << 6;
+
+    static final int FLAG_RESPONSE_ENCODED = 1 << 7;
+
+    /**
+     * int 的 varint 最长5个字节
+     */
+    static final int MAX_LENGTH_PREFIX_BYTES = 5;
+
+    private static final DateTimeFormatter FILE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private BinaryRecordFormat() {
+    }
+
+    static File ensureDirectory(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can not create binary log directory " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * 创建新的日志文件，文件名为 whisper-时间-序号.wbin，同名文件已存在时递增序号
+     */
+    static File createFile(File directory, int sequence) throws IOException {
+        final String prefix = "whisper-" + LocalDateTime.now()
+            .format(FILE_TIME_FORMAT) + "-";
+        File file;
+        do {
+            file = new File(directory, prefix + String.format("%04d", sequence++) + FILE_SUFFIX);
+        } while (!file.createNewFile());
+        return file;
+    }
+
+    static ByteBuffer fileHeader(long baseMillis) {
+        final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+        header.put(MAGIC)
+            .put((byte)VERSION)
+            .putLong(baseMillis)
+            .flip();
+        return header;
+    }
+}
@@ -0,0 +1,456 @@
+package com.air;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 堆外的捕获缓冲分配器，body 不占用 Java 堆，不增加 GC 停顿
+ *
+ * 每次按 1MB 申请 direct slab，切成同一级大小的段，slab 总大小不超过 budgetBytes。
+ * 空闲段先放在归还线程私有的缓存里，超出 threadCacheSize 的放回全局队列；预算用完时先从其他线程的缓存里收回空闲段，
+ * 仍然没有才借段失败，由 {@link CaptureBuffer} 截断，不阻塞请求线程。{@link #close()} 之后不再借出，
+ * 所有段归还之后立即释放 slab 的堆外内存；线程缓存是静态类，close 时清空，之后访问 arena 的线程顺带移除自己的
+ * ThreadLocal，容器线程不会在重新部署之后通过线程缓存持有 arena。
+ *
+ * 每个租约是所属缓冲的 PhantomReference，缓冲没有释放就被回收时记录泄漏，并把段收回
+ *
+ * @date 2026/10/15
+ */
+final class CaptureArena implements SegmentAllocator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CaptureArena.class);
+
+    private static final int SLAB_BYTES = 1024 * 1024;
+
+    private final long budgetBytes;
+
+    private final int threadCacheSize;
+
+    private final Queue<Slot>[] freeSlots;
+
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    private final AtomicLong bytesInUse = new AtomicLong();
+
+    private final LongAdder exhaustedCount = new LongAdder();
+
+    private final LongAdder leakCount = new LongAdder();
+
+    private final ReferenceQueue<Object> leakQueue = new ReferenceQueue<>();
+
+    /**
+     * 未归还的租约，保证 PhantomReference 本身在所属缓冲被回收之前可达
+     */
+    private final Set<ArenaLease> liveLeases = ConcurrentHashMap.newKeySet();
+
+    private final Queue<ThreadCache> threadCaches = new ConcurrentLinkedQueue<>();
+
+    private final ThreadLocal<ThreadCache> currentThreadCache = ThreadLocal.withInitial(this::newThreadCache);
+
+    private final Queue<ByteBuffer> slabs = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean closed;
+
+    /**
+     * @param budgetBytes 堆外内存的总预算
+     * @param threadCacheSize 每个线程每一级缓存的空闲段数
+     */
+    @SuppressWarnings("unchecked")
+    CaptureArena(long budgetBytes, int threadCacheSize) {
+        this.budgetBytes = budgetBytes;
+        this.threadCacheSize = Math.max(0, threadCacheSize);
+        this.freeSlots = new Queue[CaptureBufferPool.SEGMENT_SIZES.length];
+        for (int i = 0; i < freeSlots.length; i++) {
+            freeSlots[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    @Override
+    public Lease lease(Object owner) {
+        reclaimLeaks();
+        return new ArenaLease(owner);
+    }
+
+    @Override
+    public long bytesInUse() {
+        return bytesInUse.get();
+    }
+
+    /**
+     * @return 已经申请的 slab 总大小
+     */
+    long reservedBytes() {
+        return reservedBytes.get();
+    }
+
+    /**
+     * @return 因为预算用完借段失败的次数
+     */
+    long getExhaustedCount() {
+        return exhaustedCount.sum();
+    }
+
+    /**
+     * @return 没有释放就被回收的缓冲数
+     */
+    long getLeakCount() {
+        return leakCount.sum();
+    }
+
+    /**
+     * 停止借出段，丢弃所有空闲段；没有借出的段时立即释放 slab，否则在最后一个段归还时释放
+     */
+    void close() {
+        closed = true;
+        currentThreadCache.remove();
+        for (Queue<Slot> queue : freeSlots) {
+            queue.clear();
+        }
+        for (ThreadCache cache : threadCaches) {
+            cache.clear();
+        }
+        threadCaches.clear();
+        if (bytesInUse.get() == 0) {
+            freeSlabs();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureArena{budgetBytes=" + budgetBytes + ", threadCacheSize=" + threadCacheSize + "}";
+    }
+
+    private Slot acquireSlot(int sizeClass) {
+        if (closed) {
+            currentThreadCache.remove();
+            return null;
+        }
+        Slot slot = currentThreadCache.get()
+            .poll(sizeClass);
+        if (slot == null) {
+            slot = freeSlots[sizeClass].poll();
+        }
+        if (slot == null) {
+            slot = allocateSlab(sizeClass);
+        }
+        if (slot == null && (reclaimLeaks() | reclaimThreadCaches(sizeClass))) {
+            slot = freeSlots[sizeClass].poll();
+        }
+        if (slot == null) {
+            exhaustedCount.increment();
+            return null;
+        }
+        bytesInUse.addAndGet(slot.segment.capacity());
+        if (closed) {
+            // 和 close() 并发时不能借出可能已经释放的段
+            releaseSlot(slot, null);
+            return null;
+        }
+        slot.segment.clear();
+        return slot;
+    }
+
+    private void releaseSlot(Slot slot, ThreadCache cache) {
+        final long inUse = bytesInUse.addAndGet(-slot.segment.capacity());
+        if (closed) {
+            if (inUse == 0) {
+                freeSlabs();
+            }
+            return;
+        }
+        if (cache == null || !cache.offer(slot)) {
+            freeSlots[slot.sizeClass].offer(slot);
+        }
+    }
+
+    /**
+     * 在预算内申请一个 slab，返回第一个段，其余放入全局队列
+     */
+    private Slot allocateSlab(int sizeClass) {
+        final int segmentSize = CaptureBufferPool.SEGMENT_SIZES[sizeClass];
+        final int slabBytes = Math.max(segmentSize, SLAB_BYTES / segmentSize * segmentSize);
+        long reserved;
+        do {
+            reserved = reservedBytes.get();
+            if (reserved + slabBytes > budgetBytes) {
+                return null;
+            }
+        } while (!reservedBytes.compareAndSet(reserved, reserved + slabBytes));
+
+        final ByteBuffer slab;
+        try {
+            slab = ByteBuffer.allocateDirect(slabBytes);
+        } catch (OutOfMemoryError e) {
+            reservedBytes.addAndGet(-slabBytes);
+            LOGGER.error("can not allocate capture arena slab of {} bytes", slabBytes, e);
+            return null;
+        }
+        slabs.offer(slab);
+        Slot first = null;
+        for (int offset = 0; offset < slabBytes; offset += segmentSize) {
+            slab.limit(offset + segmentSize);
+            slab.position(offset);
+            final Slot slot = new Slot(slab.slice(), sizeClass);
+            if (first == null) {
+                first = slot;
+            } else {
+                freeSlots[sizeClass].offer(slot);
+            }
+        }
+        return first;
+    }
+
+    /**
+     * 收回没有释放就被回收的缓冲借出的段
+     *
+     * @return 是否收回了段
+     */
+    private boolean reclaimLeaks() {
+        boolean reclaimed = false;
+        Reference<?> reference;
+        while ((reference = leakQueue.poll()) != null) {
+            final ArenaLease lease = (ArenaLease)reference;
+            if (!liveLeases.remove(lease)) {
+                continue;
+            }
+            leakCount.increment();
+            LOGGER.error("capture buffer was garbage collected without release, {} bytes returned to arena",
+                lease.bytes());
+            lease.releaseSlots(null);
+            reclaimed = true;
+        }
+        return reclaimed;
+    }
+
+    /**
+     * 预算用完时把其他线程缓存的同一级空闲段放回全局队列，已经结束的线程的缓存全部收回；
+     * 空闲的线程不会把预算一直占着
+     *
+     * @return 是否收回了段
+     */
+    private boolean reclaimThreadCaches(int sizeClass) {
+        boolean reclaimed = false;
+        for (Iterator<ThreadCache> iterator = threadCaches.iterator(); iterator.hasNext(); ) {
+            final ThreadCache cache = iterator.next();
+            final Thread thread = cache.thread.get();
+            if (thread != null && thread.isAlive()) {
+                reclaimed |= cache.drainTo(freeSlots, sizeClass);
+                continue;
+            }
+            iterator.remove();
+            for (int i = 0; i < freeSlots.length; i++) {
+                reclaimed |= cache.drainTo(freeSlots, i);
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * 只在没有借出的段时调用，这时 slab 不再被任何缓冲引用
+     */
+    private void freeSlabs() {
+        ByteBuffer slab;
+        while ((slab = slabs.poll()) != null) {
+            reservedBytes.addAndGet(-slab.capacity());
+            Cleaner.free(slab);
+        }
+    }
+
+    private ThreadCache newThreadCache() {
+        final ThreadCache cache = new ThreadCache(threadCacheSize);
+        threadCaches.offer(cache);
+        return cache;
+    }
+
+    /**
+     * slab 中的一个段，段对象随 slab 一直保留，重复借出
+     */
+    private static final class Slot {
+
+        final ByteBuffer segment;
+
+        final int sizeClass;
+
+        Slot(ByteBuffer segment, int sizeClass) {
+            this.segment = segment;
+            this.sizeClass = sizeClass;
+        }
+    }
+
+    /**
+     * 线程私有的空闲段，通常只由所属线程访问，锁没有竞争；预算用完时其他线程从这里收回
+     */
+    private static final class ThreadCache {
+
+        final WeakReference<Thread> thread = new WeakReference<>(Thread.currentThread());
+
+        final ArrayDeque<Slot>[] slots;
+
+        final int capacity;
+
+        @SuppressWarnings("unchecked")
+        ThreadCache(int capacity) {
+            this.capacity = capacity;
+            slots = new ArrayDeque[CaptureBufferPool.SEGMENT_SIZES.length];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = new ArrayDeque<>();
+            }
+        }
+
+        synchronized Slot poll(int sizeClass) {
+            return slots[sizeClass].poll();
+        }
+
+        synchronized boolean offer(Slot slot) {
+            final ArrayDeque<Slot> deque = slots[slot.sizeClass];
+            if (deque.size() >= capacity) {
+                return false;
+            }
+            deque.push(slot);
+            return true;
+        }
+
+        synchronized boolean drainTo(Queue<Slot>[] freeSlots, int sizeClass) {
+            boolean drained = false;
+            Slot slot;
+            while ((slot = slots[sizeClass].poll()) != null) {
+                freeSlots[sizeClass].offer(slot);
+                drained = true;
+            }
+            return drained;
+        }
+
+        synchronized void clear() {
+            for (ArrayDeque<Slot> deque : slots) {
+                deque.clear();
+            }
+        }
+    }
+
+    /**
+     * 记录一个缓冲借出的段，所属缓冲被回收之前没有 releaseAll 时进入 leakQueue
+     */
+    private final class ArenaLease extends PhantomReference<Object> implements Lease {
+
+        private Slot[] slots = new Slot[4];
+
+        private int count;
+
+        ArenaLease(Object owner) {
+            super(owner, leakQueue);
+            liveLeases.add(this);
+        }
+
+        @Override
+        public ByteBuffer acquire(int ordinal) {
+            final Slot slot = acquireSlot(Math.min(ordinal, CaptureBufferPool.SEGMENT_SIZES.length - 1));
+            if (slot == null) {
+                return null;
+            }
+            if (count == slots.length) {
+                slots = Arrays.copyOf(slots, count * 2);
+            }
+            slots[count++] = slot;
+            return slot.segment;
+        }
+
+        /**
+         * 缓冲中预算用完之后退回到堆内存的段不是从这里借的，只归还记录的段
+         */
+        @Override
+        public void releaseAll(ByteBuffer[] segments, int segmentCount) {
+            if (liveLeases.remove(this)) {
+                clear();
+                if (closed) {
+                    currentThreadCache.remove();
+                    releaseSlots(null);
+                } else {
+                    releaseSlots(currentThreadCache.get());
+                }
+            }
+        }
+
+        void releaseSlots(ThreadCache cache) {
+            for (int i = 0; i < count; i++) {
+                releaseSlot(slots[i], cache);
+                slots[i] = null;
+            }
+            count = 0;
+        }
+
+        long bytes() {
+            long bytes = 0;
+            for (int i = 0; i < count; i++) {
+                bytes += slots[i].segment.capacity();
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * 立即释放 direct buffer 的堆外内存或解除文件映射：Java 9 以上用 Unsafe.invokeCleaner，Java 8 调用 buffer 自己的
+     * cleaner；都不可用时只能等 GC 回收。释放之后不能再访问 buffer，只能用于 allocateDirect 或 map 直接返回的 buffer
+     */
+    static final class Cleaner {
+
+        private static final Object UNSAFE;
+
+        private static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                final Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                invokeCleaner = null;
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+
+        private Cleaner() {
+        }
+
+        static void free(ByteBuffer buffer) {
+            try {
+                if (INVOKE_CLEANER != null) {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                    return;
+                }
+                final Method cleanerMethod = buffer.getClass()
+                    .getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass()
+                        .getMethod("clean")
+                        .invoke(cleaner);
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.debug("can not free direct buffer, left to gc", e);
+            }
+        }
+    }
+}
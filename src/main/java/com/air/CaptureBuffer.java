@@ -0,0 +1,525 @@
+package com.air;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 由池化分段组成的有界捕获缓冲，替代 ByteArrayOutputStream
+ *
+ * 扩容只追加新段，不拷贝已有数据；超过 limit 的部分只计数不保存，输出时追加截断标记。
+ * 配置了 {@link SpillPolicy} 时，内存超出预算后的数据写入溢出文件，内存段在前、文件在后；
+ * 配置了 {@link CaptureWindow} 时，超出 limit 的部分写入环形的尾部窗口，输出为 头部...[省略的字节数]...尾部。
+ *
+ * 内存段可以通过 {@link #retain()} 借给写日志的线程直接落盘，所有引用都释放之后才还给池
+ *
+ * @date 2026/10/15
+ */
+final class CaptureBuffer extends OutputStream {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CaptureBuffer.class);
+
+    private static final int INITIAL_SEGMENT_SLOTS = 4;
+
+    private final SegmentAllocator allocator;
+
+    /**
+     * 第一次申请段时才开租约
+     */
+    private SegmentAllocator.Lease lease;
+
+    private int limit;
+
+    private final SpillPolicy spillPolicy;
+
+    private final int tailLimit;
+
+    /**
+     * 尾部窗口，头部写满之后才分配
+     */
+    private byte[] tail;
+
+    /**
+     * 尾部窗口下一个写入的位置
+     */
+    private int tailPosition;
+
+    private int tailSize;
+
+    private final CRC32 checksum;
+
+    private ByteBuffer[] segments = new ByteBuffer[INITIAL_SEGMENT_SLOTS];
+
+    private int segmentCount;
+
+    private long memoryBytes;
+
+    private SpillFile spillFile;
+
+    private boolean spillFailed;
+
+    private int size;
+
+    private long totalSize;
+
+    private boolean released;
+
+    /**
+     * 所有者持有一个引用，{@link #retain()} 每次加一
+     */
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    /**
+     * @param allocator 段的来源
+     * @param limit 最多保存的字节数
+     */
+    CaptureBuffer(SegmentAllocator allocator, int limit) {
+        this(allocator, limit, null);
+    }
+
+    /**
+     * @param allocator 段的来源
+     * @param limit 最多保存的字节数
+     * @param spillPolicy 溢出策略，为 null 时全部保存在内存
+     */
+    CaptureBuffer(SegmentAllocator allocator, int limit, SpillPolicy spillPolicy) {
+        this(allocator, limit, spillPolicy, null);
+    }
+
+    /**
+     * @param allocator 段的来源，预算用完时之后的内容按超出 limit 处理
+     * @param limit 最多保存的头部字节数，为 Integer.MAX_VALUE 时必须完整保存，预算用完时退回到堆内存
+     * @param spillPolicy 溢出策略，为 null 时全部保存在内存
+     * @param window 尾部窗口和校验和，为 null 时超出 limit 的部分直接丢弃
+     */
+    CaptureBuffer(SegmentAllocator allocator, int limit, SpillPolicy spillPolicy, CaptureWindow window) {
+        this.allocator = allocator;
+        this.limit = limit;
+        this.spillPolicy = spillPolicy;
+        this.tailLimit = window == null ? 0 : window.getTailBytes();
+        this.checksum = window != null && window.isChecksum() ? new CRC32() : null;
+    }
+
+    @Override
+    public void write(int b) {
+        totalSize++;
+        if (checksum != null) {
+            checksum.update(b);
+        }
+        if (released) {
+            return;
+        }
+        if (size >= limit) {
+            if (tailLimit > 0) {
+                writeTail(b);
+            }
+            return;
+        }
+        if (isSpilling() || trySpill()) {
+            try {
+                spillFile.write(b);
+                size++;
+                return;
+            } catch (IOException e) {
+                abandonSpill(e);
+                if (size >= limit) {
+                    return;
+                }
+            }
+        }
+        final ByteBuffer segment = writableSegment();
+        if (segment == null) {
+            limit = size;
+            if (tailLimit > 0) {
+                writeTail(b);
+            }
+            return;
+        }
+        segment.put((byte)b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        totalSize += len;
+        if (checksum != null) {
+            checksum.update(b, off, len);
+        }
+        if (released) {
+            return;
+        }
+        final int end = off + len;
+        while (off < end && size < limit) {
+            int n = Math.min(end - off, limit - size);
+            if (isSpilling() || trySpill()) {
+                try {
+                    spillFile.write(b, off, n);
+                    off += n;
+                    size += n;
+                } catch (IOException e) {
+                    abandonSpill(e);
+                }
+                continue;
+            }
+            final ByteBuffer segment = writableSegment();
+            if (segment == null) {
+                limit = size;
+                break;
+            }
+            n = Math.min(n, segment.remaining());
+            segment.put(b, off, n);
+            off += n;
+            size += n;
+        }
+        if (off < end && tailLimit > 0) {
+            writeTail(b, off, end - off);
+        }
+    }
+
+    /**
+     * @return 已保存的字节数
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return 写入的全部字节数，包括超出 limit 未保存的部分
+     */
+    long totalSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return 头部是否没有保存全部内容，有尾部窗口时也是 true
+     */
+    boolean isTruncated() {
+        return totalSize > size;
+    }
+
+    int tailSize() {
+        return tailSize;
+    }
+
+    /**
+     * @return 尾部窗口按写入顺序的拷贝，没有尾部时返回 null
+     */
+    byte[] tailBytes() {
+        if (tailSize == 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[tailSize];
+        copyTail(bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * 按写入顺序把尾部窗口拷贝到 dest
+     *
+     * @return 拷贝的字节数
+     */
+    int copyTail(byte[] dest, int offset) {
+        if (tailSize < tailLimit) {
+            System.arraycopy(tail, 0, dest, offset, tailSize);
+        } else if (tailSize > 0) {
+            final int first = tailLimit - tailPosition;
+            System.arraycopy(tail, tailPosition, dest, offset, first);
+            System.arraycopy(tail, 0, dest, offset + first, tailPosition);
+        }
+        return tailSize;
+    }
+
+    /**
+     * @return 完整内容的 CRC32，没有开启时返回 -1
+     */
+    long checksum() {
+        return checksum == null ? -1 : checksum.getValue();
+    }
+
+    boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    byte[] toByteArray() {
+        return toByteArray(size);
+    }
+
+    /**
+     * @return 前 length 个已保存的字节
+     */
+    byte[] toByteArray(int length) {
+        final byte[] bytes = new byte[length];
+        int position = 0;
+        for (int i = 0; i < segmentCount && position < length; i++) {
+            final ByteBuffer segment = segments[i].duplicate();
+            segment.flip();
+            final int n = Math.min(segment.remaining(), length - position);
+            segment.get(bytes, position, n);
+            position += n;
+        }
+        if (spillFile != null) {
+            long filePosition = 0;
+            int n;
+            while (position < bytes.length
+                && (n = spillFile.read(filePosition, bytes, position, bytes.length - position)) > 0) {
+                position += n;
+                filePosition += n;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 渲染成文本时读取的字节数：溢出到磁盘的内容只读回单个缓冲的内存预算以内的部分，
+     * 输出日志时不会把整个 body 读回堆内存
+     */
+    int textSize() {
+        return spillFile == null ? size : (int)Math.min(size, spillPolicy.getPerBufferMemoryBytes());
+    }
+
+    String toString(String charset) throws UnsupportedEncodingException {
+        return TextLogLayout.bodyText(toByteArray(textSize()), tailBytes(), totalSize, checksum(), charset);
+    }
+
+    /**
+     * 从头读取已保存的数据，可以多次调用，每次返回一个新的流
+     */
+    InputStream newInputStream() {
+        return new CaptureInputStream();
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureBuffer{size=" + size + ", totalSize=" + totalSize + ", limit=" + limit + ", tailSize="
+            + tailSize + ", spilled=" + isSpilled() + "}";
+    }
+
+    /**
+     * @return 内存段的数量，溢出文件中的数据不计
+     */
+    int segmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * 把内存段的只读视图依次放入 dest，不拷贝数据；只有没有溢出时才包含全部已保存的数据，
+     * 视图只在 {@link #retain()} 之后、{@link #releaseRetained()} 之前有效
+     *
+     * @return dest 中下一个空闲的位置
+     */
+    int readSegments(ByteBuffer[] dest, int offset) {
+        for (int i = 0; i < segmentCount; i++) {
+            final ByteBuffer view = segments[i].asReadOnlyBuffer();
+            view.flip();
+            dest[offset++] = view;
+        }
+        return offset;
+    }
+
+    /**
+     * 增加一个引用，之后由持有者调用 {@link #releaseRetained()}，所有者 {@link #release()} 之后段仍然有效
+     */
+    void retain() {
+        refCount.incrementAndGet();
+    }
+
+    void releaseRetained() {
+        if (refCount.decrementAndGet() == 0) {
+            free();
+        }
+    }
+
+    /**
+     * 所有者释放，之后的写入都会被忽略，可重复调用；没有其他引用时把所有段还给池并删除溢出文件
+     */
+    void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        releaseRetained();
+    }
+
+    private void free() {
+        if (lease != null) {
+            lease.releaseAll(segments, segmentCount);
+        }
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = null;
+        }
+        segmentCount = 0;
+        memoryBytes = 0;
+        size = 0;
+        tail = null;
+        tailSize = 0;
+        if (spillFile != null) {
+            spillFile.delete();
+            spillFile = null;
+        }
+    }
+
+    private void writeTail(int b) {
+        if (tail == null) {
+            tail = new byte[tailLimit];
+        }
+        tail[tailPosition] = (byte)b;
+        tailPosition = tailPosition + 1 == tailLimit ? 0 : tailPosition + 1;
+        tailSize = Math.min(tailSize + 1, tailLimit);
+    }
+
+    /**
+     * 超出窗口大小的部分只保留最后 tailLimit 个字节
+     */
+    private void writeTail(byte[] b, int off, int len) {
+        if (tail == null) {
+            tail = new byte[tailLimit];
+        }
+        if (len >= tailLimit) {
+            System.arraycopy(b, off + len - tailLimit, tail, 0, tailLimit);
+            tailPosition = 0;
+            tailSize = tailLimit;
+            return;
+        }
+        final int first = Math.min(len, tailLimit - tailPosition);
+        System.arraycopy(b, off, tail, tailPosition, first);
+        System.arraycopy(b, off + first, tail, 0, len - first);
+        tailPosition = (tailPosition + len) % tailLimit;
+        tailSize = Math.min(tailSize + len, tailLimit);
+    }
+
+    private ByteBuffer writableSegment() {
+        if (segmentCount > 0 && segments[segmentCount - 1].hasRemaining()) {
+            return segments[segmentCount - 1];
+        }
+        if (segmentCount == segments.length) {
+            segments = Arrays.copyOf(segments, segments.length * 2);
+        }
+        if (lease == null) {
+            lease = allocator.lease(this);
+        }
+        ByteBuffer segment = lease.acquire(segmentCount);
+        if (segment == null) {
+            if (limit != Integer.MAX_VALUE) {
+                return null;
+            }
+            segment = ByteBuffer.allocate(CaptureBufferPool.segmentSize(segmentCount));
+        }
+        memoryBytes += segment.capacity();
+        segments[segmentCount++] = segment;
+        return segment;
+    }
+
+    /**
+     * 当前段写满、需要申请新段时判断是否超出内存预算，超出则创建溢出文件
+     */
+    private boolean trySpill() {
+        if (spillPolicy == null || spillFailed) {
+            return false;
+        }
+        if (segmentCount > 0 && segments[segmentCount - 1].hasRemaining()) {
+            return false;
+        }
+        final int nextSegmentSize = CaptureBufferPool.segmentSize(segmentCount);
+        if (!spillPolicy.shouldSpill(memoryBytes + nextSegmentSize, allocator.bytesInUse() + nextSegmentSize)) {
+            return false;
+        }
+        try {
+            spillFile = SpillFile.create(spillPolicy.getDirectory(), spillPolicy.getChunkBytes());
+            return true;
+        } catch (IOException e) {
+            abandonSpill(e);
+            return false;
+        }
+    }
+
+    private boolean isSpilling() {
+        return spillFile != null && !spillFailed;
+    }
+
+    /**
+     * 溢出文件不可用时：还没写入数据则退回到内存，已经写入了部分数据则停止捕获，保证已捕获的数据有序
+     */
+    private void abandonSpill(IOException e) {
+        LOGGER.error("error occured when spilling capture buffer to disk", e);
+        spillFailed = true;
+        if (spillFile == null) {
+            return;
+        }
+        if (spillFile.size() == 0) {
+            spillFile.delete();
+            spillFile = null;
+        } else {
+            limit = size;
+        }
+    }
+
+    /**
+     * 依次读取内存段和溢出文件
+     */
+    private class CaptureInputStream extends InputStream {
+
+        private final byte[] single = new byte[1];
+
+        private int segmentIndex;
+
+        private int segmentOffset;
+
+        private long filePosition;
+
+        private int position;
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= size) {
+                return -1;
+            }
+            while (segmentIndex < segmentCount) {
+                final ByteBuffer segment = segments[segmentIndex];
+                final int available = segment.position() - segmentOffset;
+                if (available <= 0) {
+                    segmentIndex++;
+                    segmentOffset = 0;
+                    continue;
+                }
+                final ByteBuffer view = segment.duplicate();
+                view.limit(segment.position());
+                view.position(segmentOffset);
+                final int n = Math.min(len, available);
+                view.get(b, off, n);
+                segmentOffset += n;
+                position += n;
+                return n;
+            }
+            if (spillFile == null) {
+                return -1;
+            }
+            final int n = spillFile.read(filePosition, b, off, Math.min(len, size - position));
+            if (n > 0) {
+                filePosition += n;
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return Math.max(0, size - position);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.air;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按大小分级的缓冲段池，{@link CaptureBuffer} 从这里借段，日志输出完之后归还
+ *
+ * 段大小依次为 1KB、8KB、64KB，每一级最多缓存 maxPooledPerClass 个空闲段，超出的直接丢给 GC
+ *
+ * @date 2026/10/15
+ */
+final class CaptureBufferPool implements SegmentAllocator {
+
+    static final int[] SEGMENT_SIZES = {1024, 8 * 1024, 64 * 1024};
+
+    private final boolean direct;
+
+    private final int maxPooledPerClass;
+
+    private final Queue<ByteBuffer>[] freeSegments;
+
+    private final AtomicInteger[] freeCounts;
+
+    private final AtomicLong bytesInUse = new AtomicLong();
+
+    /**
+     * 池不区分借段的缓冲，所有缓冲共用一个租约
+     */
+    private final Lease lease = new Lease() {
+        @Override
+        public ByteBuffer acquire(int ordinal) {
+            return CaptureBufferPool.this.acquire(ordinal);
+        }
+
+        @Override
+        public void releaseAll(ByteBuffer[] segments, int count) {
+            for (int i = 0; i < count; i++) {
+                release(segments[i]);
+            }
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    CaptureBufferPool(boolean direct, int maxPooledPerClass) {
+        this.direct = direct;
+        this.maxPooledPerClass = maxPooledPerClass;
+        this.freeSegments = new Queue[SEGMENT_SIZES.length];
+        this.freeCounts = new AtomicInteger[SEGMENT_SIZES.length];
+        for (int i = 0; i < SEGMENT_SIZES.length; i++) {
+            freeSegments[i] = new ConcurrentLinkedQueue<>();
+            freeCounts[i] = new AtomicInteger();
+        }
+    }
+
+    @Override
+    public Lease lease(Object owner) {
+        return lease;
+    }
+
+    /**
+     * 借一个段，第 n 个段使用第 n 级的大小，超过最大级别后都用最大级别
+     *
+     * @param ordinal 段在 buffer 中的序号
+     */
+    ByteBuffer acquire(int ordinal) {
+        final int sizeClass = Math.min(ordinal, SEGMENT_SIZES.length - 1);
+        bytesInUse.addAndGet(SEGMENT_SIZES[sizeClass]);
+        final ByteBuffer segment = freeSegments[sizeClass].poll();
+        if (segment != null) {
+            freeCounts[sizeClass].decrementAndGet();
+            return segment;
+        }
+        return direct ? ByteBuffer.allocateDirect(SEGMENT_SIZES[sizeClass]) :
+            ByteBuffer.allocate(SEGMENT_SIZES[sizeClass]);
+    }
+
+    void release(ByteBuffer segment) {
+        final int sizeClass = sizeClassOf(segment.capacity());
+        if (sizeClass >= 0) {
+            bytesInUse.addAndGet(-segment.capacity());
+        }
+        if (sizeClass < 0 || segment.isDirect() != direct) {
+            return;
+        }
+        if (freeCounts[sizeClass].incrementAndGet() > maxPooledPerClass) {
+            freeCounts[sizeClass].decrementAndGet();
+            return;
+        }
+        segment.clear();
+        freeSegments[sizeClass].offer(segment);
+    }
+
+    /**
+     * @return 第 ordinal 个段的大小
+     */
+    static int segmentSize(int ordinal) {
+        return SEGMENT_SIZES[Math.min(ordinal, SEGMENT_SIZES.length - 1)];
+    }
+
+    @Override
+    public long bytesInUse() {
+        return bytesInUse.get();
+    }
+
+    private static int sizeClassOf(int capacity) {
+        for (int i = 0; i < SEGMENT_SIZES.length; i++) {
+            if (SEGMENT_SIZES[i] == capacity) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,37 @@
+package com.air;
+
+/**
+ * 头尾窗口捕获：超出 limit 的部分不再全部丢弃，额外保留最后 tailBytes 个字节，中间只计数；可选对完整内容计算 CRC32
+ *
+ * 每个缓冲占用的内存固定为 limit + tailBytes，和 body 大小无关
+ *
+ * @date 2026/10/15
+ */
+final class CaptureWindow {
+
+    private final int tailBytes;
+
+    private final boolean checksum;
+
+    /**
+     * @param tailBytes 保留的尾部字节数，0 表示只保留头部
+     * @param checksum 是否计算完整内容的 CRC32
+     */
+    CaptureWindow(int tailBytes, boolean checksum) {
+        this.tailBytes = Math.max(0, tailBytes);
+        this.checksum = checksum;
+    }
+
+    int getTailBytes() {
+        return tailBytes;
+    }
+
+    boolean isChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureWindow{tailBytes=" + tailBytes + ", checksum=" + checksum + "}";
+    }
+}
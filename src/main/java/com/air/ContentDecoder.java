@@ -0,0 +1,204 @@
+package com.air;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.lang.reflect.Constructor;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按 Content-Encoding 解压捕获的响应体，在输出日志的线程上调用，不占用请求线程
+ *
+ * 支持 gzip、deflate（zlib 格式和不带头的原始格式），classpath 上有 org.brotli:dec 时支持 br。
+ * 解压后最多保留 limit 个字节，到达上限后不再继续解压，压缩比很高的内容也不会多做解压；
+ * 解压后的总长度只知道下限，截断标记里和压缩后的总字节数分开标注
+ *
+ * @date 2026/10/15
+ */
+final class ContentDecoder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContentDecoder.class);
+
+    /**
+     * 没有配置上限时（如离线解码）解压后最多保留的字节数
+     */
+    static final int DEFAULT_LIMIT = 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private static final Constructor<? extends InputStream> BROTLI = brotli();
+
+    private ContentDecoder() {
+    }
+
+    /**
+     * @return 是否需要解压，没有 Content-Encoding 或为 identity 时返回 false
+     */
+    static boolean isEncoded(String contentEncoding) {
+        return contentEncoding != null && !contentEncoding.isEmpty() && !"identity".equalsIgnoreCase(
+            contentEncoding.trim());
+    }
+
+    /**
+     * 解压捕获的内容，解压出 limit 个字节之后停止
+     *
+     * @param encoded 捕获的编码后的字节
+     * @param size 捕获的字节数
+     * @param totalSize 编码后的总字节数
+     * @return 不支持的编码或无法解压时返回 null
+     */
+    static Decoded decode(InputStream encoded, int size, long totalSize, String contentEncoding, int limit) {
+        if (size == 0) {
+            return new Decoded(new byte[0], 0, totalSize > 0);
+        }
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(Math.min(limit, CHUNK_SIZE));
+        long decodedSize = 0;
+        boolean truncated = totalSize > size;
+        try (InputStream inputStream = open(encoded, contentEncoding)) {
+            if (inputStream == null) {
+                return null;
+            }
+            final byte[] chunk = new byte[CHUNK_SIZE];
+            int n;
+            while ((n = inputStream.read(chunk, 0, Math.max(1, Math.min(CHUNK_SIZE, limit - output.size())))) > 0) {
+                decodedSize += n;
+                if (output.size() >= limit) {
+                    // 只为确认后面还有数据多读了一次
+                    truncated = true;
+                    break;
+                }
+                output.write(chunk, 0, n);
+            }
+        } catch (IOException e) {
+            // 捕获的内容被截断时在末尾抛出 EOFException，保留已经解压的部分
+            if (!truncated) {
+                LOGGER.debug("error occured when decoding {} content", contentEncoding, e);
+            }
+            if (decodedSize == 0) {
+                return null;
+            }
+            truncated = true;
+        }
+        return new Decoded(output.toByteArray(), decodedSize, truncated);
+    }
+
+    /**
+     * 解压之后的文本，脱敏和截断标记的处理和未编码的内容一致
+     *
+     * @param decoded {@link #decode} 的结果，为 null 时只输出编码和长度
+     * @param encodedSize 编码后的总字节数
+     * @param jsonMasker 为 null 时不脱敏
+     */
+    static String toString(Decoded decoded, String contentEncoding, long encodedSize, String charset,
+        JsonMasker jsonMasker) throws IOException {
+        if (decoded == null) {
+            return TextLogLayout.markEncoded(contentEncoding, encodedSize);
+        }
+        final String content;
+        if (jsonMasker == null) {
+            content = new String(decoded.bytes, charset);
+        } else {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(decoded.bytes.length);
+            jsonMasker.mask(decoded.newInputStream(), charset, output);
+            content = new String(output.toByteArray(), jsonMasker.outputCharset(charset));
+        }
+        return decoded.truncated ? TextLogLayout.markDecodedTruncated(content, decoded.decodedSize,
+            contentEncoding, encodedSize) : content;
+    }
+
+    static String toString(CaptureBuffer captureBuffer, String contentEncoding, String charset, int limit,
+        JsonMasker jsonMasker) throws IOException {
+        return toString(decode(captureBuffer.newInputStream(), captureBuffer.size(), captureBuffer.totalSize(),
+            contentEncoding, limit), contentEncoding, captureBuffer.totalSize(), charset, jsonMasker);
+    }
+
+    private static InputStream open(InputStream encoded, String contentEncoding) throws IOException {
+        final String encoding = contentEncoding.trim()
+            .toLowerCase(Locale.ROOT);
+        switch (encoding) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(encoded, CHUNK_SIZE);
+            case "deflate":
+                return inflate(encoded);
+            case "br":
+                if (BROTLI == null) {
+                    return null;
+                }
+                try {
+                    return BROTLI.newInstance(encoded);
+                } catch (ReflectiveOperationException e) {
+                    throw new IOException("can not create brotli decoder", e);
+                }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * HTTP 的 deflate 应该是 zlib 格式，但有的服务端发送不带头的原始 deflate 数据，按前两个字节区分
+     */
+    private static InputStream inflate(InputStream encoded) throws IOException {
+        final PushbackInputStream inputStream = new PushbackInputStream(encoded, 2);
+        final int b0 = inputStream.read();
+        final int b1 = inputStream.read();
+        if (b1 >= 0) {
+            inputStream.unread(b1);
+        }
+        if (b0 >= 0) {
+            inputStream.unread(b0);
+        }
+        final boolean zlib = b0 >= 0 && b1 >= 0 && (b0 & 0x0F) == 8 && ((b0 << 8) | b1) % 31 == 0;
+        final Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(inputStream, inflater, CHUNK_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Constructor<? extends InputStream> brotli() {
+        try {
+            return (Constructor<? extends InputStream>)Class.forName("org.brotli.dec.BrotliInputStream")
+                .getConstructor(InputStream.class);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解压后保留的字节，以及解压出的字节数；被截断时 decodedSize 只是总长度的下限
+     */
+    static final class Decoded {
+
+        final byte[] bytes;
+
+        final long decodedSize;
+
+        final boolean truncated;
+
+        Decoded(byte[] bytes, long decodedSize, boolean truncated) {
+            this.bytes = bytes;
+            this.decodedSize = decodedSize;
+            this.truncated = truncated;
+        }
+
+        InputStream newInputStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.air;
+
+/**
+ * 索引里的一项，对应日志文件中的一条记录，字段都是定长的，按 {@link SegmentIndex} 的布局写入
+ *
+ * 路由、方法和 request id 只保存 {@link String#hashCode()}，查询时先按 hash 过滤，再解码记录核对原值
+ *
+ * @date 2026/10/15
+ */
+final class IndexEntry {
+
+    /**
+     * 默认按顺序查找的 request id 请求头，traceparent 只取其中的 trace id
+     */
+    static final String[] DEFAULT_REQUEST_ID_HEADERS = {"X-Request-Id", "X-B3-TraceId", "traceparent"};
+
+    private static final String TRACEPARENT = "traceparent";
+
+    /**
+     * 字典记录的 status，查询时先按它们加载字典
+     */
+    static final int STATUS_DICTIONARY = -1;
+
+    long offset;
+
+    long startAt;
+
+    int cost;
+
+    int status;
+
+    int methodHash;
+
+    int routeHash;
+
+    int requestIdHash;
+
+    int flags;
+
+    boolean isDictionary() {
+        return status == STATUS_DICTIONARY;
+    }
+
+    static int routeHash(String requestURI) {
+        return RouteNormalizer.template(RouteNormalizer.normalize(requestURI)).hashCode();
+    }
+
+    static int hash(String value) {
+        return value == null ? 0 : value.hashCode();
+    }
+
+    /**
+     * @return 第一个出现的 request id 请求头的值，都没有时返回 null
+     */
+    static String requestId(RequestSnapshot snapshot, String[] requestIdHeaders) {
+        for (String name : requestIdHeaders) {
+            for (int i = 0; i < snapshot.headerCount; i++) {
+                if (name.equalsIgnoreCase(snapshot.headerNames[i])) {
+                    return TRACEPARENT.equalsIgnoreCase(name) ? traceId(snapshot.headerValues[i])
+                        : snapshot.headerValues[i];
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * traceparent: version-traceid-spanid-flags
+     */
+    private static String traceId(String traceparent) {
+        final int start = traceparent.indexOf('-');
+        final int end = start < 0 ? -1 : traceparent.indexOf('-', start + 1);
+        return end < 0 ? traceparent : traceparent.substring(start + 1, end);
+    }
+}
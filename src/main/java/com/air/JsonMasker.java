@@ -0,0 +1,588 @@
+package com.air;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.ReaderInputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * json body 脱敏：单次扫描字节流，不建语法树，按 key 或者路径把值替换成掩码，输出和输入同时进行，内存占用只和嵌套深度有关
+ *
+ * <pre>
+ * key:  password,idCard         任意深度下这些 key 的值，不区分大小写
+ * path: $.user.phone,$.items[*].cardNo,$.data.*.token
+ * </pre>
+ *
+ * 值是对象或者数组时整个替换掉。扫描按字节进行，UTF-8 和 ISO-8859-1 之类的单字节兼容编码直接扫描；
+ * GBK、UTF-16 等编码的多字节字符里可能出现 \ 或者引号字节，先转成 UTF-8 再扫描，输出也是 UTF-8。
+ * 不是以 { 或者 [ 开头的内容原样输出；json 开始之后格式不对或者嵌套超过 64 层时，从出错的位置开始不再输出，
+ * 末尾加上 [unparseable json, N bytes]，不能靠构造格式错误绕过脱敏。key 里的转义（包括 \\uXXXX）先还原再比较
+ *
+ * @date 2026/10/15
+ */
+final class JsonMasker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JsonMasker.class);
+
+    private static final int MAX_DEPTH = 64;
+
+    private static final int MAX_KEY_BYTES = 128;
+
+    private static final int CHUNK_BYTES = 8192;
+
+    private final byte[][] keys;
+
+    private final List<PathSegment[]> paths;
+
+    private final byte[] mask;
+
+    private final ThreadLocal<Tokenizer> tokenizers = ThreadLocal.withInitial(Tokenizer::new);
+
+    /**
+     * @param keys 逗号分隔的 key
+     * @param paths 逗号分隔的 json 路径
+     * @param maskValue 替换成的字符串，输出时加上引号
+     */
+    JsonMasker(String keys, String paths, String maskValue) {
+        final List<byte[]> keyList = new ArrayList<>();
+        for (String key : StringUtils.split(StringUtils.defaultString(keys), ',')) {
+            if (StringUtils.isNotBlank(key)) {
+                keyList.add(key.trim()
+                    .toLowerCase(Locale.ROOT)
+                    .getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        this.keys = keyList.toArray(new byte[0][]);
+        this.paths = new ArrayList<>();
+        for (String path : StringUtils.split(StringUtils.defaultString(paths), ',')) {
+            if (StringUtils.isBlank(path)) {
+                continue;
+            }
+            try {
+                this.paths.add(parsePath(path.trim()));
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("invalid json path {}, ignored", path, e);
+            }
+        }
+        this.mask = ("\"" + maskValue.replace("\\", "\\\\")
+            .replace("\"", "\\\"") + "\"").getBytes(StandardCharsets.UTF_8);
+    }
+
+    boolean isEmpty() {
+        return keys.length == 0 && paths.isEmpty();
+    }
+
+    /**
+     * 脱敏之后的文本，被截断的内容和 {@link CaptureBuffer#toString(String)} 一样加上截断标记，
+     * 溢出到磁盘的内容同样只读取 {@link CaptureBuffer#textSize()} 个字节。
+     * 尾部窗口从 json 中间开始，没有上下文无法脱敏，不输出
+     */
+    String toString(CaptureBuffer captureBuffer, String charset) throws IOException {
+        final int textSize = captureBuffer.textSize();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(textSize);
+        mask(new BoundedInputStream(captureBuffer.newInputStream(), textSize), charset, output);
+        final String content = new String(output.toByteArray(), outputCharset(charset));
+        return textSize < captureBuffer.totalSize() ? TextLogLayout.markTruncated(content, captureBuffer.totalSize(),
+            captureBuffer.checksum()) : content;
+    }
+
+    /**
+     * @return 脱敏输出的编码
+     */
+    String outputCharset(String charset) {
+        return isByteSafe(charset) ? charset : StandardCharsets.UTF_8.name();
+    }
+
+    void mask(InputStream inputStream, String charset, OutputStream outputStream) throws IOException {
+        // 不认识的编码按 UTF-8 处理，字节原样交给 tokenizer
+        final Charset sourceCharset = isByteSafe(charset) ? null : lookup(charset);
+        final InputStream source = sourceCharset == null ? inputStream
+            : new ReaderInputStream(new InputStreamReader(inputStream, sourceCharset), StandardCharsets.UTF_8,
+                CHUNK_BYTES);
+        final Tokenizer tokenizer = tokenizers.get();
+        tokenizer.reset();
+        int n;
+        while ((n = source.read(tokenizer.chunk)) >= 0) {
+            tokenizer.process(n, outputStream);
+        }
+        tokenizer.finish(outputStream);
+    }
+
+    /**
+     * 结构字符都是 ascii，并且多字节字符里不会出现 ascii 字节的编码
+     */
+    private static boolean isByteSafe(String charset) {
+        if (charset == null) {
+            return true;
+        }
+        try {
+            final String name = Charset.forName(charset)
+                .name();
+            return "UTF-8".equals(name) || "US-ASCII".equals(name) || name.startsWith("ISO-8859-")
+                || name.startsWith("windows-125");
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return 不合法或者不支持的编码返回 null
+     */
+    private static Charset lookup(String charset) {
+        try {
+            return Charset.forName(charset);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static PathSegment[] parsePath(String path) {
+        final List<PathSegment> segments = new ArrayList<>();
+        int i = path.startsWith("$") ? 1 : 0;
+        while (i < path.length()) {
+            final char c = path.charAt(i);
+            if (c == '.') {
+                i++;
+                continue;
+            }
+            if (c == '[') {
+                final int end = path.indexOf(']', i);
+                if (end < 0) {
+                    throw new IllegalArgumentException("invalid json path " + path);
+                }
+                final String index = path.substring(i + 1, end)
+                    .trim();
+                segments.add(PathSegment.element("*".equals(index) ? -1 : Integer.parseInt(index)));
+                i = end + 1;
+                continue;
+            }
+            int end = i;
+            while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                end++;
+            }
+            final String name = path.substring(i, end);
+            segments.add(PathSegment.field("*".equals(name) ? null : name.getBytes(StandardCharsets.UTF_8)));
+            i = end;
+        }
+        if (segments.isEmpty()) {
+            throw new IllegalArgumentException("invalid json path " + path);
+        }
+        return segments.toArray(new PathSegment[0]);
+    }
+
+    private static final class PathSegment {
+
+        /**
+         * 为 false 时匹配数组元素
+         */
+        final boolean field;
+
+        /**
+         * 为 null 时匹配任意 key
+         */
+        final byte[] name;
+
+        /**
+         * 为 -1 时匹配任意下标
+         */
+        final int index;
+
+        private PathSegment(boolean field, byte[] name, int index) {
+            this.field = field;
+            this.name = name;
+            this.index = index;
+        }
+
+        static PathSegment field(byte[] name) {
+            return new PathSegment(true, name, -1);
+        }
+
+        static PathSegment element(int index) {
+            return new PathSegment(false, null, index);
+        }
+    }
+
+    /**
+     * 逐字节的状态机，每层对象记下当前 key，每层数组记下当前下标
+     */
+    private final class Tokenizer {
+
+        private static final int EXPECT_VALUE = 0;
+
+        private static final int EXPECT_KEY = 1;
+
+        private static final int IN_KEY = 2;
+
+        private static final int IN_KEY_ESCAPE = 3;
+
+        private static final int EXPECT_COLON = 4;
+
+        private static final int IN_STRING = 5;
+
+        private static final int IN_STRING_ESCAPE = 6;
+
+        private static final int IN_LITERAL = 7;
+
+        private static final int AFTER_VALUE = 8;
+
+        /**
+         * 格式不对，剩下的内容不再解析
+         */
+        private static final int BROKEN = 9;
+
+        private static final int IN_KEY_UNICODE = 10;
+
+        final byte[] chunk = new byte[CHUNK_BYTES];
+
+        private final boolean[] objectFrames = new boolean[MAX_DEPTH];
+
+        private final byte[][] frameKeys = new byte[MAX_DEPTH][];
+
+        /**
+         * 对象层是 key 的长度，key 太长时为 -1；数组层是当前下标
+         */
+        private final int[] frameValues = new int[MAX_DEPTH];
+
+        private int depth;
+
+        private int state;
+
+        /**
+         * 正在被替换的值所在的层，-1 表示没有在替换
+         */
+        private int maskingDepth;
+
+        private int runStart;
+
+        /**
+         * 是否已经遇到 json 开头的 { 或者 [
+         */
+        private boolean started;
+
+        /**
+         * json 格式出错之后不再输出的字节数，-1 表示没有出错
+         */
+        private long suppressedBytes;
+
+        /**
+         * key 中 \\uXXXX 已经读到的十六进制位数和值
+         */
+        private int unicodeDigits;
+
+        private int unicodeValue;
+
+        void reset() {
+            depth = 0;
+            state = EXPECT_VALUE;
+            maskingDepth = -1;
+            started = false;
+            suppressedBytes = -1;
+        }
+
+        void process(int length, OutputStream outputStream) throws IOException {
+            if (suppressedBytes >= 0) {
+                suppressedBytes += length;
+                return;
+            }
+            runStart = 0;
+            int i = 0;
+            while (i < length && state != BROKEN) {
+                final int b = chunk[i];
+                switch (state) {
+                    case EXPECT_VALUE:
+                        if (isWhitespace(b)) {
+                            break;
+                        }
+                        if (b == ']' && depth > 0 && !objectFrames[depth - 1]) {
+                            close(i);
+                            break;
+                        }
+                        if (depth == 0 && b != '{' && b != '[' || depth >= MAX_DEPTH) {
+                            broken(i, length, outputStream);
+                            continue;
+                        }
+                        started = true;
+                        if (maskingDepth < 0 && depth > 0 && matches()) {
+                            outputStream.write(chunk, runStart, i - runStart);
+                            outputStream.write(mask);
+                            maskingDepth = depth;
+                        }
+                        startValue(b);
+                        break;
+                    case EXPECT_KEY:
+                        if (b == '"') {
+                            frameValues[depth - 1] = 0;
+                            state = IN_KEY;
+                        } else if (b == '}') {
+                            close(i);
+                        } else if (!isWhitespace(b)) {
+                            broken(i, length, outputStream);
+                            continue;
+                        }
+                        break;
+                    case IN_KEY:
+                        if (b == '"') {
+                            state = EXPECT_COLON;
+                            break;
+                        }
+                        if (b == '\\') {
+                            state = IN_KEY_ESCAPE;
+                        } else {
+                            appendKey(b);
+                        }
+                        break;
+                    case IN_KEY_ESCAPE:
+                        if (b == 'u') {
+                            unicodeDigits = 0;
+                            unicodeValue = 0;
+                            state = IN_KEY_UNICODE;
+                            break;
+                        }
+                        appendKey(unescape(b));
+                        state = IN_KEY;
+                        break;
+                    case IN_KEY_UNICODE:
+                        final int digit = Character.digit(b, 16);
+                        if (digit < 0) {
+                            broken(i, length, outputStream);
+                            continue;
+                        }
+                        unicodeValue = unicodeValue << 4 | digit;
+                        if (++unicodeDigits == 4) {
+                            appendKeyChar(unicodeValue);
+                            state = IN_KEY;
+                        }
+                        break;
+                    case EXPECT_COLON:
+                        if (b == ':') {
+                            state = EXPECT_VALUE;
+                        } else if (!isWhitespace(b)) {
+                            broken(i, length, outputStream);
+                            continue;
+                        }
+                        break;
+                    case IN_STRING:
+                        if (b == '"') {
+                            endValue(i + 1);
+                        } else if (b == '\\') {
+                            state = IN_STRING_ESCAPE;
+                        }
+                        break;
+                    case IN_STRING_ESCAPE:
+                        state = IN_STRING;
+                        break;
+                    case IN_LITERAL:
+                        if (b == ',' || b == '}' || b == ']' || isWhitespace(b)) {
+                            // 分隔符属于外层，重新处理
+                            endValue(i);
+                            continue;
+                        }
+                        break;
+                    default:
+                        if (b == ',' && depth > 0) {
+                            if (objectFrames[depth - 1]) {
+                                state = EXPECT_KEY;
+                            } else {
+                                frameValues[depth - 1]++;
+                                state = EXPECT_VALUE;
+                            }
+                        } else if ((b == '}' || b == ']') && depth > 0) {
+                            close(i);
+                        } else if (!isWhitespace(b)) {
+                            broken(i, length, outputStream);
+                            continue;
+                        }
+                }
+                i++;
+            }
+            if (suppressedBytes < 0 && maskingDepth < 0 && runStart < length) {
+                outputStream.write(chunk, runStart, length - runStart);
+            }
+        }
+
+        /**
+         * 整个 body 处理完之后调用，json 出错时输出被丢弃部分的长度
+         */
+        void finish(OutputStream outputStream) throws IOException {
+            if (suppressedBytes >= 0) {
+                outputStream.write(("[unparseable json, " + suppressedBytes + " bytes]").getBytes(
+                    StandardCharsets.US_ASCII));
+            }
+        }
+
+        /**
+         * 不是 json 的内容原样输出；json 开始之后出错时丢弃剩下的内容，只计数
+         */
+        private void broken(int i, int length, OutputStream outputStream) throws IOException {
+            state = BROKEN;
+            if (!started) {
+                return;
+            }
+            if (maskingDepth < 0) {
+                outputStream.write(chunk, runStart, i - runStart);
+            }
+            suppressedBytes = length - i;
+        }
+
+        private void startValue(int b) {
+            if (b == '{' || b == '[') {
+                final boolean object = b == '{';
+                objectFrames[depth] = object;
+                frameValues[depth] = 0;
+                depth++;
+                state = object ? EXPECT_KEY : EXPECT_VALUE;
+            } else if (b == '"') {
+                state = IN_STRING;
+            } else {
+                state = IN_LITERAL;
+            }
+        }
+
+        private void close(int i) {
+            depth--;
+            endValue(i + 1);
+        }
+
+        /**
+         * @param next 值之后第一个字节的位置，替换结束时从这里继续输出
+         */
+        private void endValue(int next) {
+            state = AFTER_VALUE;
+            if (maskingDepth == depth) {
+                maskingDepth = -1;
+                runStart = next;
+            }
+        }
+
+        private int unescape(int b) {
+            switch (b) {
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                default:
+                    return b;
+            }
+        }
+
+        /**
+         * 按 UTF-8 追加 \\uXXXX 还原出的字符，代理对的两半分别编码，不会和配置的 key 相等
+         */
+        private void appendKeyChar(int c) {
+            if (c < 0x80) {
+                appendKey(c);
+            } else if (c < 0x800) {
+                appendKey(0xC0 | c >> 6);
+                appendKey(0x80 | c & 0x3F);
+            } else {
+                appendKey(0xE0 | c >> 12);
+                appendKey(0x80 | c >> 6 & 0x3F);
+                appendKey(0x80 | c & 0x3F);
+            }
+        }
+
+        private void appendKey(int b) {
+            if (maskingDepth >= 0) {
+                return;
+            }
+            final int frame = depth - 1;
+            final int length = frameValues[frame];
+            if (length < 0) {
+                return;
+            }
+            if (length >= MAX_KEY_BYTES) {
+                frameValues[frame] = -1;
+                return;
+            }
+            if (frameKeys[frame] == null) {
+                frameKeys[frame] = new byte[MAX_KEY_BYTES];
+            }
+            frameKeys[frame][length] = (byte)b;
+            frameValues[frame] = length + 1;
+        }
+
+        private boolean matches() {
+            final int frame = depth - 1;
+            if (objectFrames[frame] && frameValues[frame] >= 0) {
+                for (byte[] key : keys) {
+                    if (equalsIgnoreCase(key, frameKeys[frame], frameValues[frame])) {
+                        return true;
+                    }
+                }
+            }
+            for (PathSegment[] path : paths) {
+                if (path.length == depth && matches(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean matches(PathSegment[] path) {
+            for (int i = 0; i < depth; i++) {
+                final PathSegment segment = path[i];
+                if (segment.field != objectFrames[i]) {
+                    return false;
+                }
+                if (segment.field) {
+                    if (segment.name != null && !equals(segment.name, frameKeys[i], frameValues[i])) {
+                        return false;
+                    }
+                } else if (segment.index >= 0 && segment.index != frameValues[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isWhitespace(int b) {
+            return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+        }
+
+        private boolean equals(byte[] expected, byte[] key, int length) {
+            if (expected.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (expected[i] != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean equalsIgnoreCase(byte[] lowerCase, byte[] key, int length) {
+            if (lowerCase.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                int b = key[i];
+                if (b >= 'A' && b <= 'Z') {
+                    b += 'a' - 'A';
+                }
+                if (lowerCase[i] != b) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
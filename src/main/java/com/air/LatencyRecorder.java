@@ -0,0 +1,171 @@
+package com.air;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按路由模板和状态码统计耗时，每个维度一个 HdrHistogram {@link Recorder}，请求线程上的记录是 wait-free 的；
+ * 后台线程按周期取出区间直方图交给 {@link LatencyReporter}，区间直方图在下个周期复用
+ *
+ * @date 2026/10/15
+ */
+final class LatencyRecorder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LatencyRecorder.class);
+
+    /**
+     * 路由模板数超过上限之后，新的路由都记在这里
+     */
+    static final String OTHER_ROUTES = "{other}";
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private static final int MAX_STATUS = 599;
+
+    private final Map<String, Channel> routes = new ConcurrentHashMap<>();
+
+    /**
+     * 下标为状态码，0 存放不合法的状态码
+     */
+    private final AtomicReferenceArray<Channel> statuses = new AtomicReferenceArray<>(MAX_STATUS + 1);
+
+    private final int maxRoutes;
+
+    private final long intervalMillis;
+
+    private final LatencyReporter reporter;
+
+    private final ScheduledExecutorService scheduler;
+
+    private long intervalStartMillis = System.currentTimeMillis();
+
+    private volatile List<LatencySnapshot> lastSnapshots = Collections.emptyList();
+
+    /**
+     * @param maxRoutes 最多统计的路由模板数
+     * @param intervalMillis 统计周期
+     * @param reporter 分位数输出
+     */
+    LatencyRecorder(int maxRoutes, long intervalMillis, LatencyReporter reporter) {
+        this.maxRoutes = maxRoutes;
+        this.intervalMillis = intervalMillis;
+        this.reporter = reporter;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "whisper-latency-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void start() {
+        scheduler.scheduleAtFixedRate(this::rollover, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        LOGGER.info("latency recorder started, interval={}ms, maxRoutes={}, reporter={}", intervalMillis, maxRoutes,
+            reporter.getClass()
+                .getName());
+    }
+
+    /**
+     * @param routeTemplate 路由模板
+     * @param status 响应状态码
+     * @param elapsedNanos 耗时
+     */
+    void record(String routeTemplate, int status, long elapsedNanos) {
+        final long micros = Math.min(HIGHEST_TRACKABLE_MICROS, Math.max(0L, elapsedNanos / 1000L));
+        routeChannel(routeTemplate).recorder.recordValue(micros);
+        statusChannel(status).recorder.recordValue(micros);
+    }
+
+    /**
+     * @return 上一个周期的分位数
+     */
+    List<LatencySnapshot> getLastSnapshots() {
+        return lastSnapshots;
+    }
+
+    /**
+     * 结束当前周期并输出，由后台线程定时调用
+     */
+    synchronized void rollover() {
+        final long intervalEndMillis = System.currentTimeMillis();
+        final List<LatencySnapshot> snapshots = new ArrayList<>();
+        for (Map.Entry<String, Channel> entry : routes.entrySet()) {
+            collect(LatencySnapshot.DIMENSION_ROUTE, entry.getKey(), entry.getValue(), snapshots);
+        }
+        for (int status = 0; status <= MAX_STATUS; status++) {
+            final Channel channel = statuses.get(status);
+            if (channel != null) {
+                collect(LatencySnapshot.DIMENSION_STATUS, String.valueOf(status), channel, snapshots);
+            }
+        }
+        lastSnapshots = Collections.unmodifiableList(snapshots);
+        try {
+            reporter.report(intervalStartMillis, intervalEndMillis, lastSnapshots);
+        } catch (Throwable t) {
+            LOGGER.error("error occured when reporting latency", t);
+        }
+        intervalStartMillis = intervalEndMillis;
+    }
+
+    /**
+     * 停止定时任务并输出最后一个周期
+     */
+    void shutdown() {
+        scheduler.shutdownNow();
+        rollover();
+    }
+
+    private Channel routeChannel(String routeTemplate) {
+        final Channel channel = routes.get(routeTemplate);
+        if (channel != null) {
+            return channel;
+        }
+        final String key = routes.size() < maxRoutes ? routeTemplate : OTHER_ROUTES;
+        return routes.computeIfAbsent(key, ignore -> new Channel());
+    }
+
+    private Channel statusChannel(int status) {
+        final int index = status > 0 && status <= MAX_STATUS ? status : 0;
+        final Channel channel = statuses.get(index);
+        if (channel != null) {
+            return channel;
+        }
+        statuses.compareAndSet(index, null, new Channel());
+        return statuses.get(index);
+    }
+
+    private static void collect(String dimension, String key, Channel channel, List<LatencySnapshot> snapshots) {
+        final Histogram interval = channel.recorder.getIntervalHistogram(channel.recycled);
+        channel.recycled = interval;
+        if (interval.getTotalCount() == 0) {
+            return;
+        }
+        snapshots.add(new LatencySnapshot(dimension, key, interval.getTotalCount(),
+            Math.round(interval.getMean() * interval.getTotalCount()), interval.getValueAtPercentile(50D),
+            interval.getValueAtPercentile(90D), interval.getValueAtPercentile(99D),
+            interval.getValueAtPercentile(99.9D), interval.getMaxValue()));
+    }
+
+    private static final class Channel {
+
+        final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+
+        /**
+         * 上个周期的区间直方图，只在 rollover 中访问
+         */
+        Histogram recycled;
+    }
+}
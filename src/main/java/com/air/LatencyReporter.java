@@ -0,0 +1,20 @@
+package com.air;
+
+import java.util.List;
+
+/**
+ * 耗时分位数的输出方式，通过 latencyReporter 配置实现类的全名，实现类需要有无参构造方法
+ *
+ * @date 2026/10/15
+ */
+public interface LatencyReporter {
+
+    /**
+     * 每个统计周期结束时在后台线程上调用一次，没有请求的路由和状态码不会出现在列表里
+     *
+     * @param intervalStartMillis 周期开始时间
+     * @param intervalEndMillis 周期结束时间
+     * @param snapshots 各路由模板和状态码的分位数
+     */
+    void report(long intervalStartMillis, long intervalEndMillis, List<LatencySnapshot> snapshots);
+}
@@ -0,0 +1,98 @@
+package com.air;
+
+/**
+ * 一个统计周期内某个路由模板或状态码的耗时分位数，单位为微秒
+ *
+ * @date 2026/10/15
+ */
+public final class LatencySnapshot {
+
+    /**
+     * 按路由模板统计
+     */
+    public static final String DIMENSION_ROUTE = "route";
+
+    /**
+     * 按响应状态码统计
+     */
+    public static final String DIMENSION_STATUS = "status";
+
+    private final String dimension;
+
+    private final String key;
+
+    private final long count;
+
+    private final long sum;
+
+    private final long p50;
+
+    private final long p90;
+
+    private final long p99;
+
+    private final long p999;
+
+    private final long max;
+
+    LatencySnapshot(String dimension, String key, long count, long sum, long p50, long p90, long p99, long p999,
+        long max) {
+        this.dimension = dimension;
+        this.key = key;
+        this.count = count;
+        this.sum = sum;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    public String getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @return 路由模板或者状态码
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return 周期内所有请求的耗时之和，按直方图的精度计算
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return dimension + "=" + key + " count=" + count + " p50=" + p50 + "us p90=" + p90 + "us p99=" + p99
+            + "us p999=" + p999 + "us max=" + max + "us";
+    }
+}
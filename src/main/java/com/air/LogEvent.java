@@ -0,0 +1,61 @@
+package com.air;
+
+/**
+ * 一条待输出的请求日志，异步模式下预先分配在 {@link LogRingBuffer} 中循环复用
+ *
+ * @date 2026/10/15
+ */
+final class LogEvent {
+
+    RequestSnapshot requestSnapshot;
+
+    RoutePolicy routePolicy;
+
+    int status;
+
+    long requestStartAt;
+
+    long requestEndTime;
+
+    boolean logResponse;
+
+    CaptureBuffer requestBody;
+
+    String requestCharset;
+
+    CaptureBuffer responseBody;
+
+    String responseCharset;
+
+    /**
+     * 响应的 Content-Encoding，捕获的是编码后的字节，输出日志时再解压
+     */
+    String responseContentEncoding;
+
+    boolean isValid() {
+        return requestSnapshot != null;
+    }
+
+    /**
+     * 清理事件，同时把请求和响应的捕获缓冲还给池
+     */
+    void clear() {
+        if (requestBody != null) {
+            requestBody.release();
+        }
+        if (responseBody != null) {
+            responseBody.release();
+        }
+        requestSnapshot = null;
+        routePolicy = null;
+        status = 0;
+        requestStartAt = 0L;
+        requestEndTime = 0L;
+        logResponse = false;
+        requestBody = null;
+        requestCharset = null;
+        responseBody = null;
+        responseCharset = null;
+        responseContentEncoding = null;
+    }
+}
@@ -0,0 +1,121 @@
+package com.air;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 有界无锁多生产者多消费者环形队列，槽位中的 {@link LogEvent} 预先分配并循环复用
+ *
+ * 每个槽位维护一个序号：
+ *  1. 序号 == 生产位置：槽位空闲，可以被生产者领取
+ *  2. 序号 == 生产位置 + 1：槽位已发布，可以被消费者领取
+ *  3. 消费完成后序号推进一圈，供下一轮生产者使用
+ *
+ * @date 2026/10/15
+ */
+final class LogRingBuffer {
+
+    private final LogEvent[] events;
+
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong producerCursor = new AtomicLong();
+
+    private final AtomicLong consumerCursor = new AtomicLong();
+
+    /**
+     * @param requestedCapacity 容量，向上取整为2的幂
+     */
+    LogRingBuffer(int requestedCapacity) {
+        if (requestedCapacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + requestedCapacity);
+        }
+        final int capacity = requestedCapacity == 1 ? 1 : Integer.highestOneBit(requestedCapacity - 1) << 1;
+        this.mask = capacity - 1;
+        this.events = new LogEvent[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            events[i] = new LogEvent();
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return events.length;
+    }
+
+    /**
+     * 领取一个空闲槽位
+     *
+     * @return 槽位序号，队列已满时返回 -1
+     */
+    long tryClaim() {
+        long position = producerCursor.get();
+        for (; ; ) {
+            final long sequence = sequences.get(index(position));
+            final long diff = sequence - position;
+            if (diff == 0) {
+                if (producerCursor.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+                position = producerCursor.get();
+            } else if (diff < 0) {
+                return -1;
+            } else {
+                position = producerCursor.get();
+            }
+        }
+    }
+
+    LogEvent get(long sequence) {
+        return events[index(sequence)];
+    }
+
+    /**
+     * 发布已填充的槽位，之后对消费者可见
+     */
+    void publish(long sequence) {
+        sequences.lazySet(index(sequence), sequence + 1);
+    }
+
+    /**
+     * 领取一个已发布的槽位
+     *
+     * @return 槽位序号，队列为空时返回 -1
+     */
+    long tryTake() {
+        long position = consumerCursor.get();
+        for (; ; ) {
+            final long sequence = sequences.get(index(position));
+            final long diff = sequence - (position + 1);
+            if (diff == 0) {
+                if (consumerCursor.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+                position = consumerCursor.get();
+            } else if (diff < 0) {
+                return -1;
+            } else {
+                position = consumerCursor.get();
+            }
+        }
+    }
+
+    /**
+     * 消费完成，清理事件并把槽位交还给生产者
+     */
+    void release(long sequence) {
+        events[index(sequence)].clear();
+        sequences.lazySet(index(sequence), sequence + mask + 1);
+    }
+
+    boolean isEmpty() {
+        return consumerCursor.get() >= producerCursor.get();
+    }
+
+    private int index(long sequence) {
+        return (int)sequence & mask;
+    }
+}
@@ -0,0 +1,132 @@
+package com.air;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 请求日志采样：在包装 request/response 之前决定是否采样，
+ * 没有采样的请求不捕获 body，出错或者慢请求在结束时仍然记录请求信息
+ *
+ * @date 2026/10/15
+ */
+final class LogSampler {
+
+    /**
+     * 路由模板数超过上限之后，新的路由共用这个桶
+     */
+    static final String OTHER_ROUTES = "{other}";
+
+    private final double sampleRate;
+
+    private final double routePermitsPerSecond;
+
+    private final int routeBurst;
+
+    private final boolean alwaysOnError;
+
+    private final long slowThresholdMillis;
+
+    private final int maxRoutes;
+
+    /**
+     * 按路由模板共享的令牌桶，/order/123 和 /order/124 消耗同一个桶；不随 {@link RoutePolicyCache} 淘汰
+     */
+    private final Map<String, TokenBucket> routeBuckets = new ConcurrentHashMap<>();
+
+    private final LongAdder sampledCount = new LongAdder();
+
+    private final LongAdder skippedCount = new LongAdder();
+
+    private final LongAdder forcedCount = new LongAdder();
+
+    /**
+     * @param sampleRate 固定采样率，0 到 1
+     * @param routePermitsPerSecond 每个路由每秒最多采样的请求数，小于等于0表示不限制
+     * @param routeBurst 每个路由允许突发采样的请求数
+     * @param alwaysOnError 状态码 >= 500 或抛出异常的请求总是记录
+     * @param slowThresholdMillis 耗时超过该值的请求总是记录，小于等于0表示不启用
+     * @param maxRoutes 最多限流的路由模板数，超出的路由共用一个桶
+     */
+    LogSampler(double sampleRate, double routePermitsPerSecond, int routeBurst, boolean alwaysOnError,
+        long slowThresholdMillis, int maxRoutes) {
+        this.sampleRate = Math.max(0D, Math.min(1D, sampleRate));
+        this.routePermitsPerSecond = routePermitsPerSecond;
+        this.routeBurst = routeBurst;
+        this.alwaysOnError = alwaysOnError;
+        this.slowThresholdMillis = slowThresholdMillis;
+        this.maxRoutes = maxRoutes;
+    }
+
+    /**
+     * @param template {@link RouteNormalizer#template(String)} 之后的路由模板
+     * @return 路由模板的令牌桶，不限制时返回 null
+     */
+    TokenBucket routeBucket(String template) {
+        if (routePermitsPerSecond <= 0) {
+            return null;
+        }
+        final TokenBucket bucket = routeBuckets.get(template);
+        if (bucket != null) {
+            return bucket;
+        }
+        final String key = routeBuckets.size() < maxRoutes ? template : OTHER_ROUTES;
+        return routeBuckets.computeIfAbsent(key, ignore -> new TokenBucket(routePermitsPerSecond, routeBurst));
+    }
+
+    /**
+     * 请求开始时的采样决定，先按固定比例，再消耗路由的令牌
+     */
+    boolean sample(RoutePolicy routePolicy) {
+        if (sampleRate < 1D && (sampleRate <= 0D || ThreadLocalRandom.current()
+            .nextDouble() >= sampleRate)) {
+            skippedCount.increment();
+            return false;
+        }
+        if (routePolicy.sampleBucket != null && !routePolicy.sampleBucket.tryAcquire()) {
+            skippedCount.increment();
+            return false;
+        }
+        sampledCount.increment();
+        return true;
+    }
+
+    /**
+     * @return 没有采样的请求是否需要在结束时观察状态码、异常和耗时
+     */
+    boolean hasForceRules() {
+        return alwaysOnError || slowThresholdMillis > 0;
+    }
+
+    /**
+     * 没有采样的请求结束时判断是否仍然需要记录
+     */
+    boolean forceLog(int status, Throwable failure, long costMillis) {
+        final boolean force = alwaysOnError && (status >= 500 || failure != null)
+            || slowThresholdMillis > 0 && costMillis >= slowThresholdMillis;
+        if (force) {
+            forcedCount.increment();
+        }
+        return force;
+    }
+
+    long getSampledCount() {
+        return sampledCount.sum();
+    }
+
+    long getSkippedCount() {
+        return skippedCount.sum();
+    }
+
+    long getForcedCount() {
+        return forcedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "LogSampler{sampleRate=" + sampleRate + ", routePermitsPerSecond=" + routePermitsPerSecond
+            + ", routeBurst=" + routeBurst + ", alwaysOnError=" + alwaysOnError + ", slowThresholdMillis="
+            + slowThresholdMillis + ", maxRoutes=" + maxRoutes + "}";
+    }
+}
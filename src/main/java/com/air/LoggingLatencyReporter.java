@@ -0,0 +1,26 @@
+package com.air;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 默认的耗时输出：每个周期把分位数打印到 http.request.latency 日志
+ *
+ * @date 2026/10/15
+ */
+final class LoggingLatencyReporter implements LatencyReporter {
+
+    private static final Logger LATENCY_LOGGER = LoggerFactory.getLogger("http.request.latency");
+
+    @Override
+    public void report(long intervalStartMillis, long intervalEndMillis, List<LatencySnapshot> snapshots) {
+        if (!LATENCY_LOGGER.isInfoEnabled() || snapshots.isEmpty()) {
+            return;
+        }
+        for (LatencySnapshot snapshot : snapshots) {
+            LATENCY_LOGGER.info("{} --> {} {}", intervalStartMillis, intervalEndMillis, snapshot);
+        }
+    }
+}
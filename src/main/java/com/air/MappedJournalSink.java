@@ -0,0 +1,379 @@
+package com.air;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 预分配大小的内存映射段文件，多个线程无锁并发追加：
+ *
+ * <pre>
+ * claim:  getAndAdd 领取 [start, start + length) 的位置，超出段大小则领取失败
+ * commit: 先写记录内容，最后写长度前缀；写入失败时把领取的区域写成 PAD 记录，后面的记录仍然可以顺序读到
+ * </pre>
+ *
+ * 进程在领取之后、写入长度前缀之前退出时，这个位置的长度仍然是0，{@link BinaryLogDecoder} 按索引跳过这样的空洞。
+ * 领取失败的线程负责滚动到新段，只有滚动和写字典时加锁；后台线程按周期 force 到磁盘并检查按时间滚动，
+ * 滚动掉的段没有进行中的写入之后封存它的 {@link SegmentIndex}，并立即解除段和索引的映射
+ *
+ * @date 2026/10/15
+ */
+final class MappedJournalSink implements RecordSink {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedJournalSink.class);
+
+    private final File directory;
+
+    private final int segmentBytes;
+
+    private final long rollMillis;
+
+    private final long baseMillis = System.currentTimeMillis();
+
+    /**
+     * 已有的字典记录，新段开头写入，由 this 保护
+     */
+    private final List<byte[]> dictionaryRecords = new ArrayList<>();
+
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    private volatile Segment current;
+
+    /**
+     * 已经滚动掉、还没有封存的段，由 this 保护
+     */
+    private final ArrayDeque<Segment> retired = new ArrayDeque<>();
+
+    private int segmentSequence;
+
+    private volatile boolean closed;
+
+    /**
+     * @param directory 日志目录
+     * @param segmentBytes 每个段预分配的大小
+     * @param rollMillis 单个段的时间跨度上限
+     * @param forceIntervalMillis force 到磁盘的周期，小于等于0时交给操作系统回写
+     */
+    MappedJournalSink(File directory, long segmentBytes, long rollMillis, long forceIntervalMillis)
+        throws IOException {
+        this.directory = BinaryRecordFormat.ensureDirectory(directory);
+        this.segmentBytes = (int)Math.min(Integer.MAX_VALUE, Math.max(segmentBytes, 64 * 1024L));
+        this.rollMillis = rollMillis;
+        synchronized (this) {
+            current = openSegment();
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "whisper-journal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long period = forceIntervalMillis > 0 ? forceIntervalMillis : TimeUnit.SECONDS.toMillis(1);
+        final boolean force = forceIntervalMillis > 0;
+        scheduler.scheduleWithFixedDelay(() -> maintain(force), period, period, TimeUnit.MILLISECONDS);
+        LOGGER.info("mapped journal started, directory={}, segmentBytes={}, rollMillis={}, forceIntervalMillis={}",
+            directory, this.segmentBytes, rollMillis, forceIntervalMillis);
+    }
+
+    @Override
+    public void append(byte[] record, int offset, int length, IndexEntry entry) throws IOException {
+        append(new ByteBuffer[] {ByteBuffer.wrap(record, offset, length)}, 1, length, entry);
+    }
+
+    /**
+     * 各段直接拷贝进映射区域，不先拼成一个数组
+     */
+    @Override
+    public void append(ByteBuffer[] record, int count, int length, IndexEntry entry) throws IOException {
+        if (length > segmentBytes - BinaryRecordFormat.FILE_HEADER_BYTES) {
+            droppedCount.increment();
+            LOGGER.warn("drop journal record of {} bytes, larger than segment", length);
+            return;
+        }
+        Segment rolledFrom = null;
+        while (!closed) {
+            final Segment segment = current;
+            segment.pending.incrementAndGet();
+            try {
+                // 先登记再检查，和封存时先标记再检查 pending 配对
+                if (segment.retired) {
+                    continue;
+                }
+                final long start = segment.claim(length);
+                if (start >= 0) {
+                    commitOrPad(segment, start, length, record, count);
+                    segment.index.add(entry, start);
+                    return;
+                }
+            } finally {
+                segment.pending.decrementAndGet();
+            }
+            if (rolledFrom != null && rolledFrom != segment && segment.isFresh()) {
+                // 新段放不下（字典太大），不再重试
+                droppedCount.increment();
+                return;
+            }
+            rolledFrom = segment;
+            rollIfCurrent(segment);
+        }
+    }
+
+    @Override
+    public synchronized void appendDictionary(byte[] record, int offset, int length) throws IOException {
+        if (closed) {
+            return;
+        }
+        long start;
+        while ((start = current.claim(length)) < 0) {
+            if (current.isFresh()) {
+                throw new IOException("dictionary record of " + length + " bytes does not fit in a segment");
+            }
+            rollIfCurrent(current);
+        }
+        commitOrPad(current, start, length, new ByteBuffer[] {ByteBuffer.wrap(record, offset, length)}, 1);
+        current.index.addDictionary(start);
+        dictionaryRecords.add(Arrays.copyOfRange(record, offset, offset + length));
+    }
+
+    @Override
+    public long getBaseMillis() {
+        return baseMillis;
+    }
+
+    @Override
+    public File getCurrentFile() {
+        return current.file;
+    }
+
+    long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        scheduler.shutdownNow();
+        try {
+            // 解除映射之前等后台线程结束，不能再访问当前段
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                .interrupt();
+        }
+        synchronized (this) {
+            current.retired = true;
+            retired.add(current);
+            if (scheduler.isTerminated()) {
+                sealRetired();
+            } else {
+                LOGGER.warn("journal flusher did not stop, leave segments mapped and unsealed");
+            }
+        }
+    }
+
+    /**
+     * 写入失败（如映射区域的 InternalError）时把领取的区域标记成 PAD，不让长度为0的空洞挡住后面的记录
+     */
+    private void commitOrPad(Segment segment, long start, int length, ByteBuffer[] record, int count) {
+        try {
+            segment.commit(start, record, count);
+        } catch (RuntimeException | Error e) {
+            droppedCount.increment();
+            segment.pad(start, length);
+            throw e;
+        }
+    }
+
+    private synchronized void rollIfCurrent(Segment segment) throws IOException {
+        if (current != segment || closed) {
+            return;
+        }
+        final Segment next = openSegment();
+        segment.retired = true;
+        retired.add(segment);
+        current = next;
+    }
+
+    /**
+     * force 并封存已经没有进行中写入的段，之后解除映射，由 this 保护
+     */
+    private void sealRetired() {
+        for (Iterator<Segment> iterator = retired.iterator(); iterator.hasNext(); ) {
+            final Segment segment = iterator.next();
+            if (segment.pending.get() == 0) {
+                segment.buffer.force();
+                segment.index.seal();
+                CaptureArena.Cleaner.free(segment.buffer);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 创建新段：写入文件头和已有的字典记录，发布之前只有当前线程访问
+     */
+    private Segment openSegment() throws IOException {
+        final File file = BinaryRecordFormat.createFile(directory, ++segmentSequence);
+        final MappedByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            // 映射在 channel 关闭之后仍然有效
+            buffer = randomAccessFile.getChannel()
+                .map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        final Segment segment = new Segment(file, buffer, segmentBytes, new SegmentIndex(file, segmentBytes));
+        final ByteBuffer header = BinaryRecordFormat.fileHeader(baseMillis);
+        segment.commit(segment.claim(header.limit()), header.array(), 0, header.limit());
+        for (byte[] dictionaryRecord : dictionaryRecords) {
+            final long start = segment.claim(dictionaryRecord.length);
+            if (start < 0) {
+                LOGGER.warn("journal dictionary does not fit in a segment of {} bytes", segmentBytes);
+                break;
+            }
+            segment.commit(start, dictionaryRecord, 0, dictionaryRecord.length);
+            segment.index.addDictionary(start);
+        }
+        segment.freshPosition = segment.position();
+        return segment;
+    }
+
+    private void maintain(boolean force) {
+        try {
+            final Segment segment = current;
+            if (System.currentTimeMillis() - segment.openedAt >= rollMillis && !segment.isFresh()) {
+                rollIfCurrent(segment);
+            }
+            synchronized (this) {
+                sealRetired();
+            }
+            if (force) {
+                current.buffer.force();
+                current.index.force();
+            }
+        } catch (Throwable t) {
+            LOGGER.error("error occured when flushing mapped journal", t);
+        }
+    }
+
+    private static final class Segment {
+
+        final File file;
+
+        final MappedByteBuffer buffer;
+
+        final int capacity;
+
+        final long openedAt = System.currentTimeMillis();
+
+        final AtomicLong cursor = new AtomicLong();
+
+        final SegmentIndex index;
+
+        /**
+         * 正在写入这个段的线程数
+         */
+        final AtomicInteger pending = new AtomicInteger();
+
+        volatile boolean retired;
+
+        /**
+         * 写完文件头和字典之后的位置
+         */
+        long freshPosition;
+
+        Segment(File file, MappedByteBuffer buffer, int capacity, SegmentIndex index) {
+            this.file = file;
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.index = index;
+        }
+
+        /**
+         * @return 领取到的起始位置，段剩余空间不够时返回 -1
+         */
+        long claim(int length) {
+            if (cursor.get() >= capacity) {
+                return -1;
+            }
+            final long start = cursor.getAndAdd(length);
+            return start + length <= capacity ? start : -1;
+        }
+
+        /**
+         * 先写内容再写长度前缀，长度前缀是记录开头的 varint
+         */
+        void commit(long start, byte[] record, int offset, int length) {
+            commit(start, new ByteBuffer[] {ByteBuffer.wrap(record, offset, length)}, 1);
+        }
+
+        /**
+         * 长度前缀在第一段的开头
+         */
+        void commit(long start, ByteBuffer[] record, int count) {
+            final ByteBuffer first = record[0].duplicate();
+            final int firstStart = first.position();
+            int prefixLength = 0;
+            while (prefixLength < first.remaining() && (first.get(firstStart + prefixLength) & 0x80) != 0) {
+                prefixLength++;
+            }
+            prefixLength = Math.min(first.remaining(), prefixLength + 1);
+            final ByteBuffer view = buffer.duplicate();
+            view.position((int)start + prefixLength);
+            first.position(firstStart + prefixLength);
+            view.put(first);
+            for (int i = 1; i < count; i++) {
+                view.put(record[i].duplicate());
+            }
+            first.position(firstStart);
+            first.limit(firstStart + prefixLength);
+            view.position((int)start);
+            view.put(first);
+        }
+
+        /**
+         * 把 [start, start + length) 写成一条 PAD 记录：补齐宽度的长度前缀加类型，内容是写了一半的数据，解码时跳过。
+         * 和 commit 一样先写类型，最后写长度前缀
+         */
+        void pad(long start, int length) {
+            if (length < 2) {
+                return;
+            }
+            final int prefixLength = Math.min(BinaryRecordFormat.MAX_LENGTH_PREFIX_BYTES, length - 1);
+            buffer.put((int)start + prefixLength, (byte)BinaryRecordFormat.TYPE_PAD);
+            long value = length - prefixLength;
+            for (int i = 0; i < prefixLength - 1; i++) {
+                buffer.put((int)start + i, (byte)((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((int)start + prefixLength - 1, (byte)value);
+        }
+
+        long position() {
+            return Math.min(cursor.get(), capacity);
+        }
+
+        boolean isFresh() {
+            return position() == freshPosition;
+        }
+    }
+}
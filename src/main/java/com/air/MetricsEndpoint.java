@@ -0,0 +1,216 @@
+package com.air;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * filter 自己提供的指标接口，以 Prometheus 文本格式输出，请求不会进入应用
+ *
+ * 计数都是 {@link LongAdder}，请求线程只做累加，汇总在拉取指标时进行
+ *
+ * @date 2026/10/15
+ */
+final class MetricsEndpoint {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double MICROS_PER_SECOND = 1000000D;
+
+    private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+
+    private final String path;
+
+    private final LongAdder requestCount = new LongAdder();
+
+    private final LongAdder capturedRequestBytes = new LongAdder();
+
+    private final LongAdder capturedResponseBytes = new LongAdder();
+
+    private final LogSampler logSampler;
+
+    private final SegmentAllocator segmentAllocator;
+
+    private final Supplier<AsyncLogDispatcher> asyncLogDispatcher;
+
+    private final LatencyRecorder latencyRecorder;
+
+    /**
+     * @param path 指标路径，不包含 context path
+     * @param logSampler 采样计数
+     * @param segmentAllocator 缓冲占用
+     * @param asyncLogDispatcher 异步日志计数，未开启时返回 null
+     * @param latencyRecorder 耗时统计，未开启时为 null
+     */
+    MetricsEndpoint(String path, LogSampler logSampler, SegmentAllocator segmentAllocator,
+        Supplier<AsyncLogDispatcher> asyncLogDispatcher, LatencyRecorder latencyRecorder) {
+        this.path = path;
+        this.logSampler = logSampler;
+        this.segmentAllocator = segmentAllocator;
+        this.asyncLogDispatcher = asyncLogDispatcher;
+        this.latencyRecorder = latencyRecorder;
+    }
+
+    boolean matches(HttpServletRequest httpServletRequest) {
+        final String requestURI = httpServletRequest.getRequestURI();
+        if (requestURI == null || !requestURI.endsWith(path)) {
+            return false;
+        }
+        final String contextPath = httpServletRequest.getContextPath();
+        final int contextLength = contextPath == null ? 0 : contextPath.length();
+        return requestURI.length() == contextLength + path.length() && (contextLength == 0
+            || requestURI.startsWith(contextPath));
+    }
+
+    void recordRequest() {
+        requestCount.increment();
+    }
+
+    void recordCaptured(CaptureBuffer requestBody, CaptureBuffer responseBody) {
+        if (requestBody != null) {
+            capturedRequestBytes.add(requestBody.size() + requestBody.tailSize());
+        }
+        if (responseBody != null) {
+            capturedResponseBytes.add(responseBody.size() + responseBody.tailSize());
+        }
+    }
+
+    void serve(HttpServletResponse httpServletResponse) throws IOException {
+        final byte[] body = render().getBytes(StandardCharsets.UTF_8);
+        httpServletResponse.setStatus(HttpServletResponse.SC_OK);
+        httpServletResponse.setContentType(CONTENT_TYPE);
+        httpServletResponse.setContentLength(body.length);
+        final OutputStream outputStream = httpServletResponse.getOutputStream();
+        outputStream.write(body);
+        outputStream.flush();
+    }
+
+    String render() {
+        final StringBuilder builder = new StringBuilder(1024);
+        counter(builder, "whisper_requests_total", "Requests seen by the filter.", requestCount.sum());
+        counter(builder, "whisper_requests_sampled_total", "Requests selected by the sampler.",
+            logSampler.getSampledCount());
+        counter(builder, "whisper_requests_skipped_total", "Requests rejected by the sampler.",
+            logSampler.getSkippedCount());
+        counter(builder, "whisper_requests_forced_total",
+            "Unsampled requests logged because they failed or were slow.", logSampler.getForcedCount());
+
+        header(builder, "whisper_captured_bytes_total", "Body bytes captured in memory or spill files.", "counter");
+        sample(builder, "whisper_captured_bytes_total{direction=\"request\"}", capturedRequestBytes.sum());
+        sample(builder, "whisper_captured_bytes_total{direction=\"response\"}", capturedResponseBytes.sum());
+
+        gauge(builder, "whisper_capture_buffer_bytes_in_use", "Bytes held by pooled capture buffer segments.",
+            segmentAllocator.bytesInUse());
+        if (segmentAllocator instanceof CaptureArena) {
+            final CaptureArena arena = (CaptureArena)segmentAllocator;
+            gauge(builder, "whisper_capture_arena_reserved_bytes", "Off-heap slab bytes reserved by the arena.",
+                arena.reservedBytes());
+            counter(builder, "whisper_capture_arena_exhausted_total",
+                "Segment requests refused because the arena budget was used up.", arena.getExhaustedCount());
+            counter(builder, "whisper_capture_arena_leaks_total",
+                "Capture buffers garbage collected without being released.", arena.getLeakCount());
+        }
+
+        final AsyncLogDispatcher dispatcher = asyncLogDispatcher.get();
+        if (dispatcher != null) {
+            counter(builder, "whisper_async_log_published_total", "Log events handed to the async consumers.",
+                dispatcher.getPublishedCount());
+            counter(builder, "whisper_async_log_dropped_total",
+                "Log events dropped because the ring buffer was full.", dispatcher.getDroppedCount());
+        }
+
+        if (latencyRecorder != null) {
+            renderLatency(builder, latencyRecorder.getLastSnapshots());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 输出上一个统计周期的分位数，按 route 和 status 两个标签区分
+     */
+    private static void renderLatency(StringBuilder builder, List<LatencySnapshot> snapshots) {
+        header(builder, "whisper_request_latency_seconds", "Request latency of the last reporting interval.",
+            "summary");
+        for (LatencySnapshot snapshot : snapshots) {
+            final String label = label(snapshot);
+            final long[] values = {snapshot.getP50(), snapshot.getP90(), snapshot.getP99(), snapshot.getP999()};
+            for (int i = 0; i < QUANTILES.length; i++) {
+                builder.append("whisper_request_latency_seconds{")
+                    .append(label)
+                    .append(",quantile=\"")
+                    .append(QUANTILES[i])
+                    .append("\"} ")
+                    .append(values[i] / MICROS_PER_SECOND)
+                    .append('\n');
+            }
+            builder.append("whisper_request_latency_seconds_sum{")
+                .append(label)
+                .append("} ")
+                .append(snapshot.getSum() / MICROS_PER_SECOND)
+                .append('\n');
+            builder.append("whisper_request_latency_seconds_count{")
+                .append(label)
+                .append("} ")
+                .append(snapshot.getCount())
+                .append('\n');
+        }
+        header(builder, "whisper_request_latency_max_seconds", "Max request latency of the last reporting interval.",
+            "gauge");
+        for (LatencySnapshot snapshot : snapshots) {
+            builder.append("whisper_request_latency_max_seconds{")
+                .append(label(snapshot))
+                .append("} ")
+                .append(snapshot.getMax() / MICROS_PER_SECOND)
+                .append('\n');
+        }
+    }
+
+    private static String label(LatencySnapshot snapshot) {
+        return snapshot.getDimension() + "=\"" + escapeLabel(snapshot.getKey()) + "\"";
+    }
+
+    private static void counter(StringBuilder builder, String name, String help, long value) {
+        header(builder, name, help, "counter");
+        sample(builder, name, value);
+    }
+
+    private static void gauge(StringBuilder builder, String name, String help, long value) {
+        header(builder, name, help, "gauge");
+        sample(builder, name, value);
+    }
+
+    private static void header(StringBuilder builder, String name, String help, String type) {
+        builder.append("# HELP ")
+            .append(name)
+            .append(' ')
+            .append(help)
+            .append('\n');
+        builder.append("# TYPE ")
+            .append(name)
+            .append(' ')
+            .append(type)
+            .append('\n');
+    }
+
+    private static void sample(StringBuilder builder, String series, long value) {
+        builder.append(series)
+            .append(' ')
+            .append(value)
+            .append('\n');
+    }
+
+    private static String escapeLabel(String value) {
+        if (value.indexOf('\\') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return value.replace("\\", "\\\\")
+            .replace("\"", "\\\"")
+            .replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,297 @@
+package com.air;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 可复用的二进制记录编码缓冲，内容前预留长度前缀的位置，编码完之后再回填长度，不需要二次拷贝。
+ *
+ * 较大的 body 可以只登记引用（{@link #writeCaptureReference}），不拷贝进缓冲，落盘时和缓冲里的其他部分组成
+ * gather 写入的 ByteBuffer 数组
+ *
+ * @date 2026/10/15
+ */
+final class RecordEncoder {
+
+    /**
+     * 63 位的 long 补齐之后的 varint 宽度
+     */
+    private static final int PADDED_TOTAL_BYTES = 9;
+
+    /**
+     * 请求体和响应体各一个
+     */
+    private static final int MAX_REFERENCES = 2;
+
+    private final int initialCapacity;
+
+    private byte[] buffer;
+
+    private int position;
+
+    private int payloadStart;
+
+    private final CaptureBuffer[] references = new CaptureBuffer[MAX_REFERENCES];
+
+    /**
+     * 引用的内容在缓冲中插入的位置
+     */
+    private final int[] referencePositions = new int[MAX_REFERENCES];
+
+    private int referenceCount;
+
+    private int referencedBytes;
+
+    private ByteBuffer[] gatherBuffers = new ByteBuffer[8];
+
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) {
+            writeByte(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writeBytes(b, off, len);
+        }
+    };
+
+    RecordEncoder(int initialCapacity) {
+        this.initialCapacity = Math.max(initialCapacity, BinaryRecordFormat.MAX_LENGTH_PREFIX_BYTES + 1);
+        this.buffer = new byte[this.initialCapacity];
+    }
+
+    /**
+     * 丢弃为大记录扩容的缓冲，恢复到初始大小，只在一条记录写完并且 {@link #releaseReferences()} 之后调用
+     */
+    void shrink() {
+        if (buffer.length > initialCapacity) {
+            buffer = new byte[initialCapacity];
+        }
+        if (gatherBuffers.length > 8) {
+            gatherBuffers = new ByteBuffer[8];
+        }
+    }
+
+    /**
+     * 开始一条新记录
+     */
+    void begin(int type) {
+        releaseReferences();
+        position = BinaryRecordFormat.MAX_LENGTH_PREFIX_BYTES;
+        payloadStart = position;
+        writeByte(type);
+    }
+
+    /**
+     * 回填长度前缀
+     *
+     * @return 记录在 {@link #array()} 中的起始位置，结束位置为 {@link #position()}
+     */
+    int finish() {
+        final int length = position - payloadStart + referencedBytes;
+        int start = payloadStart - varintSize(length);
+        int offset = start;
+        int value = length;
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset] = (byte)value;
+        return start;
+    }
+
+    /**
+     * 写入总长度和保存的长度，内容只登记引用并 {@link CaptureBuffer#retain()}，
+     * 由 {@link #releaseReferences()} 释放；只能用于没有溢出到磁盘的缓冲
+     */
+    void writeCaptureReference(CaptureBuffer captureBuffer) {
+        writeVarint(captureBuffer.totalSize());
+        writeVarint(captureBuffer.size());
+        captureBuffer.retain();
+        references[referenceCount] = captureBuffer;
+        referencePositions[referenceCount++] = position;
+        referencedBytes += captureBuffer.size();
+    }
+
+    boolean hasReferences() {
+        return referenceCount > 0;
+    }
+
+    /**
+     * @param start {@link #finish()} 返回的起始位置
+     * @return 记录的总长度，包括引用的内容
+     */
+    int recordLength(int start) {
+        return position - start + referencedBytes;
+    }
+
+    /**
+     * 把缓冲中的各部分和引用的内存段按顺序放入 {@link #gatherBuffers()}
+     *
+     * @param start {@link #finish()} 返回的起始位置
+     * @return 数组中有效的个数
+     */
+    int gather(int start) {
+        int count = 0;
+        int from = start;
+        for (int i = 0; i < referenceCount; i++) {
+            final CaptureBuffer reference = references[i];
+            ensureGatherCapacity(count + reference.segmentCount() + 2);
+            gatherBuffers[count++] = ByteBuffer.wrap(buffer, from, referencePositions[i] - from);
+            count = reference.readSegments(gatherBuffers, count);
+            from = referencePositions[i];
+        }
+        ensureGatherCapacity(count + 1);
+        gatherBuffers[count++] = ByteBuffer.wrap(buffer, from, position - from);
+        return count;
+    }
+
+    ByteBuffer[] gatherBuffers() {
+        return gatherBuffers;
+    }
+
+    /**
+     * 记录落盘之后调用，释放引用的捕获缓冲
+     */
+    void releaseReferences() {
+        for (int i = 0; i < referenceCount; i++) {
+            references[i].releaseRetained();
+            references[i] = null;
+        }
+        Arrays.fill(gatherBuffers, null);
+        referenceCount = 0;
+        referencedBytes = 0;
+    }
+
+    byte[] array() {
+        return buffer;
+    }
+
+    int position() {
+        return position;
+    }
+
+    void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[position++] = (byte)b;
+    }
+
+    void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte)value;
+    }
+
+    void writeZigZag(long value) {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    void writeBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    void writeString(String value) {
+        if (value == null || value.isEmpty()) {
+            writeVarint(0);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 写入总长度、保存的长度和原始字节，直接从缓冲段拷贝，不经过解码
+     */
+    void writeCapture(CaptureBuffer captureBuffer) throws IOException {
+        final int size = captureBuffer.size();
+        writeVarint(captureBuffer.totalSize());
+        writeVarint(size);
+        ensureCapacity(size);
+        final InputStream inputStream = captureBuffer.newInputStream();
+        int n;
+        int remaining = size;
+        while (remaining > 0 && (n = inputStream.read(buffer, position, remaining)) > 0) {
+            position += n;
+            remaining -= n;
+        }
+    }
+
+    /**
+     * 脱敏之后直接写入缓冲：总长度和保存的长度先预留定长位置，写完再回填成补齐宽度的 varint，不需要二次拷贝。
+     * 总长度按脱敏前后的长度差调整，保证是否截断的判断不变
+     */
+    void writeCapture(CaptureBuffer captureBuffer, JsonMasker jsonMasker, String charset) throws IOException {
+        writeCapture(captureBuffer.newInputStream(), captureBuffer.totalSize() - captureBuffer.size(), jsonMasker,
+            charset);
+    }
+
+    /**
+     * @param source 保存的内容
+     * @param truncatedBytes 没有保存的字节数
+     */
+    void writeCapture(InputStream source, long truncatedBytes, JsonMasker jsonMasker, String charset)
+        throws IOException {
+        ensureCapacity(PADDED_TOTAL_BYTES + BinaryRecordFormat.MAX_LENGTH_PREFIX_BYTES);
+        final int totalPosition = position;
+        position += PADDED_TOTAL_BYTES + BinaryRecordFormat.MAX_LENGTH_PREFIX_BYTES;
+        final int start = position;
+        jsonMasker.mask(source, charset, outputStream);
+        final int length = position - start;
+        writePaddedVarint(totalPosition, length + truncatedBytes, PADDED_TOTAL_BYTES);
+        writePaddedVarint(totalPosition + PADDED_TOTAL_BYTES, length, BinaryRecordFormat.MAX_LENGTH_PREFIX_BYTES);
+    }
+
+    /**
+     * 写入尾部窗口，按写入顺序从环形缓冲拷贝
+     */
+    void writeTail(CaptureBuffer captureBuffer) {
+        final int tailSize = captureBuffer.tailSize();
+        writeVarint(tailSize);
+        ensureCapacity(tailSize);
+        position += captureBuffer.copyTail(buffer, position);
+    }
+
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * 非最短形式的 varint，前面的字节都带续位，解码结果不变
+     */
+    private void writePaddedVarint(int offset, long value, int width) {
+        for (int i = 0; i < width - 1; i++) {
+            buffer[offset + i] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset + width - 1] = (byte)value;
+    }
+
+    private void ensureGatherCapacity(int capacity) {
+        if (capacity > gatherBuffers.length) {
+            gatherBuffers = Arrays.copyOf(gatherBuffers, Math.max(gatherBuffers.length * 2, capacity));
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra <= buffer.length) {
+            return;
+        }
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+    }
+}
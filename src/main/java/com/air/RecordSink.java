@@ -0,0 +1,42 @@
+package com.air;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 二进制日志记录的落盘方式，记录已经带有长度前缀；每个日志文件旁边维护一个 {@link SegmentIndex}
+ *
+ * @date 2026/10/15
+ */
+interface RecordSink extends Closeable {
+
+    /**
+     * 追加一条事件记录，可以被多个线程同时调用
+     *
+     * @param entry 记录的索引项，offset 由 sink 填写
+     */
+    void append(byte[] record, int offset, int length, IndexEntry entry) throws IOException;
+
+    /**
+     * 追加一条由多段组成的事件记录，第一段以长度前缀开头；返回之后不再引用这些 ByteBuffer
+     *
+     * @param record 按顺序拼接成一条记录
+     * @param count record 中有效的个数
+     * @param length 各段剩余字节数之和
+     */
+    void append(ByteBuffer[] record, int count, int length, IndexEntry entry) throws IOException;
+
+    /**
+     * 追加一条字典记录，之后每次滚动到新文件都会先写入已有的字典记录
+     */
+    void appendDictionary(byte[] record, int offset, int length) throws IOException;
+
+    /**
+     * @return 写入文件头的基准时间，记录里的时间都是相对它的差值
+     */
+    long getBaseMillis();
+
+    File getCurrentFile();
+}
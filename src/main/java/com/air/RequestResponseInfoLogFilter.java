@@ -1,22 +1,13 @@
-
-
 package com.air;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.nio.charset.Charset;
-import java.util.Arrays;
-import java.util.Enumeration;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.Set;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -32,19 +23,76 @@ import org.apache.http.entity.ContentType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Sets;
-
 /**
  * 记录http请求的参数/响应结果/耗时
- * todo async servlet 支持
+ * 异步请求（request.startAsync()）在 AsyncListener 的 onComplete 中记录，耗时为端到端耗时，
+ * 需要以 filterChain 传下去的 request/response 调用 startAsync(request, response) 才能捕获异步写出的响应
+ *
+ * 按 Content-Encoding 压缩过的响应只在开启 asyncLog 时由后台线程解压输出；默认的同步模式下日志在请求线程上输出，
+ * 为了不增加解压开销，只记录编码和长度
  *
  * 支持配置的属性：
  *  1. whitePatterns： 打印请求的响应白名单，正则表达式，以分号分隔
  *  2. logResp: 是否打印请求的响应， 默认是false
+ *  3. asyncLog: 是否开启异步日志，开启后由后台线程渲染和写日志， 默认是false
+ *  4. asyncLogBufferSize: 异步日志环形队列的容量，向上取整为2的幂， 默认是8192
+ *  5. asyncLogConsumers: 异步日志消费线程数， 默认是1
+ *  6. asyncLogFullPolicy: 队列满时的策略，drop 丢弃并计数，block 等待， 默认是drop
+ *  7. maxCaptureBytes: 每个响应最多捕获的字节数，超出部分只记录总长度，开启 spillToDisk 时要大于 spillPerRequestMemoryBytes
+ *      响应体才会溢出到磁盘；按 Content-Encoding 压缩过的响应在开启 asyncLog 时
+ *      由后台线程解压，解压后同样最多保留这么多字节，同步输出时只记录编码和长度（二进制日志不脱敏时保存原始字节）， 默认是65536
+ *  8. captureBufferType: 捕获缓冲使用的内存，heap 或 direct 按大小分级池化，arena 从有总预算的堆外 slab 中切分，
+ *      预算用完时新的内容被截断（eager 模式的请求体退回到堆内存）， 默认是heap
+ *  9. captureBufferPoolSize: 每一级缓冲段最多缓存的空闲段数， 默认是256
+ *  10. routeCacheSize: 按 uri 缓存日志策略的最大路由数， 默认是1024
+ *  11. requestCaptureMode: json 请求体的捕获方式，eager 在调用 controller 前整体读入内存，
+ *      tee 在 controller 读取时边读边捕获， 默认是eager
+ *  12. maxRequestCaptureBytes: tee 模式下每个请求最多捕获的字节数， 默认是65536
+ *  13. drainUnreadBody: tee 模式下记录日志时是否把 controller 没读完的 body 读完， 默认是false
+ *  14. spillToDisk: 请求/响应体超出内存预算后是否溢出到磁盘上的映射文件， 默认是false
+ *  15. spillPerRequestMemoryBytes: 单个请求体或响应体最多占用的内存，超出后溢出到磁盘；捕获上限（maxCaptureBytes、
+ *      tee 模式的 maxRequestCaptureBytes）不大于它时内容先被截断，不会溢出，默认配置下只有 eager 模式的请求体会溢出，
+ *      需要同时调大捕获上限， 默认是262144
+ *  16. spillGlobalMemoryBytes: 所有捕获缓冲最多占用的内存， 默认是67108864
+ *  17. spillDirectory: 溢出文件目录， 默认是java.io.tmpdir
+ *  18. spillChunkBytes: 溢出文件每次映射的大小， 默认是1048576
+ *  19. sampleRate: 固定采样率，0 到 1，没有采样的请求不捕获 body， 默认是1
+ *  20. sampleRoutePermitsPerSecond: 每个路由模板（数字和 uuid 段替换成 {id}）每秒最多采样的请求数，小于等于0不限制， 默认是0
+ *  21. sampleRouteBurst: 每个路由模板允许突发采样的请求数， 默认是10
+ *  22. sampleAlwaysOnError: 没有采样的请求状态码 >= 500 或抛出异常时仍然记录请求信息，参数和 header 在请求结束、
+ *      确定要输出之后才收集，没有出错的请求只多一次状态码判断， 默认是true
+ *  23. sampleSlowThresholdMillis: 没有采样的请求耗时超过该值时仍然记录请求信息，小于等于0不启用， 默认是0
+ *  24. tailCapture: 没有采样的请求也以 tee 方式捕获请求体和响应体，结束时按 22、23 的规则决定输出还是回收，
+ *      配合 sampleRate=0 只记录出错和慢请求的完整内容， 默认是false
+ *  25. latencyHistogram: 是否按路由模板和状态码统计耗时分位数， 默认是false
+ *  26. latencyReportIntervalSeconds: 耗时统计周期， 默认是60
+ *  27. latencyReporter: 自定义 {@link LatencyReporter} 实现类，默认打印到 http.request.latency 日志
+ *  28. latencyMaxRoutes: 最多统计的路由模板数，超出的记在 {other} 下， 默认是256
+ *  29. metricsPath: 指标接口路径（不含 context path），如 /__whisper/metrics，由 filter 直接返回 Prometheus 文本格式的
+ *      请求数、采样数、捕获字节数、异步日志丢弃数和上个周期的耗时分位数，为空时不开启， 默认为空
+ *  30. logFormat: text 输出到 http.request.response.log 日志，binary 按 {@link BinaryRecordFormat} 写入滚动文件，
+ *      可以用 {@link BinaryLogDecoder} 还原，用 {@link TrafficReplayer} 回放到本地服务， 默认是text
+ *  31. binaryLogDirectory: 二进制日志目录， 默认是java.io.tmpdir/whisper
+ *  32. binaryLogRollBytes: 单个二进制日志文件的大小上限， 默认是134217728
+ *  33. binaryLogRollSeconds: 单个二进制日志文件的时间跨度上限， 默认是3600
+ *  34. binaryLogSink: file 通过 FileChannel 加锁追加，mmap 写入预分配的内存映射文件，多个线程无锁追加，
+ *      此时 binaryLogRollBytes 是每个文件预分配的大小， 默认是file
+ *  35. journalForceIntervalMillis: mmap 模式下定期 force 到磁盘的间隔，小于等于0时交给操作系统回写， 默认是1000
+ *  36. requestIdHeaders: 逗号分隔，按顺序取第一个出现的请求头作为 request id 写入二进制日志的 .widx 索引，
+ *      可以用 {@link TrafficQuery} 按它和时间、方法、路由、状态码查询， 默认是X-Request-Id,X-B3-TraceId,traceparent
+ *  37. maskKeys: 逗号分隔，json 请求体和响应体中任意深度下这些 key 的值在输出日志时替换掉，不区分大小写， 默认为空
+ *  38. maskPaths: 逗号分隔的 json 路径，如 $.user.phone,$.items[*].cardNo，匹配的值在输出日志时替换掉， 默认为空
+ *  39. maskValue: 替换成的字符串， 默认是***
+ *  40. captureTailBytes: 请求体和响应体超出 maxCaptureBytes/maxRequestCaptureBytes 时额外保留的尾部字节数，日志输出为
+ *      头部...[N bytes elided, M bytes total]...尾部，每个请求占用的内存固定，大于0时 json 请求体总是以 tee 方式捕获，
+ *      开启脱敏时尾部不输出， 默认是0
+ *  41. captureChecksum: 是否对完整的请求体和响应体计算 crc32，被截断时和总长度一起输出， 默认是false
+ *  42. arenaBudgetBytes: arena 模式下堆外内存的总预算， 默认是67108864
+ *  43. arenaThreadCacheSize: arena 模式下每个线程每一级缓存的空闲段数，预算用完时其他线程可以收回， 默认是16
  *
  * @date 18/3/24
  */
-@WebFilter(filterName = "httpLogFilter", urlPatterns = "/*")
+@WebFilter(filterName = "httpLogFilter", urlPatterns = "/*", asyncSupported = true)
 public class RequestResponseInfoLogFilter implements Filter {
 
     private static final Logger REQUEST_RESPONSE_LOGGER = LoggerFactory.getLogger("http.request.response.log");
@@ -53,9 +101,43 @@ public class RequestResponseInfoLogFilter implements Filter {
 
     private static final String SEP = System.lineSeparator();
 
+    private static final long ASYNC_LOG_SHUTDOWN_TIMEOUT_MILLIS = 5000L;
+
     private FilterConfig filterConfig;
 
-    private Set<Pattern> whitePatternSet = Sets.newHashSet();
+    private RouteMatcher whiteRouteMatcher = new RouteMatcher();
+
+    private volatile AsyncLogDispatcher asyncLogDispatcher;
+
+    private SegmentAllocator segmentAllocator;
+
+    private int maxCaptureBytes;
+
+    private SpillPolicy spillPolicy;
+
+    private CaptureWindow captureWindow;
+
+    private boolean logResp;
+
+    private boolean teeRequestBody;
+
+    private int maxRequestCaptureBytes;
+
+    private boolean drainUnreadBody;
+
+    private RoutePolicyCache routePolicyCache;
+
+    private LogSampler logSampler;
+
+    private boolean tailCapture;
+
+    private LatencyRecorder latencyRecorder;
+
+    private MetricsEndpoint metricsEndpoint;
+
+    private BinaryLogWriter binaryLogWriter;
+
+    private JsonMasker jsonMasker;
 
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
@@ -66,51 +148,193 @@ public class RequestResponseInfoLogFilter implements Filter {
                 if (whitePatternString == null || whitePatternString.isEmpty()) {
                     return;
                 }
-                final String[] patternArray = whitePatternString.split(";");
-                whitePatternSet = Arrays.stream(patternArray)
-                    .parallel()
-                    .map(p -> {
-                        try {
-                            return Pattern.compile(p);
-                        } catch (Throwable t) {
-                            LOGGER.error("error compiling pattern {}", p, t);
-                        }
-                        return null;
-                    })
-                    .filter(Objects::nonNull)
-                    .collect(Collectors.toSet());
+                whiteRouteMatcher = new RouteMatcher(whitePatternString.split(";"));
             });
 
+        logResp = Boolean.parseBoolean(getInitParameter("logResp", "false"));
+        logSampler = new LogSampler(getDoubleInitParameter("sampleRate", 1D),
+            getDoubleInitParameter("sampleRoutePermitsPerSecond", 0D), getIntInitParameter("sampleRouteBurst", 10),
+            Boolean.parseBoolean(getInitParameter("sampleAlwaysOnError", "true")),
+            getLongInitParameter("sampleSlowThresholdMillis", 0L), getIntInitParameter("routeCacheSize", 1024));
+        tailCapture = Boolean.parseBoolean(getInitParameter("tailCapture", "false"));
+        if (tailCapture && !logSampler.hasForceRules()) {
+            LOGGER.warn("tailCapture is enabled without sampleAlwaysOnError or sampleSlowThresholdMillis, "
+                + "unsampled captures will always be recycled");
+        }
+        routePolicyCache = new RoutePolicyCache(getIntInitParameter("routeCacheSize", 1024), this::resolveRoutePolicy);
+
+        maxCaptureBytes = getIntInitParameter("maxCaptureBytes", 64 * 1024);
+        final String captureBufferType = getInitParameter("captureBufferType", "heap");
+        if ("arena".equalsIgnoreCase(captureBufferType)) {
+            segmentAllocator = new CaptureArena(getLongInitParameter("arenaBudgetBytes", 64 * 1024 * 1024L),
+                getIntInitParameter("arenaThreadCacheSize", 16));
+            LOGGER.info("capture arena enabled, {}", segmentAllocator);
+        } else {
+            segmentAllocator = new CaptureBufferPool("direct".equalsIgnoreCase(captureBufferType),
+                getIntInitParameter("captureBufferPoolSize", 256));
+        }
+        if (Boolean.parseBoolean(getInitParameter("spillToDisk", "false"))) {
+            spillPolicy = new SpillPolicy(getLongInitParameter("spillPerRequestMemoryBytes", 256 * 1024L),
+                getLongInitParameter("spillGlobalMemoryBytes", 64 * 1024 * 1024L),
+                new File(getInitParameter("spillDirectory", System.getProperty("java.io.tmpdir"))),
+                getIntInitParameter("spillChunkBytes", 1024 * 1024));
+            LOGGER.info("capture spill to disk enabled, {}", spillPolicy);
+            if (maxCaptureBytes <= spillPolicy.getPerBufferMemoryBytes()) {
+                LOGGER.warn("maxCaptureBytes {} is not larger than spillPerRequestMemoryBytes {}, "
+                    + "response bodies will be truncated before they can spill", maxCaptureBytes,
+                    spillPolicy.getPerBufferMemoryBytes());
+            }
+        }
+
+        final CaptureWindow window = new CaptureWindow(getIntInitParameter("captureTailBytes", 0),
+            Boolean.parseBoolean(getInitParameter("captureChecksum", "false")));
+        if (window.getTailBytes() > 0 || window.isChecksum()) {
+            captureWindow = window;
+            LOGGER.info("capture window enabled, {}", captureWindow);
+        }
+
+        teeRequestBody = "tee".equalsIgnoreCase(getInitParameter("requestCaptureMode", "eager"));
+        maxRequestCaptureBytes = getIntInitParameter("maxRequestCaptureBytes", 64 * 1024);
+        drainUnreadBody = Boolean.parseBoolean(getInitParameter("drainUnreadBody", "false"));
+
+        final JsonMasker masker = new JsonMasker(getInitParameter("maskKeys", null),
+            getInitParameter("maskPaths", null), getInitParameter("maskValue", "***"));
+        jsonMasker = masker.isEmpty() ? null : masker;
+
+        if ("binary".equalsIgnoreCase(getInitParameter("logFormat", "text"))) {
+            try {
+                final File directory = new File(getInitParameter("binaryLogDirectory",
+                    new File(System.getProperty("java.io.tmpdir"), "whisper").getPath()));
+                final long rollBytes = getLongInitParameter("binaryLogRollBytes", 128 * 1024 * 1024L);
+                final long rollMillis = TimeUnit.SECONDS.toMillis(getLongInitParameter("binaryLogRollSeconds", 3600L));
+                final RecordSink sink = "mmap".equalsIgnoreCase(getInitParameter("binaryLogSink", "file"))
+                    ? new MappedJournalSink(directory, rollBytes, rollMillis,
+                    getLongInitParameter("journalForceIntervalMillis", 1000L))
+                    : new RollingFileSink(directory, rollBytes, rollMillis);
+                final String requestIdHeaders = getInitParameter("requestIdHeaders", null);
+                binaryLogWriter = new BinaryLogWriter(sink, requestIdHeaders == null
+                    ? IndexEntry.DEFAULT_REQUEST_ID_HEADERS : requestIdHeaders.split("\\s*,\\s*"), jsonMasker);
+            } catch (IOException e) {
+                LOGGER.error("error occured when creating binary log writer, fall back to text log", e);
+            }
+        }
+
+        if (Boolean.parseBoolean(getInitParameter("asyncLog", "false"))) {
+            asyncLogDispatcher = new AsyncLogDispatcher(getIntInitParameter("asyncLogBufferSize", 8192),
+                getIntInitParameter("asyncLogConsumers", 1),
+                AsyncLogDispatcher.FullPolicy.parse(getInitParameter("asyncLogFullPolicy", "drop")),
+                event -> writeLog(event, true));
+            asyncLogDispatcher.start();
+        }
+
+        if (Boolean.parseBoolean(getInitParameter("latencyHistogram", "false"))) {
+            latencyRecorder = new LatencyRecorder(getIntInitParameter("latencyMaxRoutes", 256),
+                TimeUnit.SECONDS.toMillis(getLongInitParameter("latencyReportIntervalSeconds", 60L)),
+                createLatencyReporter(getInitParameter("latencyReporter", null)));
+            latencyRecorder.start();
+        }
+
+        final String metricsPath = getInitParameter("metricsPath", null);
+        if (metricsPath != null) {
+            metricsEndpoint = new MetricsEndpoint(metricsPath, logSampler, segmentAllocator, () -> asyncLogDispatcher,
+                latencyRecorder);
+            LOGGER.info("whisper metrics served at {}", metricsPath);
+        }
+
         if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("init request response info log filter, filteronfig={}, white pattern={}", filterConfig, whitePatternSet);
+            LOGGER.debug("init request response info log filter, filteronfig={}, white pattern={}", filterConfig, whiteRouteMatcher);
+        }
+    }
+
+    private String getInitParameter(String name, String defaultValue) {
+        if (filterConfig == null) {
+            return defaultValue;
+        }
+        final String value = filterConfig.getInitParameter(name);
+        return StringUtils.isBlank(value) ? defaultValue : value.trim();
+    }
+
+    private int getIntInitParameter(String name, int defaultValue) {
+        final String value = getInitParameter(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            LOGGER.warn("illegal init parameter {}={}, use default {}", name, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private long getLongInitParameter(String name, long defaultValue) {
+        final String value = getInitParameter(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            LOGGER.warn("illegal init parameter {}={}, use default {}", name, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private double getDoubleInitParameter(String name, double defaultValue) {
+        final String value = getInitParameter(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            LOGGER.warn("illegal init parameter {}={}, use default {}", name, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private LatencyReporter createLatencyReporter(String className) {
+        if (className == null) {
+            return new LoggingLatencyReporter();
+        }
+        try {
+            return (LatencyReporter)Class.forName(className)
+                .getDeclaredConstructor()
+                .newInstance();
+        } catch (ReflectiveOperationException | ClassCastException | LinkageError t) {
+            LOGGER.error("error occured when creating latency reporter {}, use default", className, t);
+            return new LoggingLatencyReporter();
         }
     }
 
-    private boolean logResponse(HttpServletRequest httpServletRequest) {
-        final String logResp = filterConfig.getInitParameter("logResp");
-        return true || Boolean.parseBoolean(logResp) || isInWhite(httpServletRequest);
+    /**
+     * 解析某个路由的日志策略，结果由 routePolicyCache 缓存；白名单按原始 uri 匹配，路由和模板使用归一化之后的 uri
+     *
+     * @param requestURI 原始 request uri
+     * @return
+     */
+    private RoutePolicy resolveRoutePolicy(String requestURI) {
+        final boolean inWhite = isInWhite(requestURI);
+        final String route = RouteNormalizer.normalize(requestURI);
+        final String template = RouteNormalizer.template(route);
+        return new RoutePolicy(route, template, inWhite, logResp || inWhite, logSampler.routeBucket(template));
     }
 
     /**
      * 判断请求的request uri是否在白名单里
-     * @param httpServletRequest
+     * @param requestURI
      * @return
      */
-    private boolean isInWhite(HttpServletRequest httpServletRequest) {
-        final String requestURI = httpServletRequest.getRequestURI();
-        if (whitePatternSet == null || whitePatternSet.isEmpty()) {
+    private boolean isInWhite(String requestURI) {
+        if (whiteRouteMatcher.isEmpty()) {
             return false;
         }
-        return whitePatternSet.parallelStream()
-            .anyMatch(p -> {
-                try {
-                    return p.matcher(requestURI)
-                        .matches();
-                } catch (Throwable ignore) {
-                    LOGGER.warn("error match {}, pattern={}", requestURI, p);
-                }
-                return false;
-            });
+        try {
+            return whiteRouteMatcher.matches(requestURI);
+        } catch (Throwable ignore) {
+            LOGGER.warn("error match {}, pattern={}", requestURI, whiteRouteMatcher);
+        }
+        return false;
     }
 
     @Override
@@ -118,181 +342,361 @@ public class RequestResponseInfoLogFilter implements Filter {
         throws IOException, ServletException {
 
         HttpServletRequest httpServletRequest = (HttpServletRequest)servletRequest;
+        if (metricsEndpoint != null) {
+            if (metricsEndpoint.matches(httpServletRequest)) {
+                metricsEndpoint.serve((HttpServletResponse)servletResponse);
+                return;
+            }
+            metricsEndpoint.recordRequest();
+        }
+
+        // 日志级别关闭时不做任何捕获和包装，只统计耗时
+        final boolean logEnabled = isLogEnabled();
+        if (!logEnabled && latencyRecorder == null) {
+            filterChain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        final RoutePolicy routePolicy = routePolicyCache.resolve(httpServletRequest.getRequestURI());
 
-        // 开启log response才进行wrap，减少性能损失
+        // 在 wrap 之前决定是否采样，没有采样的请求只在出错或者慢的时候记录请求信息
+        final boolean sampled = logEnabled && logSampler.sample(routePolicy);
+        final boolean forceRules = logEnabled && logSampler.hasForceRules();
+        if (!sampled && !forceRules && latencyRecorder == null) {
+            filterChain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        // 开启log response才进行wrap，减少性能损失；tail 模式下没有采样的请求也要捕获，结束时再决定是否输出
+        final boolean captureBody = sampled || forceRules && tailCapture;
         HttpServletResponse wrappedHttpServletResponse =
-            logResponse(httpServletRequest) ? new WrappedHttpServletResponse((HttpServletResponse)servletResponse) :
+            (sampled ? routePolicy.logResponse : captureBody) ?
+                new WrappedHttpServletResponse((HttpServletResponse)servletResponse,
+                    new CaptureBuffer(segmentAllocator, maxCaptureBytes, spillPolicy, captureWindow)) :
                 (HttpServletResponse)servletResponse;
 
-        StringBuilder requestInfoBuilder = new StringBuilder();
-        // 收集 request uri, header
-        collectBaseInfo(httpServletRequest, requestInfoBuilder);
+        // 收集 request uri, header 的引用，输出日志时再渲染；没有采样的请求等到确定要输出时再收集，
+        // 默认开启的 sampleAlwaysOnError 不会让每个没有采样的请求都复制一遍参数和 header
+        final RequestSnapshot requestSnapshot =
+            sampled ? RequestSnapshot.capture(httpServletRequest) : new RequestSnapshot();
 
         long requestStartAt = System.currentTimeMillis();
+        requestSnapshot.startNanos = System.nanoTime();
 
         // 对于每种http请求都必须处理，即调用 filterChain.doFilter()， 否则请求就被直接drop了
         String contentType = httpServletRequest.getContentType();
-        if (StringUtils.startsWith(contentType, ContentType.APPLICATION_JSON.getMimeType())) {
-            AlwaysReadableRequest alwaysReadableRequest = new AlwaysReadableRequest(httpServletRequest);
-            collectJsonParam(requestInfoBuilder, alwaysReadableRequest);
-            filterAndLog(filterChain, alwaysReadableRequest, wrappedHttpServletResponse, requestInfoBuilder,
-                requestStartAt);
+        if (captureBody && StringUtils.startsWith(contentType, ContentType.APPLICATION_JSON.getMimeType())) {
+            // tee 模式在 controller 读取时捕获 body，eager 模式提前整体读入，都在记录日志时再输出；
+            // tail 捕获的 body 大概率会被回收，头尾窗口要求内存固定，都使用 tee 避免提前读入
+            AlwaysReadableRequest alwaysReadableRequest = teeRequestBody || !sampled || captureWindow != null ?
+                new AlwaysReadableRequest(httpServletRequest,
+                    new CaptureBuffer(segmentAllocator, maxRequestCaptureBytes, spillPolicy, captureWindow), true) :
+                new AlwaysReadableRequest(httpServletRequest,
+                    new CaptureBuffer(segmentAllocator, Integer.MAX_VALUE, spillPolicy), false);
+            filterAndLog(filterChain, alwaysReadableRequest, wrappedHttpServletResponse, routePolicy,
+                requestSnapshot, requestStartAt, sampled);
             return;
         }
 
         if (StringUtils.startsWith(contentType, ContentType.MULTIPART_FORM_DATA.getMimeType())) {
             // 这里如果查询了参数，在 controller 里拿不到 file，先只记录是多表单
-            requestInfoBuilder.append("[multipart/form-data]");
+            requestSnapshot.multipart = true;
         }
 
         // default 处理分支
-        filterAndLog(filterChain, httpServletRequest, wrappedHttpServletResponse, requestInfoBuilder, requestStartAt);
+        filterAndLog(filterChain, httpServletRequest, wrappedHttpServletResponse, routePolicy, requestSnapshot,
+            requestStartAt, sampled);
     }
 
     private void filterAndLog(FilterChain filterChain, HttpServletRequest httpServletRequest,
-        HttpServletResponse wrappedHttpServletResponse, StringBuilder requestInfoBuilder, long requestStartAt)
-        throws IOException, ServletException {
+        HttpServletResponse wrappedHttpServletResponse, RoutePolicy routePolicy, RequestSnapshot requestSnapshot,
+        long requestStartAt, boolean sampled) throws IOException, ServletException {
+        Throwable failure = null;
         try {
             filterChain.doFilter(httpServletRequest, wrappedHttpServletResponse);
         } catch (Throwable t) {
+            failure = t;
             LOGGER.error("exception catched from filterChain.doFilter", t);
             throw t;
         } finally {
-            doLog(httpServletRequest, wrappedHttpServletResponse, requestInfoBuilder, requestStartAt);
+            if (httpServletRequest.isAsyncStarted()) {
+                httpServletRequest.getAsyncContext()
+                    .addListener(new AsyncLogListener(httpServletRequest, wrappedHttpServletResponse, routePolicy,
+                        requestSnapshot, requestStartAt, sampled));
+            } else {
+                doLog(httpServletRequest, wrappedHttpServletResponse, routePolicy, requestSnapshot, requestStartAt,
+                    sampled, failure);
+            }
         }
     }
 
-    private void collectBaseInfo(HttpServletRequest httpServletRequest, StringBuilder requestInfoBuilder) {
+    /**
+     * 记录日志，异步模式下只填充事件，渲染和输出交给后台线程
+     *
+     * @param requestSnapshot
+     * @param requestStartAt
+     * @param sampled 请求开始时是否被采样
+     * @param failure filterChain 抛出的异常或异步请求的错误
+     */
+    private void doLog(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse,
+        RoutePolicy routePolicy, RequestSnapshot requestSnapshot, long requestStartAt, boolean sampled,
+        Throwable failure) {
+        final long requestEndTime = System.currentTimeMillis();
+        final int status = httpServletResponse.getStatus();
+        if (latencyRecorder != null) {
+            // 异常在 filter 之后才由容器转换成 500，这里提前按 500 统计
+            latencyRecorder.record(routePolicy.template, failure != null && status < 400 ? 500 : status,
+                System.nanoTime() - requestSnapshot.startNanos);
+        }
+        if (metricsEndpoint != null) {
+            metricsEndpoint.recordCaptured(getCapturedRequestBody(httpServletRequest),
+                httpServletResponse instanceof WrappedHttpServletResponse ?
+                    ((WrappedHttpServletResponse)httpServletResponse).getBuffer() : null);
+        }
+        // 没有采样的请求在结束时才知道是否出错或者慢，不需要输出时直接回收 tail 模式捕获的缓冲
+        if (!sampled && !(isLogEnabled() && logSampler.forceLog(status, failure,
+            requestEndTime - requestStartAt))) {
+            releaseCapture(httpServletRequest, httpServletResponse);
+            return;
+        }
+        if (!sampled) {
+            requestSnapshot.fill(httpServletRequest);
+        }
+        final AsyncLogDispatcher dispatcher = asyncLogDispatcher;
+        if (dispatcher == null) {
+            final LogEvent event = new LogEvent();
+            try {
+                fillLogEvent(event, httpServletRequest, httpServletResponse, routePolicy, requestSnapshot, requestStartAt,
+                    requestEndTime);
+                writeLog(event, false);
+            } finally {
+                event.clear();
+                releaseCapture(httpServletRequest, httpServletResponse);
+            }
+            return;
+        }
+
+        final long sequence = dispatcher.claim();
+        if (sequence < 0) {
+            releaseCapture(httpServletRequest, httpServletResponse);
+            return;
+        }
+        final LogEvent event = dispatcher.event(sequence);
         try {
-            requestInfoBuilder.append(SEP)
-                .append("ip: ")
-                .append(httpServletRequest.getRemoteAddr())
-                .append(SEP);
-            requestInfoBuilder.append(httpServletRequest.getMethod());
-            requestInfoBuilder.append(" ");
-            requestInfoBuilder.append(httpServletRequest.getRequestURL());
-            requestInfoBuilder.append("?");
-            collectParam(httpServletRequest, requestInfoBuilder);
-            collectHeader(httpServletRequest, requestInfoBuilder);
-        } catch (Throwable ignore) {
-            // ignore
-            LOGGER.error("error occured when parsing basic param", ignore);
+            fillLogEvent(event, httpServletRequest, httpServletResponse, routePolicy, requestSnapshot, requestStartAt,
+                requestEndTime);
+        } catch (Throwable t) {
+            event.clear();
+            releaseCapture(httpServletRequest, httpServletResponse);
+            LOGGER.error("error occured when publishing async log event", t);
+        } finally {
+            dispatcher.publish(sequence);
         }
     }
 
-    private void collectJsonParam(StringBuilder requestInfoBuilder, AlwaysReadableRequest alwaysReadableRequest) {
-        try {
-            BufferedReader httpServletRequestReader = alwaysReadableRequest.getReader();
-            String input;
-            while ((input = httpServletRequestReader.readLine()) != null) {
-                requestInfoBuilder.append(input);
+    private void fillLogEvent(LogEvent event, HttpServletRequest httpServletRequest,
+        HttpServletResponse httpServletResponse, RoutePolicy routePolicy, RequestSnapshot requestSnapshot,
+        long requestStartAt, long requestEndTime) {
+        event.requestSnapshot = requestSnapshot;
+        event.routePolicy = routePolicy;
+        event.status = httpServletResponse.getStatus();
+        event.requestStartAt = requestStartAt;
+        event.requestEndTime = requestEndTime;
+        final CaptureBuffer capturedRequestBody = getCapturedRequestBody(httpServletRequest);
+        if (capturedRequestBody != null) {
+            if (drainUnreadBody) {
+                try {
+                    ((AlwaysReadableRequest)httpServletRequest).drainUnreadBody();
+                } catch (IOException e) {
+                    LOGGER.warn("error occured when draining unread request body", e);
+                }
             }
-            requestInfoBuilder.append(SEP);
-        } catch (Throwable ignore) {
-            LOGGER.error("error occured when collect josn param", ignore);
+            event.requestBody = capturedRequestBody;
+            event.requestCharset = StringUtils.defaultIfEmpty(httpServletRequest.getCharacterEncoding(), "UTF-8");
         }
+        event.logResponse = httpServletResponse instanceof WrappedHttpServletResponse;
+        if (event.logResponse) {
+            final WrappedHttpServletResponse wrappedHttpServletResponse =
+                (WrappedHttpServletResponse)httpServletResponse;
+            event.responseBody = wrappedHttpServletResponse.getBuffer();
+            event.responseCharset = wrappedHttpServletResponse.getCharacterEncoding();
+            event.responseContentEncoding = wrappedHttpServletResponse.getContentEncoding();
+        }
+    }
+
+    private CaptureBuffer getCapturedRequestBody(HttpServletRequest httpServletRequest) {
+        if (httpServletRequest instanceof AlwaysReadableRequest) {
+            return ((AlwaysReadableRequest)httpServletRequest).getBody();
+        }
+        return null;
+    }
+
+    private void releaseCapture(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) {
+        final CaptureBuffer capturedRequestBody = getCapturedRequestBody(httpServletRequest);
+        if (capturedRequestBody != null) {
+            capturedRequestBody.release();
+        }
+        if (httpServletResponse instanceof WrappedHttpServletResponse) {
+            ((WrappedHttpServletResponse)httpServletResponse).release();
+        }
+    }
+
+    /**
+     * 二进制日志不经过 logback，不受日志级别影响
+     */
+    private boolean isLogEnabled() {
+        return binaryLogWriter != null || REQUEST_RESPONSE_LOGGER.isInfoEnabled();
     }
 
     /**
-     * 记录日志
+     * 渲染并输出日志
      *
-     * @param requestInfo
-     * @param requestStartAt
+     * @param event
+     * @param decode 是否在后台线程上，只有这时才解压压缩过的响应，同步输出时不占用请求线程解压
      */
-    private void doLog(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse,
-        StringBuilder requestInfo, long requestStartAt) {
-        final long requestEndTime = System.currentTimeMillis();
-        long cost = requestEndTime - requestStartAt;
-        if (!logResponse(httpServletRequest)) {
-            REQUEST_RESPONSE_LOGGER.info("{}{}start time {} --> end time {}, \033[33m\033[01mcost: {}\033[0m{}",
-                requestInfo.toString(), SEP, requestStartAt, requestEndTime, cost, SEP);
+    private void writeLog(LogEvent event, boolean decode) {
+        final BinaryLogWriter writer = binaryLogWriter;
+        if (writer != null) {
+            try {
+                writer.append(event, decode);
+            } catch (Throwable t) {
+                LOGGER.error("error occured when writing binary log record", t);
+            }
             return;
         }
 
         try {
-            String responseContent = ((WrappedHttpServletResponse)httpServletResponse).getReponseContent();
-            REQUEST_RESPONSE_LOGGER.info(
-                "{}{}start time {} --> end time {}, \033[33m\033[01mcost: {}\033[0m{}response info: {}{}",
-                requestInfo.toString(), SEP, requestStartAt, requestEndTime, cost, SEP, responseContent, SEP);
+            final String responseContent =
+                event.logResponse ? responseText(event, decode) : null;
+            REQUEST_RESPONSE_LOGGER.info(TextLogLayout.format(renderRequestInfo(event), event.requestStartAt,
+                event.requestEndTime, responseContent));
         } catch (Throwable t) {
             LOGGER.error("requestResponseLogger get response content error, request info: {}", t);
         }
-
     }
 
     /**
-     * 收集请求中的header信息
-     * @param httpServletRequest http请求
-     * @param stringBuilder 日志builder
+     * 在输出日志的线程上渲染请求信息，json 请求体和异步请求的结果拼在 header 后面
      */
-    private void collectHeader(HttpServletRequest httpServletRequest, StringBuilder stringBuilder) {
-        final Enumeration<String> headerNames = httpServletRequest.getHeaderNames();
-        while (headerNames.hasMoreElements()) {
-            final String headerName = headerNames.nextElement();
-            if ("content-length".equalsIgnoreCase(headerName)) {
-                continue;
+    private String renderRequestInfo(LogEvent event) {
+        String requestBody = null;
+        if (event.requestBody != null) {
+            try {
+                requestBody = bodyText(event.requestBody, event.requestCharset);
+            } catch (Throwable t) {
+                LOGGER.error("error occured when rendering request body, charset={}", event.requestCharset, t);
             }
-            stringBuilder.append(headerName);
-            stringBuilder.append(": ");
-            final String header = httpServletRequest.getHeader(headerName);
-            stringBuilder.append(header);
-            stringBuilder.append(SEP);
         }
-        stringBuilder.append(SEP);
+        return TextLogLayout.requestInfo(event.requestSnapshot, requestBody);
     }
 
     /**
-     * 获取参数
-     *
-     * @param httpServletRequest
-     * @param stringBuilder
+     * 压缩过的响应在后台线程上解压，解压后最多保留 maxCaptureBytes 个字节；同步输出时不给请求线程增加解压开销，
+     * 只记录编码和长度
      */
-    private void collectParam(HttpServletRequest httpServletRequest, StringBuilder stringBuilder) {
-        Iterator<Map.Entry<String, String[]>> entryIterator = httpServletRequest.getParameterMap()
-            .entrySet()
-            .iterator();
-        Map.Entry<String, String[]> paramEntry;
-        if (entryIterator.hasNext()) {
-            paramEntry = entryIterator.next();
-            stringBuilder.append(paramEntry.getKey())
-                .append("=")
-                .append(getStringFromStringArrayEncoded(paramEntry.getValue()));
-        }
-
-        while (entryIterator.hasNext()) {
-            paramEntry = entryIterator.next();
-            stringBuilder.append("&");
-            stringBuilder.append(paramEntry.getKey())
-                .append("=")
-                .append(getStringFromStringArrayEncoded(paramEntry.getValue()));
-        }
-        stringBuilder.append(SEP);
+    private String responseText(LogEvent event, boolean decode) throws IOException {
+        if (ContentDecoder.isEncoded(event.responseContentEncoding)) {
+            if (!decode) {
+                return TextLogLayout.markEncodedNotDecoded(event.responseContentEncoding,
+                    event.responseBody.totalSize());
+            }
+            return ContentDecoder.toString(event.responseBody, event.responseContentEncoding, event.responseCharset,
+                maxCaptureBytes, jsonMasker);
+        }
+        return bodyText(event.responseBody, event.responseCharset);
     }
 
-    private String getStringFromStringArrayEncoded(String[] source) {
-        final String result = getStringFromStringArray(source);
-        try {
-            return URLEncoder.encode(result, Charset.defaultCharset().displayName());
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        }
-        return result;
+    private String bodyText(CaptureBuffer captureBuffer, String charset) throws IOException {
+        return jsonMasker == null ? captureBuffer.toString(charset) : jsonMasker.toString(captureBuffer, charset);
     }
 
+    /**
+     * 异步请求在 onComplete 时记录日志，onTimeout/onError 只记下原因，由随后的 onComplete 一并输出
+     */
+    private class AsyncLogListener implements AsyncListener {
+
+        private final HttpServletRequest httpServletRequest;
+
+        private final HttpServletResponse httpServletResponse;
+
+        private final RoutePolicy routePolicy;
+
+        private final RequestSnapshot requestSnapshot;
 
-    private String getStringFromStringArray(String[] source) {
-        if (source == null || source.length == 0) {
-            return StringUtils.EMPTY;
+        private final long requestStartAt;
+
+        private final boolean sampled;
+
+        private final AtomicBoolean logged = new AtomicBoolean();
+
+        private volatile Throwable failure;
+
+        AsyncLogListener(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse,
+            RoutePolicy routePolicy, RequestSnapshot requestSnapshot, long requestStartAt, boolean sampled) {
+            this.httpServletRequest = httpServletRequest;
+            this.httpServletResponse = httpServletResponse;
+            this.routePolicy = routePolicy;
+            this.requestSnapshot = requestSnapshot;
+            this.requestStartAt = requestStartAt;
+            this.sampled = sampled;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            if (!logged.compareAndSet(false, true)) {
+                return;
+            }
+            doLog(httpServletRequest, httpServletResponse, routePolicy, requestSnapshot, requestStartAt, sampled,
+                failure);
         }
-        if (source.length == 1) {
-            return source[0];
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            requestSnapshot.outcome = "[async timeout]";
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            failure = event.getThrowable();
+            requestSnapshot.outcome = "[async error: " + event.getThrowable() + "]";
+            LOGGER.error("exception catched from async request", event.getThrowable());
         }
 
-        return Arrays.toString(source);
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // 重新 startAsync 会清空监听器，需要重新注册
+            event.getAsyncContext()
+                .addListener(this);
+        }
     }
 
     @Override
     public void destroy() {
-
+        if (routePolicyCache != null) {
+            LOGGER.info("route policy cache size={}, stats={}", routePolicyCache.size(), routePolicyCache.stats());
+        }
+        if (logSampler != null) {
+            LOGGER.info("log sampler sampled={}, skipped={}, forced={}", logSampler.getSampledCount(),
+                logSampler.getSkippedCount(), logSampler.getForcedCount());
+        }
+        if (latencyRecorder != null) {
+            latencyRecorder.shutdown();
+            latencyRecorder = null;
+        }
+        if (asyncLogDispatcher != null) {
+            asyncLogDispatcher.shutdown(ASYNC_LOG_SHUTDOWN_TIMEOUT_MILLIS);
+            asyncLogDispatcher = null;
+        }
+        if (binaryLogWriter != null) {
+            try {
+                binaryLogWriter.close();
+            } catch (IOException e) {
+                LOGGER.warn("error occured when closing binary log writer", e);
+            }
+        }
+        // 重新部署时释放堆外 slab，还在使用的段在归还之后释放
+        if (segmentAllocator instanceof CaptureArena) {
+            ((CaptureArena)segmentAllocator).close();
+        }
     }
 }
@@ -0,0 +1,218 @@
+package com.air;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 请求基本信息的快照，请求线程上只保存引用，拼接文本延迟到真正输出日志时（异步模式下在后台线程）进行
+ *
+ * 容器会在请求结束后回收 request 对象，所以参数和 header 在这里复制成数组，字符串本身不复制
+ *
+ * @date 2026/10/15
+ */
+final class RequestSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestSnapshot.class);
+
+    private static final String SEP = System.lineSeparator();
+
+    private static final String[] EMPTY = new String[0];
+
+    private static final String[][] EMPTY_VALUES = new String[0][];
+
+    String remoteAddr;
+
+    String method;
+
+    String scheme;
+
+    String serverName;
+
+    int serverPort;
+
+    String requestURI;
+
+    String[] paramNames = EMPTY;
+
+    String[][] paramValues = EMPTY_VALUES;
+
+    String[] headerNames = EMPTY;
+
+    String[] headerValues = EMPTY;
+
+    int headerCount;
+
+    boolean multipart;
+
+    /**
+     * 请求开始的 nanoTime，用于耗时统计
+     */
+    long startNanos;
+
+    /**
+     * 异步请求超时或出错的说明，由 AsyncListener 设置
+     */
+    volatile String outcome;
+
+    RequestSnapshot() {
+    }
+
+    /**
+     * 收集 request uri, 参数, header 的引用
+     */
+    static RequestSnapshot capture(HttpServletRequest httpServletRequest) {
+        final RequestSnapshot snapshot = new RequestSnapshot();
+        snapshot.fill(httpServletRequest);
+        return snapshot;
+    }
+
+    /**
+     * 收集 request uri, 参数, header 的引用；没有采样的请求在结束时决定输出之后才调用，request 还没有被容器回收
+     */
+    void fill(HttpServletRequest httpServletRequest) {
+        try {
+            remoteAddr = httpServletRequest.getRemoteAddr();
+            method = httpServletRequest.getMethod();
+            scheme = httpServletRequest.getScheme();
+            serverName = httpServletRequest.getServerName();
+            serverPort = httpServletRequest.getServerPort();
+            requestURI = httpServletRequest.getRequestURI();
+            captureParams(httpServletRequest);
+            captureHeaders(httpServletRequest);
+        } catch (Throwable ignore) {
+            // ignore
+            LOGGER.error("error occured when parsing basic param", ignore);
+        }
+    }
+
+    private void captureParams(HttpServletRequest httpServletRequest) {
+        final Map<String, String[]> parameterMap = httpServletRequest.getParameterMap();
+        if (parameterMap.isEmpty()) {
+            return;
+        }
+        paramNames = new String[parameterMap.size()];
+        paramValues = new String[parameterMap.size()][];
+        int i = 0;
+        for (Map.Entry<String, String[]> paramEntry : parameterMap.entrySet()) {
+            paramNames[i] = paramEntry.getKey();
+            paramValues[i] = paramEntry.getValue();
+            i++;
+        }
+    }
+
+    private void captureHeaders(HttpServletRequest httpServletRequest) {
+        final Enumeration<String> names = httpServletRequest.getHeaderNames();
+        if (names == null || !names.hasMoreElements()) {
+            return;
+        }
+        headerNames = new String[16];
+        headerValues = new String[16];
+        while (names.hasMoreElements()) {
+            final String headerName = names.nextElement();
+            if ("content-length".equalsIgnoreCase(headerName)) {
+                continue;
+            }
+            if (headerCount == headerNames.length) {
+                headerNames = Arrays.copyOf(headerNames, headerCount * 2);
+                headerValues = Arrays.copyOf(headerValues, headerCount * 2);
+            }
+            headerNames[headerCount] = headerName;
+            headerValues[headerCount] = httpServletRequest.getHeader(headerName);
+            headerCount++;
+        }
+    }
+
+    /**
+     * 和原来 getRequestURL 的格式一致：scheme://serverName[:port]requestURI
+     */
+    String requestURL() {
+        final StringBuilder url = new StringBuilder();
+        appendRequestURL(url);
+        return url.toString();
+    }
+
+    /**
+     * 渲染 ip、请求行、参数和 header
+     */
+    void render(StringBuilder builder) {
+        builder.append(SEP)
+            .append("ip: ")
+            .append(remoteAddr)
+            .append(SEP);
+        builder.append(method);
+        builder.append(" ");
+        appendRequestURL(builder);
+        builder.append("?");
+        renderParams(builder);
+        renderHeaders(builder);
+    }
+
+    private void appendRequestURL(StringBuilder builder) {
+        if (scheme == null) {
+            builder.append(requestURI);
+            return;
+        }
+        builder.append(scheme)
+            .append("://")
+            .append(serverName);
+        if (serverPort > 0 && !("http".equals(scheme) && serverPort == 80) && !("https".equals(scheme)
+            && serverPort == 443)) {
+            builder.append(':')
+                .append(serverPort);
+        }
+        builder.append(requestURI);
+    }
+
+    private void renderParams(StringBuilder builder) {
+        for (int i = 0; i < paramNames.length; i++) {
+            if (i > 0) {
+                builder.append("&");
+            }
+            builder.append(paramNames[i])
+                .append("=")
+                .append(getStringFromStringArrayEncoded(paramValues[i]));
+        }
+        builder.append(SEP);
+    }
+
+    private void renderHeaders(StringBuilder builder) {
+        for (int i = 0; i < headerCount; i++) {
+            builder.append(headerNames[i]);
+            builder.append(": ");
+            builder.append(headerValues[i]);
+            builder.append(SEP);
+        }
+        builder.append(SEP);
+    }
+
+    private static String getStringFromStringArrayEncoded(String[] source) {
+        final String result = getStringFromStringArray(source);
+        try {
+            return URLEncoder.encode(result, Charset.defaultCharset().displayName());
+        } catch (UnsupportedEncodingException e) {
+            LOGGER.error("unsupported default charset", e);
+        }
+        return result;
+    }
+
+    private static String getStringFromStringArray(String[] source) {
+        if (source == null || source.length == 0) {
+            return StringUtils.EMPTY;
+        }
+        if (source.length == 1) {
+            return source[0];
+        }
+
+        return Arrays.toString(source);
+    }
+}
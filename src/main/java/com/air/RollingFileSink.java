@@ -0,0 +1,151 @@
+package com.air;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 通过 FileChannel 顺序追加的滚动文件，所有写入共用一把锁
+ *
+ * @date 2026/10/15
+ */
+final class RollingFileSink implements RecordSink {
+
+    private final File directory;
+
+    private final long rollBytes;
+
+    private final long rollMillis;
+
+    private final long baseMillis = System.currentTimeMillis();
+
+    private final List<byte[]> dictionaryRecords = new ArrayList<>();
+
+    private FileChannel channel;
+
+    private File currentFile;
+
+    private SegmentIndex index;
+
+    private long fileSize;
+
+    private long fileOpenedAt;
+
+    private int fileSequence;
+
+    private boolean closed;
+
+    /**
+     * @param directory 日志目录
+     * @param rollBytes 单个文件的大小上限
+     * @param rollMillis 单个文件的时间跨度上限
+     */
+    RollingFileSink(File directory, long rollBytes, long rollMillis) throws IOException {
+        this.directory = BinaryRecordFormat.ensureDirectory(directory);
+        this.rollBytes = rollBytes;
+        this.rollMillis = rollMillis;
+        synchronized (this) {
+            roll(System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public synchronized void append(byte[] record, int offset, int length, IndexEntry entry) throws IOException {
+        if (closed) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (fileSize >= rollBytes || now - fileOpenedAt >= rollMillis) {
+            roll(now);
+        }
+        index.add(entry, fileSize);
+        write(record, offset, length);
+    }
+
+    /**
+     * gather 写入，direct 的捕获缓冲段不经过堆内拷贝
+     */
+    @Override
+    public synchronized void append(ByteBuffer[] record, int count, int length, IndexEntry entry)
+        throws IOException {
+        if (closed) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (fileSize >= rollBytes || now - fileOpenedAt >= rollMillis) {
+            roll(now);
+        }
+        index.add(entry, fileSize);
+        long remaining = length;
+        while (remaining > 0) {
+            remaining -= channel.write(record, 0, count);
+        }
+        fileSize += length;
+    }
+
+    @Override
+    public synchronized void appendDictionary(byte[] record, int offset, int length) throws IOException {
+        if (closed) {
+            return;
+        }
+        index.addDictionary(fileSize);
+        write(record, offset, length);
+        dictionaryRecords.add(Arrays.copyOfRange(record, offset, offset + length));
+    }
+
+    @Override
+    public long getBaseMillis() {
+        return baseMillis;
+    }
+
+    @Override
+    public synchronized File getCurrentFile() {
+        return currentFile;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        channel.close();
+        index.seal();
+    }
+
+    /**
+     * 关闭并封存当前文件，打开新文件并写入文件头和已有的字典记录
+     */
+    private void roll(long now) throws IOException {
+        if (channel != null) {
+            channel.close();
+            index.seal();
+        }
+        final File file = BinaryRecordFormat.createFile(directory, ++fileSequence);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        index = new SegmentIndex(file, rollBytes);
+        currentFile = file;
+        fileOpenedAt = now;
+        fileSize = 0;
+
+        final ByteBuffer header = BinaryRecordFormat.fileHeader(baseMillis);
+        write(header.array(), 0, header.limit());
+        for (byte[] dictionaryRecord : dictionaryRecords) {
+            index.addDictionary(fileSize);
+            write(dictionaryRecord, 0, dictionaryRecord.length);
+        }
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        fileSize += length;
+    }
+}
@@ -0,0 +1,196 @@
+package com.air;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 白名单路由匹配器，init 时把所有正则预编译好，请求时顺序匹配一遍
+ *
+ * 正则按形态分成三类：
+ *  1. 不含元字符的纯字面量：放进 HashSet 做精确匹配
+ *  2. 字面量前缀加 .* 结尾：放进前缀树，沿 uri 走一遍即可
+ *  3. 其余正则：合并成一个 (?:p1)|(?:p2) 的正则，合并后无法编译时逐个匹配；每次匹配新建 Matcher，
+ *     相比正则本身的开销可以忽略，也不会让容器线程通过 ThreadLocal 持有 webapp 的类加载器
+ *
+ * 匹配语义和原来一致，都是整个 uri 完整匹配（Matcher.matches）
+ *
+ * @date 2026/10/15
+ */
+final class RouteMatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RouteMatcher.class);
+
+    private static final String REGEX_META_CHARS = "\\.[]{}()*+?^$|";
+
+    private static final String ANY_SUFFIX = ".*";
+
+    private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\[1-9]|\\\\k<");
+
+    private final Set<String> literals = new HashSet<>();
+
+    private final PrefixNode prefixRoot = new PrefixNode();
+
+    private final List<Pattern> residualPatterns = new ArrayList<>();
+
+    private final List<String> sources = new ArrayList<>();
+
+    private boolean hasPrefix;
+
+    /**
+     * @param patterns 正则表达式，非法的正则会被忽略并打印错误日志
+     */
+    RouteMatcher(String... patterns) {
+        final List<String> combinable = new ArrayList<>();
+        for (String pattern : patterns) {
+            if (pattern == null || pattern.isEmpty()) {
+                continue;
+            }
+            try {
+                Pattern.compile(pattern);
+            } catch (Throwable t) {
+                LOGGER.error("error compiling pattern {}", pattern, t);
+                continue;
+            }
+            sources.add(pattern);
+            if (isLiteral(pattern)) {
+                literals.add(pattern);
+            } else if (pattern.endsWith(ANY_SUFFIX) && isLiteral(
+                pattern.substring(0, pattern.length() - ANY_SUFFIX.length()))) {
+                prefixRoot.insert(pattern.substring(0, pattern.length() - ANY_SUFFIX.length()));
+                hasPrefix = true;
+            } else if (BACK_REFERENCE.matcher(pattern)
+                .find()) {
+                // 带反向引用的正则合并后组号会错位，单独匹配
+                residualPatterns.add(Pattern.compile(pattern));
+            } else {
+                combinable.add(pattern);
+            }
+        }
+        if (!combinable.isEmpty()) {
+            final StringBuilder combined = new StringBuilder();
+            for (String pattern : combinable) {
+                if (combined.length() > 0) {
+                    combined.append('|');
+                }
+                combined.append("(?:")
+                    .append(pattern)
+                    .append(')');
+            }
+            try {
+                residualPatterns.add(0, Pattern.compile(combined.toString()));
+            } catch (PatternSyntaxException e) {
+                // 单独合法的正则合并后可能非法，如重名的命名组、没有 \E 结尾的 \Q，退回逐个匹配
+                LOGGER.warn("can not combine patterns {}, match them one by one: {}", combinable, e.getMessage());
+                for (int i = 0; i < combinable.size(); i++) {
+                    residualPatterns.add(i, Pattern.compile(combinable.get(i)));
+                }
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return sources.isEmpty();
+    }
+
+    /**
+     * 判断 uri 是否匹配任意一个正则
+     */
+    boolean matches(String uri) {
+        if (uri == null) {
+            return false;
+        }
+        if (literals.contains(uri)) {
+            return true;
+        }
+        if (hasPrefix && prefixRoot.matchesPrefixOf(uri)) {
+            return true;
+        }
+        for (int i = 0; i < residualPatterns.size(); i++) {
+            if (residualPatterns.get(i)
+                .matcher(uri)
+                .matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return sources.toString();
+    }
+
+    private static boolean isLiteral(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            if (REGEX_META_CHARS.indexOf(pattern.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 前缀树节点，子节点按字符排序存放在数组里，二分查找
+     */
+    private static final class PrefixNode {
+
+        private char[] keys = new char[0];
+
+        private PrefixNode[] children = new PrefixNode[0];
+
+        private boolean terminal;
+
+        void insert(String prefix) {
+            PrefixNode node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.childOrCreate(prefix.charAt(i));
+            }
+            node.terminal = true;
+        }
+
+        boolean matchesPrefixOf(String uri) {
+            PrefixNode node = this;
+            for (int i = 0; ; i++) {
+                if (node.terminal) {
+                    return true;
+                }
+                if (i == uri.length()) {
+                    return false;
+                }
+                final int index = Arrays.binarySearch(node.keys, uri.charAt(i));
+                if (index < 0) {
+                    return false;
+                }
+                node = node.children[index];
+            }
+        }
+
+        private PrefixNode childOrCreate(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            index = -index - 1;
+            final PrefixNode child = new PrefixNode();
+            final char[] newKeys = new char[keys.length + 1];
+            final PrefixNode[] newChildren = new PrefixNode[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            newKeys[index] = c;
+            newChildren[index] = child;
+            System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.air;
+
+/**
+ * request uri 归一化：去掉 ;jsessionid 之类的路径参数，合并重复的 /，去掉结尾的 /
+ *
+ * 已经是规范形式的 uri 原样返回，不分配新字符串；{@link #template(String)} 把数字和 uuid 段替换成 {id}，用于按路由模板聚合统计
+ *
+ * @date 2026/10/15
+ */
+final class RouteNormalizer {
+
+    private static final String ID_PLACEHOLDER = "{id}";
+
+    private static final int UUID_LENGTH = 36;
+
+    private RouteNormalizer() {
+    }
+
+    static String normalize(String uri) {
+        if (uri == null || uri.isEmpty()) {
+            return "/";
+        }
+        if (isNormalized(uri)) {
+            return uri;
+        }
+        final StringBuilder normalized = new StringBuilder(uri.length());
+        boolean inPathParam = false;
+        for (int i = 0; i < uri.length(); i++) {
+            final char c = uri.charAt(i);
+            if (c == '/') {
+                inPathParam = false;
+                if (normalized.length() > 0 && normalized.charAt(normalized.length() - 1) == '/') {
+                    continue;
+                }
+                normalized.append(c);
+            } else if (c == ';') {
+                inPathParam = true;
+            } else if (!inPathParam) {
+                normalized.append(c);
+            }
+        }
+        final int length = normalized.length();
+        if (length > 1 && normalized.charAt(length - 1) == '/') {
+            normalized.setLength(length - 1);
+        }
+        return normalized.length() == 0 ? "/" : normalized.toString();
+    }
+
+    /**
+     * @param route 归一化之后的 uri
+     * @return 数字段和 uuid 段替换成 {id} 的路由模板，没有需要替换的段时原样返回
+     */
+    static String template(String route) {
+        StringBuilder template = null;
+        int segmentStart = 1;
+        final int length = route.length();
+        for (int i = 1; i <= length; i++) {
+            if (i < length && route.charAt(i) != '/') {
+                continue;
+            }
+            if (isIdSegment(route, segmentStart, i)) {
+                if (template == null) {
+                    template = new StringBuilder(length).append(route, 0, segmentStart);
+                }
+                template.append(ID_PLACEHOLDER);
+            } else if (template != null) {
+                template.append(route, segmentStart, i);
+            }
+            if (template != null && i < length) {
+                template.append('/');
+            }
+            segmentStart = i + 1;
+        }
+        return template == null ? route : template.toString();
+    }
+
+    private static boolean isIdSegment(String route, int start, int end) {
+        final int length = end - start;
+        if (length == 0) {
+            return false;
+        }
+        if (length == UUID_LENGTH && isUuid(route, start)) {
+            return true;
+        }
+        for (int i = start; i < end; i++) {
+            if (!Character.isDigit(route.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isUuid(String route, int start) {
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            final char c = route.charAt(start + i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (Character.digit(c, 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNormalized(String uri) {
+        final int length = uri.length();
+        if (length > 1 && uri.charAt(length - 1) == '/') {
+            return false;
+        }
+        char previous = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = uri.charAt(i);
+            if (c == ';' || (c == '/' && previous == '/')) {
+                return false;
+            }
+            previous = c;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,56 @@
+package com.air;
+
+/**
+ * 某个路由解析好的日志策略，同一个路由的请求共享同一个实例
+ *
+ * @date 2026/10/15
+ */
+final class RoutePolicy {
+
+    /**
+     * 归一化之后的 request uri
+     */
+    final String route;
+
+    /**
+     * 数字和 uuid 段替换成 {id} 之后的路由模板，用于耗时统计
+     */
+    final String template;
+
+    /**
+     * 是否命中 whitePatterns
+     */
+    final boolean inWhite;
+
+    /**
+     * 是否需要捕获并打印响应
+     */
+    final boolean logResponse;
+
+    /**
+     * 路由模板的采样令牌桶，同一模板的路由共享，为 null 表示不按路由限流
+     */
+    final TokenBucket sampleBucket;
+
+    RoutePolicy(String route, boolean inWhite, boolean logResponse) {
+        this(route, inWhite, logResponse, null);
+    }
+
+    RoutePolicy(String route, boolean inWhite, boolean logResponse, TokenBucket sampleBucket) {
+        this(route, RouteNormalizer.template(route), inWhite, logResponse, sampleBucket);
+    }
+
+    RoutePolicy(String route, String template, boolean inWhite, boolean logResponse, TokenBucket sampleBucket) {
+        this.route = route;
+        this.template = template;
+        this.inWhite = inWhite;
+        this.logResponse = logResponse;
+        this.sampleBucket = sampleBucket;
+    }
+
+    @Override
+    public String toString() {
+        return "RoutePolicy{route=" + route + ", inWhite=" + inWhite + ", logResponse=" + logResponse + ", sampleBucket="
+            + sampleBucket + "}";
+    }
+}
@@ -0,0 +1,50 @@
+package com.air;
+
+import java.util.function.Function;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * 按原始 request uri 缓存解析好的 {@link RoutePolicy}，热路径上只剩一次 map 查找
+ *
+ * whitePatterns 一直按原始 uri 匹配，依赖结尾 /、;jsessionid= 等路径参数或者 // 的正则仍然有效，
+ * 所以 /api/order/ 和 /api/order 各自解析一次；归一化只用于策略里的 route 和 template。
+ * 容量有限，超出后按 LRU 淘汰，避免带 id 的 uri 把缓存撑爆
+ *
+ * @date 2026/10/15
+ */
+final class RoutePolicyCache {
+
+    private final LoadingCache<String, RoutePolicy> cache;
+
+    /**
+     * @param maximumSize 最多缓存的路由数
+     * @param resolver 根据原始 request uri 解析策略
+     */
+    RoutePolicyCache(long maximumSize, Function<String, RoutePolicy> resolver) {
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .recordStats()
+            .build(new CacheLoader<String, RoutePolicy>() {
+                @Override
+                public RoutePolicy load(String route) {
+                    return resolver.apply(route);
+                }
+            });
+    }
+
+    RoutePolicy resolve(String requestURI) {
+        return cache.getUnchecked(requestURI == null ? "" : requestURI);
+    }
+
+    long size() {
+        return cache.size();
+    }
+
+    CacheStats stats() {
+        return cache.stats();
+    }
+}
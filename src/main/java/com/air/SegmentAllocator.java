@@ -0,0 +1,45 @@
+package com.air;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link CaptureBuffer} 缓冲段的来源：{@link CaptureBufferPool} 按大小分级缓存堆内或堆外的段，
+ * {@link CaptureArena} 从有总预算的堆外 slab 中切分
+ *
+ * 段大小都按 {@link CaptureBufferPool#segmentSize(int)} 分级
+ *
+ * @date 2026/10/15
+ */
+interface SegmentAllocator {
+
+    /**
+     * 为一个捕获缓冲开一个租约，缓冲通过它借段，释放时整体归还
+     *
+     * @param owner 借段的缓冲，用于泄漏检测
+     */
+    Lease lease(Object owner);
+
+    /**
+     * @return 借出未归还的段占用的字节数
+     */
+    long bytesInUse();
+
+    /**
+     * 一个捕获缓冲借段的凭证，只在所属缓冲的线程上使用
+     */
+    interface Lease {
+
+        /**
+         * @param ordinal 段在 buffer 中的序号
+         * @return 预算用完时返回 null
+         */
+        ByteBuffer acquire(int ordinal);
+
+        /**
+         * 归还通过这个租约借出的所有段
+         *
+         * @param segments 缓冲持有的段，前 count 个有效
+         */
+        void releaseAll(ByteBuffer[] segments, int count);
+    }
+}
@@ -0,0 +1,271 @@
+package com.air;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * 和日志文件同名的 .widx 索引文件，内存映射，每条记录一项：
+ *
+ * <pre>
+ * header: magic "WIDX" | version(1) | flags(1) | reserved(2) | capacity(4) | entryCount(4)
+ *         | minStartAt(8) | maxStartAt(8)
+ * entry:  offset(8) | startAt(8) | cost(4) | status(4) | methodHash(4) | routeHash(4) | requestIdHash(4) | flags(4)
+ * </pre>
+ *
+ * 槽位用 getAndIncrement 领取，各项的 offset 最后写入，offset 为0的槽位是空的。和 {@link SpillFile} 一样按固定大小的块
+ * 映射，用到哪一块才映射并扩展文件，索引文件的大小和记录数成正比，不按日志文件大小预先占用。文件滚动并且没有进行中的写入之后才封存：
+ * 写入 header 的 entryCount 和时间范围，之后立即解除映射。没有封存或者槽位不够用的索引不完整，查询时退回到顺序扫描日志文件
+ *
+ * @date 2026/10/15
+ */
+final class SegmentIndex {
+
+    static final String FILE_SUFFIX = ".widx";
+
+    private static final byte[] MAGIC = {'W', 'I', 'D', 'X'};
+
+    private static final int VERSION = 1;
+
+    private static final int FLAG_SEALED = 1;
+
+    private static final int FLAG_OVERFLOW = 2;
+
+    private static final int HEADER_BYTES = 32;
+
+    private static final int ENTRY_BYTES = 40;
+
+    /**
+     * 每块的槽位数，一块 640KB
+     */
+    private static final int ENTRIES_PER_CHUNK = 16 * 1024;
+
+    /**
+     * 最短的记录（空字典项）的字节数，槽位上限按它计算，正常情况下不会用完
+     */
+    private static final int MIN_RECORD_BYTES = 4;
+
+    private final File file;
+
+    private final RandomAccessFile randomAccessFile;
+
+    private final MappedByteBuffer header;
+
+    private final AtomicReferenceArray<MappedByteBuffer> chunks;
+
+    private final int capacity;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    private final LongAccumulator minStartAt = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+    private final LongAccumulator maxStartAt = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    private volatile boolean overflow;
+
+    /**
+     * @param segmentFile 日志文件
+     * @param segmentBytes 日志文件的最大大小，用来计算槽位上限
+     */
+    SegmentIndex(File segmentFile, long segmentBytes) throws IOException {
+        this.file = fileFor(segmentFile);
+        this.capacity = (int)Math.min((Integer.MAX_VALUE - HEADER_BYTES) / ENTRY_BYTES,
+            Math.max(ENTRIES_PER_CHUNK, segmentBytes / MIN_RECORD_BYTES));
+        this.chunks = new AtomicReferenceArray<>((capacity + ENTRIES_PER_CHUNK - 1) / ENTRIES_PER_CHUNK);
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            header = randomAccessFile.getChannel()
+                .map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            chunk(0);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+        header.put(MAGIC);
+        header.put((byte)VERSION);
+        header.putInt(8, capacity);
+    }
+
+    static File fileFor(File segmentFile) {
+        final String name = segmentFile.getName();
+        final String base = name.endsWith(BinaryRecordFormat.FILE_SUFFIX)
+            ? name.substring(0, name.length() - BinaryRecordFormat.FILE_SUFFIX.length()) : name;
+        return new File(segmentFile.getParentFile(), base + FILE_SUFFIX);
+    }
+
+    void add(IndexEntry entry, long offset) {
+        final int slot = count.getAndIncrement();
+        final MappedByteBuffer buffer = chunkFor(slot);
+        if (buffer == null) {
+            return;
+        }
+        final int position = (slot % ENTRIES_PER_CHUNK) * ENTRY_BYTES;
+        buffer.putLong(position + 8, entry.startAt);
+        buffer.putInt(position + 16, entry.cost);
+        buffer.putInt(position + 20, entry.status);
+        buffer.putInt(position + 24, entry.methodHash);
+        buffer.putInt(position + 28, entry.routeHash);
+        buffer.putInt(position + 32, entry.requestIdHash);
+        buffer.putInt(position + 36, entry.flags);
+        buffer.putLong(position, offset);
+        minStartAt.accumulate(entry.startAt);
+        maxStartAt.accumulate(entry.startAt);
+    }
+
+    void addDictionary(long offset) {
+        final int slot = count.getAndIncrement();
+        final MappedByteBuffer buffer = chunkFor(slot);
+        if (buffer == null) {
+            return;
+        }
+        final int position = (slot % ENTRIES_PER_CHUNK) * ENTRY_BYTES;
+        buffer.putInt(position + 20, IndexEntry.STATUS_DICTIONARY);
+        buffer.putLong(position, offset);
+    }
+
+    /**
+     * 调用方保证之后不会再有写入和 force，封存之后解除映射
+     */
+    void seal() {
+        header.putInt(12, Math.min(count.get(), capacity));
+        header.putLong(16, minStartAt.get());
+        header.putLong(24, maxStartAt.get());
+        header.put(5, (byte)(FLAG_SEALED | (overflow ? FLAG_OVERFLOW : 0)));
+        force();
+        CaptureArena.Cleaner.free(header);
+        for (int i = 0; i < chunks.length(); i++) {
+            final MappedByteBuffer chunk = chunks.getAndSet(i, null);
+            if (chunk != null) {
+                CaptureArena.Cleaner.free(chunk);
+            }
+        }
+        try {
+            randomAccessFile.close();
+        } catch (IOException ignore) {
+            // ignore
+        }
+    }
+
+    void force() {
+        for (int i = 0; i < chunks.length(); i++) {
+            final MappedByteBuffer chunk = chunks.get(i);
+            if (chunk == null) {
+                break;
+            }
+            chunk.force();
+        }
+        header.force();
+    }
+
+    /**
+     * @return 槽位所在的块，槽位超出上限或者映射失败时标记索引不完整并返回 null
+     */
+    private MappedByteBuffer chunkFor(int slot) {
+        if (slot < 0 || slot >= capacity) {
+            overflow = true;
+            return null;
+        }
+        try {
+            return chunk(slot / ENTRIES_PER_CHUNK);
+        } catch (IOException e) {
+            overflow = true;
+            return null;
+        }
+    }
+
+    /**
+     * 块按顺序映射，映射超出文件末尾时文件随之扩展；只有第一次用到一个块时加锁
+     */
+    private MappedByteBuffer chunk(int chunkIndex) throws IOException {
+        MappedByteBuffer chunk = chunks.get(chunkIndex);
+        if (chunk != null) {
+            return chunk;
+        }
+        synchronized (chunks) {
+            for (int i = 0; i <= chunkIndex; i++) {
+                if (chunks.get(i) == null) {
+                    chunks.set(i, randomAccessFile.getChannel()
+                        .map(FileChannel.MapMode.READ_WRITE,
+                            HEADER_BYTES + (long)i * ENTRIES_PER_CHUNK * ENTRY_BYTES,
+                            (long)ENTRIES_PER_CHUNK * ENTRY_BYTES));
+                }
+            }
+            return chunks.get(chunkIndex);
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * 读取索引文件，文件不存在或者格式不对时返回 null
+     */
+    static Contents read(File indexFile) throws IOException {
+        if (!indexFile.isFile() || indexFile.length() < HEADER_BYTES) {
+            return null;
+        }
+        final MappedByteBuffer index;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            final byte[] magic = new byte[MAGIC.length];
+            index.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || index.get(4) != VERSION) {
+                return null;
+            }
+            final int flags = index.get(5);
+            final Contents contents = new Contents();
+            contents.complete = (flags & FLAG_SEALED) != 0 && (flags & FLAG_OVERFLOW) == 0;
+            final int slots = Math.min(index.getInt(8), (index.limit() - HEADER_BYTES) / ENTRY_BYTES);
+            final int entryCount = contents.complete ? Math.min(index.getInt(12), slots) : slots;
+            contents.minStartAt = index.getLong(16);
+            contents.maxStartAt = index.getLong(24);
+            contents.entries = new ArrayList<>(contents.complete ? entryCount : 64);
+            for (int slot = 0; slot < entryCount; slot++) {
+                final int position = HEADER_BYTES + slot * ENTRY_BYTES;
+                final long offset = index.getLong(position);
+                if (offset == 0) {
+                    continue;
+                }
+                final IndexEntry entry = new IndexEntry();
+                entry.offset = offset;
+                entry.startAt = index.getLong(position + 8);
+                entry.cost = index.getInt(position + 16);
+                entry.status = index.getInt(position + 20);
+                entry.methodHash = index.getInt(position + 24);
+                entry.routeHash = index.getInt(position + 28);
+                entry.requestIdHash = index.getInt(position + 32);
+                entry.flags = index.getInt(position + 36);
+                contents.entries.add(entry);
+            }
+            return contents;
+        } finally {
+            CaptureArena.Cleaner.free(index);
+        }
+    }
+
+    static final class Contents {
+
+        /**
+         * 已经封存并且每条记录都有索引项，为 false 时 entries 只能作为参考
+         */
+        boolean complete;
+
+        long minStartAt;
+
+        long maxStartAt;
+
+        List<IndexEntry> entries;
+    }
+}
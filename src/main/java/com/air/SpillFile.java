@@ -0,0 +1,126 @@
+package com.air;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 捕获数据的溢出文件，按固定大小分块映射到内存顺序写入
+ *
+ * 不使用 deleteOnExit，它会把路径一直保存到 JVM 退出；文件在缓冲释放时由 {@link #delete()} 删除，
+ * 同时立即解除每个分块的映射，不等 GC，高负载下地址空间不会堆积
+ *
+ * @date 2026/10/15
+ */
+final class SpillFile {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpillFile.class);
+
+    private final File file;
+
+    private final RandomAccessFile randomAccessFile;
+
+    private final FileChannel channel;
+
+    private final int chunkSize;
+
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+
+    private long size;
+
+    private SpillFile(File file, int chunkSize) throws IOException {
+        this.file = file;
+        this.chunkSize = chunkSize;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = randomAccessFile.getChannel();
+    }
+
+    static SpillFile create(File directory, int chunkSize) throws IOException {
+        final File file = File.createTempFile("whisper-", ".spill", directory);
+        return new SpillFile(file, chunkSize);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long size() {
+        return size;
+    }
+
+    void write(int b) throws IOException {
+        writableChunk().put((byte)b);
+        size++;
+    }
+
+    void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            final MappedByteBuffer chunk = writableChunk();
+            final int n = Math.min(len, chunk.remaining());
+            chunk.put(b, off, n);
+            off += n;
+            len -= n;
+            size += n;
+        }
+    }
+
+    /**
+     * 从 position 开始读取最多 len 个字节
+     *
+     * @return 实际读取的字节数，没有更多数据时返回 -1
+     */
+    int read(long position, byte[] dst, int off, int len) {
+        if (position >= size) {
+            return -1;
+        }
+        final int chunkIndex = (int)(position / chunkSize);
+        final int chunkOffset = (int)(position % chunkSize);
+        final ByteBuffer chunk = chunks.get(chunkIndex)
+            .duplicate();
+        chunk.position(chunkOffset);
+        final int n = (int)Math.min(Math.min(len, chunkSize - chunkOffset), size - position);
+        chunk.get(dst, off, n);
+        return n;
+    }
+
+    /**
+     * 解除映射，关闭并删除文件，之后不能再读写
+     */
+    void delete() {
+        for (MappedByteBuffer chunk : chunks) {
+            CaptureArena.Cleaner.free(chunk);
+        }
+        chunks.clear();
+        size = 0;
+        try {
+            channel.close();
+            randomAccessFile.close();
+        } catch (IOException ignore) {
+            // ignore
+        }
+        if (!file.delete()) {
+            LOGGER.warn("can not delete spill file {}", file);
+        }
+    }
+
+    private MappedByteBuffer writableChunk() throws IOException {
+        if (!chunks.isEmpty()) {
+            final MappedByteBuffer last = chunks.get(chunks.size() - 1);
+            if (last.hasRemaining()) {
+                return last;
+            }
+        }
+        final MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, (long)chunks.size() * chunkSize,
+            chunkSize);
+        chunks.add(chunk);
+        return chunk;
+    }
+}
@@ -0,0 +1,58 @@
+package com.air;
+
+import java.io.File;
+
+/**
+ * 捕获数据溢出到磁盘的条件：单个缓冲占用的内存或所有缓冲占用的内存超出预算后，后续数据写入 {@link SpillFile}
+ *
+ * @date 2026/10/15
+ */
+final class SpillPolicy {
+
+    private final long perBufferMemoryBytes;
+
+    private final long globalMemoryBytes;
+
+    private final File directory;
+
+    private final int chunkBytes;
+
+    /**
+     * @param perBufferMemoryBytes 单个缓冲最多占用的内存
+     * @param globalMemoryBytes 所有缓冲最多占用的内存
+     * @param directory 溢出文件目录
+     * @param chunkBytes 溢出文件每次映射的大小
+     */
+    SpillPolicy(long perBufferMemoryBytes, long globalMemoryBytes, File directory, int chunkBytes) {
+        this.perBufferMemoryBytes = perBufferMemoryBytes;
+        this.globalMemoryBytes = globalMemoryBytes;
+        this.directory = directory;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * @param bufferMemoryBytes 申请新段之后当前缓冲占用的内存
+     * @param globalInUseBytes 申请新段之后所有缓冲占用的内存
+     */
+    boolean shouldSpill(long bufferMemoryBytes, long globalInUseBytes) {
+        return bufferMemoryBytes > perBufferMemoryBytes || globalInUseBytes > globalMemoryBytes;
+    }
+
+    long getPerBufferMemoryBytes() {
+        return perBufferMemoryBytes;
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    int getChunkBytes() {
+        return chunkBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "SpillPolicy{perBufferMemoryBytes=" + perBufferMemoryBytes + ", globalMemoryBytes="
+            + globalMemoryBytes + ", directory=" + directory + ", chunkBytes=" + chunkBytes + "}";
+    }
+}
@@ -0,0 +1,87 @@
+package com.air;
+
+import java.io.IOException;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+/**
+ * 应用读取请求体时顺带复制到捕获缓冲，body 不需要提前整体读进内存
+ *
+ * @date 2026/10/15
+ */
+final class TeeServletInputStream extends ServletInputStream {
+
+    private static final int DRAIN_CHUNK_SIZE = 8 * 1024;
+
+    private final ServletInputStream delegate;
+
+    private final CaptureBuffer buffer;
+
+    private boolean nonBlocking;
+
+    /**
+     * @param delegate 原始请求的输入流
+     * @param buffer 捕获缓冲
+     */
+    TeeServletInputStream(ServletInputStream delegate, CaptureBuffer buffer) {
+        this.delegate = delegate;
+        this.buffer = buffer;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return delegate.isFinished();
+    }
+
+    @Override
+    public boolean isReady() {
+        return delegate.isReady();
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener) {
+        delegate.setReadListener(readListener);
+        nonBlocking = true;
+    }
+
+    /**
+     * @return 应用是否设置了 ReadListener，非阻塞模式下不能阻塞读
+     */
+    boolean isNonBlocking() {
+        return nonBlocking;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = delegate.read();
+        if (b >= 0) {
+            buffer.write(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int n = delegate.read(b, off, len);
+        if (n > 0) {
+            buffer.write(b, off, n);
+        }
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return delegate.available();
+    }
+
+    /**
+     * 把应用没有读完的部分读掉，捕获缓冲装满后剩余的字节只计数
+     */
+    void drain() throws IOException {
+        final byte[] chunk = new byte[DRAIN_CHUNK_SIZE];
+        while (read(chunk, 0, chunk.length) >= 0) {
+            // 继续读直到结束
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.air;
+
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * 把写入同时转发给原始输出流并复制到捕获缓冲，数组写入整体转发，不再逐字节调用
+ *
+ * @date 2026/10/15
+ */
+final class TeeServletOutputStream extends ServletOutputStream {
+
+    private final ServletOutputStream delegate;
+
+    private final CaptureBuffer buffer;
+
+    /**
+     * @param delegate 原始响应的输出流
+     * @param buffer 捕获缓冲
+     */
+    TeeServletOutputStream(ServletOutputStream delegate, CaptureBuffer buffer) {
+        this.delegate = delegate;
+        this.buffer = buffer;
+    }
+
+    /**
+     * 捕获缓冲的写入不会阻塞，是否可写完全取决于原始输出流
+     */
+    @Override
+    public boolean isReady() {
+        return delegate.isReady();
+    }
+
+    /**
+     * 非阻塞写由容器驱动，监听器直接注册到原始输出流上，回调里的写入仍然经过这里被捕获
+     */
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+        delegate.setWriteListener(writeListener);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        delegate.write(b);
+        buffer.write(b);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        delegate.write(b, off, len);
+        buffer.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
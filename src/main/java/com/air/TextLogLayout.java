@@ -0,0 +1,124 @@
+package com.air;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * 文本日志的格式，filter 输出日志和 {@link BinaryLogDecoder} 还原文本时共用
+ *
+ * @date 2026/10/15
+ */
+final class TextLogLayout {
+
+    private static final String SEP = System.lineSeparator();
+
+    private TextLogLayout() {
+    }
+
+    /**
+     * 请求信息：ip、请求行、header，之后是 json 请求体或多表单标记，最后是异步请求的结果
+     *
+     * @param requestBody 已经解码的请求体，没有时为 null
+     */
+    static String requestInfo(RequestSnapshot requestSnapshot, String requestBody) {
+        final StringBuilder requestInfoBuilder = new StringBuilder(256);
+        requestSnapshot.render(requestInfoBuilder);
+        if (requestBody != null) {
+            requestInfoBuilder.append(requestBody)
+                .append(SEP);
+        } else if (requestSnapshot.multipart) {
+            requestInfoBuilder.append("[multipart/form-data]");
+        }
+        if (requestSnapshot.outcome != null) {
+            requestInfoBuilder.append(requestSnapshot.outcome)
+                .append(SEP);
+        }
+        return requestInfoBuilder.toString();
+    }
+
+    /**
+     * @param responseContent 已经解码的响应，不打印响应时为 null
+     */
+    static String format(String requestInfo, long requestStartAt, long requestEndTime, String responseContent) {
+        final StringBuilder builder = new StringBuilder(requestInfo.length() + 128);
+        builder.append(requestInfo)
+            .append(SEP)
+            .append("start time ")
+            .append(requestStartAt)
+            .append(" --> end time ")
+            .append(requestEndTime)
+            .append(", \033[33m\033[01mcost: ")
+            .append(requestEndTime - requestStartAt)
+            .append("\033[0m")
+            .append(SEP);
+        if (responseContent != null) {
+            builder.append("response info: ")
+                .append(responseContent)
+                .append(SEP);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 捕获内容的文本：完整的原样输出，只有头部的追加截断标记，有尾部窗口的省略中间部分
+     *
+     * @param tail 尾部窗口，没有时为 null
+     * @param checksum 完整内容的 CRC32，没有时为 -1
+     */
+    static String bodyText(byte[] head, byte[] tail, long totalSize, long checksum, String charset)
+        throws UnsupportedEncodingException {
+        final int tailLength = tail == null ? 0 : tail.length;
+        final long elidedBytes = totalSize - head.length - tailLength;
+        if (elidedBytes <= 0) {
+            if (tailLength == 0) {
+                return new String(head, charset);
+            }
+            // 尾部和头部正好相接，一起解码，避免拆开多字节字符
+            final byte[] whole = Arrays.copyOf(head, head.length + tailLength);
+            System.arraycopy(tail, 0, whole, head.length, tailLength);
+            return new String(whole, charset);
+        }
+        if (tailLength == 0) {
+            return markTruncated(new String(head, charset), totalSize, checksum);
+        }
+        return new String(head, charset) + "...[" + elidedBytes + " bytes elided, " + totalSize + " bytes total"
+            + checksumText(checksum) + "]..." + new String(tail, charset);
+    }
+
+    /**
+     * 无法解压的内容只输出编码和长度，不输出乱码
+     */
+    static String markEncoded(String contentEncoding, long totalSize) {
+        return "[" + contentEncoding + " encoded, " + totalSize + " bytes total]";
+    }
+
+    /**
+     * 同步输出时不在请求线程上解压，提示开启 asyncLog
+     */
+    static String markEncodedNotDecoded(String contentEncoding, long totalSize) {
+        return "[" + contentEncoding + " encoded, " + totalSize + " bytes total, not decoded without asyncLog]";
+    }
+
+    /**
+     * 解压之后被截断的内容：解压后的总长度未知，只给出下限，压缩后的长度单独标注
+     */
+    static String markDecodedTruncated(String content, long decodedSize, String contentEncoding, long encodedSize) {
+        return content + "...[truncated, at least " + decodedSize + " bytes decoded from " + encodedSize + " "
+            + contentEncoding + " encoded bytes]";
+    }
+
+    /**
+     * 被截断的内容后面追加总长度
+     */
+    static String markTruncated(String content, long totalSize) {
+        return markTruncated(content, totalSize, -1);
+    }
+
+    static String markTruncated(String content, long totalSize, long checksum) {
+        return content + "...[truncated, " + totalSize + " bytes total" + checksumText(checksum) + "]";
+    }
+
+    private static String checksumText(long checksum) {
+        return checksum < 0 ? "" : ", crc32=" + String.format("%08x", checksum);
+    }
+}
@@ -0,0 +1,50 @@
+package com.air;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶，按 GCRA 实现：只保存下一个令牌的理论到达时间，CAS 推进，不需要定时补充令牌
+ *
+ * @date 2026/10/15
+ */
+final class TokenBucket {
+
+    private final long intervalNanos;
+
+    private final long burstNanos;
+
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * @param permitsPerSecond 每秒发放的令牌数
+     * @param burst 允许突发的令牌数，至少为1
+     */
+    TokenBucket(double permitsPerSecond, int burst) {
+        this.intervalNanos = Math.max(1L, (long)(TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burstNanos = intervalNanos * Math.max(1, burst);
+        this.theoreticalArrival = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    boolean tryAcquire(long nowNanos) {
+        while (true) {
+            final long tat = theoreticalArrival.get();
+            final long next = Math.max(tat, nowNanos - burstNanos) + intervalNanos;
+            if (next - nowNanos > 0) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(tat, next)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TokenBucket{intervalNanos=" + intervalNanos + ", burstNanos=" + burstNanos + "}";
+    }
+}
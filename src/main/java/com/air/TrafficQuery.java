@@ -0,0 +1,388 @@
+package com.air;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * 按时间、方法、路由、状态码和 request id 查询二进制日志，也是命令行工具：
+ *
+ * <pre>
+ * java -cp whisper.jar com.air.TrafficQuery [--from time] [--to time] [--method POST] [--route /order/*]
+ *     [--status 500|5xx|400-499] [--request-id id] [--limit n] [--text] file-or-directory...
+ * </pre>
+ *
+ * time 是毫秒时间戳或者本地时间 2026-10-15T10:00:00；route 是路由模板（数字段写成 {id} 或者原值都可以），
+ * 带 * 时按通配符匹配，* 不跨越 /，** 可以跨越
+ *
+ * 有完整 {@link SegmentIndex} 的文件先按索引过滤，只解码候选记录；没有索引、索引没有封存或者不完整的文件顺序扫描
+ *
+ * @date 2026/10/15
+ */
+public final class TrafficQuery {
+
+    private long from = Long.MIN_VALUE;
+
+    private long to = Long.MAX_VALUE;
+
+    private String method;
+
+    /**
+     * 精确匹配的路由模板，和 routePattern 最多有一个
+     */
+    private String routeTemplate;
+
+    private Pattern routePattern;
+
+    private int minStatus = Integer.MIN_VALUE;
+
+    private int maxStatus = Integer.MAX_VALUE;
+
+    private String requestId;
+
+    private String[] requestIdHeaders = IndexEntry.DEFAULT_REQUEST_ID_HEADERS;
+
+    private int limit = Integer.MAX_VALUE;
+
+    private int matched;
+
+    private int indexedFiles;
+
+    private int scannedFiles;
+
+    private int decodedRecords;
+
+    public static void main(String[] args) throws IOException {
+        final TrafficQuery query = new TrafficQuery();
+        final List<File> paths = new ArrayList<>();
+        boolean text = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                final String arg = args[i];
+                if ("--text".equals(arg)) {
+                    text = true;
+                } else if (arg.startsWith("--")) {
+                    if (i + 1 >= args.length) {
+                        throw new IllegalArgumentException("missing value of " + arg);
+                    }
+                    query.option(arg, args[++i]);
+                } else {
+                    paths.add(new File(arg));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            paths.clear();
+        }
+        if (paths.isEmpty()) {
+            System.err.println("usage: java -cp whisper.jar com.air.TrafficQuery [--from time] [--to time] "
+                + "[--method method] [--route route] [--status status] [--request-id id] [--limit n] [--text] "
+                + "file-or-directory...");
+            System.exit(1);
+        }
+        final Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        final boolean textFormat = text;
+        try {
+            query.execute(paths, logRecord -> {
+                try {
+                    out.write(textFormat ? logRecord.toText() : BinaryLogDecoder.toJson(logRecord));
+                    out.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
+        System.err.println(query.matched + " matched, " + query.decodedRecords + " records decoded, "
+            + query.indexedFiles + " files by index, " + query.scannedFiles + " files scanned");
+    }
+
+    /**
+     * @param from 请求开始时间的下限（包含）
+     */
+    TrafficQuery from(long from) {
+        this.from = from;
+        return this;
+    }
+
+    /**
+     * @param to 请求开始时间的上限（不包含）
+     */
+    TrafficQuery to(long to) {
+        this.to = to;
+        return this;
+    }
+
+    TrafficQuery method(String method) {
+        this.method = method;
+        return this;
+    }
+
+    TrafficQuery route(String route) {
+        if (route.indexOf('*') >= 0) {
+            routeTemplate = null;
+            routePattern = globPattern(route);
+        } else {
+            routeTemplate = RouteNormalizer.template(RouteNormalizer.normalize(route));
+            routePattern = null;
+        }
+        return this;
+    }
+
+    TrafficQuery status(int minStatus, int maxStatus) {
+        this.minStatus = minStatus;
+        this.maxStatus = maxStatus;
+        return this;
+    }
+
+    TrafficQuery requestId(String requestId) {
+        this.requestId = requestId;
+        return this;
+    }
+
+    TrafficQuery requestIdHeaders(String[] requestIdHeaders) {
+        this.requestIdHeaders = requestIdHeaders;
+        return this;
+    }
+
+    TrafficQuery limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * @param paths 日志文件或者日志目录，目录下的文件按文件名排序
+     * @param consumer 按文件顺序、文件内按写入位置顺序接收匹配的记录
+     */
+    void execute(List<File> paths, Consumer<BinaryLogRecord> consumer) throws IOException {
+        for (File file : segmentFiles(paths)) {
+            if (matched >= limit) {
+                return;
+            }
+            final SegmentIndex.Contents contents = SegmentIndex.read(SegmentIndex.fileFor(file));
+            if (contents != null && contents.complete) {
+                indexedFiles++;
+                queryByIndex(file, contents, consumer);
+            } else {
+                scannedFiles++;
+                scan(file, consumer);
+            }
+        }
+    }
+
+    List<BinaryLogRecord> list(List<File> paths) throws IOException {
+        final List<BinaryLogRecord> records = new ArrayList<>();
+        execute(paths, records::add);
+        return records;
+    }
+
+    int getIndexedFiles() {
+        return indexedFiles;
+    }
+
+    int getScannedFiles() {
+        return scannedFiles;
+    }
+
+    int getDecodedRecords() {
+        return decodedRecords;
+    }
+
+    private void queryByIndex(File file, SegmentIndex.Contents contents, Consumer<BinaryLogRecord> consumer)
+        throws IOException {
+        if (contents.maxStartAt < from || contents.minStartAt >= to) {
+            return;
+        }
+        final List<IndexEntry> candidates = new ArrayList<>();
+        final List<IndexEntry> dictionaryEntries = new ArrayList<>();
+        for (IndexEntry entry : contents.entries) {
+            if (entry.isDictionary()) {
+                dictionaryEntries.add(entry);
+            } else if (matches(entry)) {
+                candidates.add(entry);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+        // mmap 模式下索引项的顺序和记录的顺序不一定相同
+        final Comparator<IndexEntry> byOffset = Comparator.comparingLong(entry -> entry.offset);
+        candidates.sort(byOffset);
+        dictionaryEntries.sort(byOffset);
+        try (BinaryLogDecoder decoder = new BinaryLogDecoder(file)) {
+            for (IndexEntry entry : dictionaryEntries) {
+                decoder.readAt(entry.offset);
+            }
+            for (IndexEntry entry : candidates) {
+                final BinaryLogRecord logRecord = decoder.readAt(entry.offset);
+                decodedRecords++;
+                if (logRecord != null && matches(logRecord)) {
+                    consumer.accept(logRecord);
+                    if (++matched >= limit) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private void scan(File file, Consumer<BinaryLogRecord> consumer) throws IOException {
+        try (BinaryLogDecoder decoder = new BinaryLogDecoder(file)) {
+            BinaryLogRecord logRecord;
+            while ((logRecord = decoder.next()) != null) {
+                decodedRecords++;
+                if (matches(logRecord)) {
+                    consumer.accept(logRecord);
+                    if (++matched >= limit) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 只按 hash 过滤，可能有 hash 冲突，解码之后还要用 {@link #matches(BinaryLogRecord)} 核对
+     */
+    private boolean matches(IndexEntry entry) {
+        return entry.startAt >= from && entry.startAt < to
+            && entry.status >= minStatus && entry.status <= maxStatus
+            && (method == null || entry.methodHash == method.hashCode())
+            && (routeTemplate == null || entry.routeHash == routeTemplate.hashCode())
+            && (requestId == null || entry.requestIdHash == requestId.hashCode());
+    }
+
+    private boolean matches(BinaryLogRecord logRecord) {
+        final RequestSnapshot snapshot = logRecord.requestSnapshot;
+        if (logRecord.requestStartAt < from || logRecord.requestStartAt >= to
+            || logRecord.status < minStatus || logRecord.status > maxStatus) {
+            return false;
+        }
+        if (method != null && !method.equals(snapshot.method)) {
+            return false;
+        }
+        if (routeTemplate != null || routePattern != null) {
+            final String route = RouteNormalizer.normalize(snapshot.requestURI);
+            if (routeTemplate != null && !routeTemplate.equals(RouteNormalizer.template(route))) {
+                return false;
+            }
+            if (routePattern != null && !routePattern.matcher(route).matches()) {
+                return false;
+            }
+        }
+        return requestId == null || requestId.equals(IndexEntry.requestId(snapshot, requestIdHeaders));
+    }
+
+    /**
+     * 解析一个命令行查询条件，{@link TrafficReplayer} 也用它选择要回放的记录
+     */
+    void option(String name, String value) {
+        switch (name) {
+            case "--from":
+                from(parseTime(value));
+                break;
+            case "--to":
+                to(parseTime(value));
+                break;
+            case "--method":
+                method(value.toUpperCase());
+                break;
+            case "--route":
+                route(value);
+                break;
+            case "--status":
+                parseStatus(value);
+                break;
+            case "--request-id":
+                requestId(value);
+                break;
+            case "--limit":
+                limit(Integer.parseInt(value));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown option " + name);
+        }
+    }
+
+    private void parseStatus(String value) {
+        final String status = value.toLowerCase();
+        if (status.length() == 3 && status.endsWith("xx")) {
+            final int statusClass = Character.digit(status.charAt(0), 10) * 100;
+            status(statusClass, statusClass + 99);
+            return;
+        }
+        final int dash = status.indexOf('-');
+        if (dash > 0) {
+            status(Integer.parseInt(status.substring(0, dash)), Integer.parseInt(status.substring(dash + 1)));
+        } else {
+            final int code = Integer.parseInt(status);
+            status(code, code);
+        }
+    }
+
+    private static long parseTime(String value) {
+        if (value.chars()
+            .allMatch(Character::isDigit)) {
+            return Long.parseLong(value);
+        }
+        return LocalDateTime.parse(value)
+            .atZone(ZoneId.systemDefault())
+            .toInstant()
+            .toEpochMilli();
+    }
+
+    private static Pattern globPattern(String glob) {
+        final StringBuilder regex = new StringBuilder(glob.length() + 16);
+        int literalStart = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            if (glob.charAt(i) != '*') {
+                continue;
+            }
+            if (i > literalStart) {
+                regex.append(Pattern.quote(glob.substring(literalStart, i)));
+            }
+            if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else {
+                regex.append("[^/]*");
+            }
+            literalStart = i + 1;
+        }
+        if (literalStart < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(literalStart)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static List<File> segmentFiles(List<File> paths) {
+        final List<File> files = new ArrayList<>();
+        for (File path : paths) {
+            if (path.isDirectory()) {
+                final File[] children = path.listFiles(
+                    (dir, name) -> name.endsWith(BinaryRecordFormat.FILE_SUFFIX));
+                if (children != null) {
+                    Arrays.sort(children);
+                    files.addAll(Arrays.asList(children));
+                }
+            } else {
+                files.add(path);
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,411 @@
+package com.air;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * 把二进制日志里的请求回放到本地目标服务，也是命令行工具：
+ *
+ * <pre>
+ * java -cp whisper.jar com.air.TrafficReplayer --target http://127.0.0.1:8080 [--workers 8] [--pace 1]
+ *     [--no-diff] [TrafficQuery 的查询条件] file-or-directory...
+ * </pre>
+ *
+ * pace 是相对原始节奏的倍速，2 表示两倍速，0 表示不等待；请求由 workers 个线程并发发送，最后输出吞吐量和耗时分位数
+ *
+ * 记录里有响应的（filter 开启了 logResp 或者白名单路由）逐条比较状态码和响应 body，被截断的响应只比较截断前的部分，
+ * 压缩过的响应解压之后再比较。
+ * body 被截断、multipart 或者方法不被 HttpURLConnection 支持的请求无法原样回放，计为跳过
+ *
+ * @date 2026/10/15
+ */
+public final class TrafficReplayer {
+
+    /**
+     * 由 HttpURLConnection 自己生成或者回放时没有意义的请求头
+     */
+    private static final Set<String> SKIPPED_HEADERS = new HashSet<>(Arrays.asList("host", "content-length",
+        "connection", "keep-alive", "transfer-encoding", "te", "upgrade", "expect", "accept-encoding"));
+
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    private static final int DIFF_CONTEXT_CHARS = 40;
+
+    private static final BinaryLogRecord END = new BinaryLogRecord();
+
+    private final String target;
+
+    private final int workers;
+
+    private final double pace;
+
+    private final boolean diff;
+
+    private int connectTimeoutMillis = 5000;
+
+    private int readTimeoutMillis = 30000;
+
+    private int maxReportedDiffs = 20;
+
+    /**
+     * @param target 目标服务的 scheme://host:port，记录里的 uri 拼在后面
+     * @param workers 并发发送请求的线程数
+     * @param pace 相对原始节奏的倍速，小于等于0时不等待
+     * @param diff 是否和记录的响应比较
+     */
+    TrafficReplayer(String target, int workers, double pace, boolean diff) {
+        this.target = target.endsWith("/") ? target.substring(0, target.length() - 1) : target;
+        this.workers = Math.max(1, workers);
+        this.pace = pace;
+        this.diff = diff;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final TrafficQuery query = new TrafficQuery();
+        final List<File> paths = new ArrayList<>();
+        String target = null;
+        int workers = 8;
+        double pace = 1;
+        boolean diff = true;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                final String arg = args[i];
+                if ("--no-diff".equals(arg)) {
+                    diff = false;
+                } else if (arg.startsWith("--")) {
+                    if (i + 1 >= args.length) {
+                        throw new IllegalArgumentException("missing value of " + arg);
+                    }
+                    final String value = args[++i];
+                    if ("--target".equals(arg)) {
+                        target = value;
+                    } else if ("--workers".equals(arg)) {
+                        workers = Integer.parseInt(value);
+                    } else if ("--pace".equals(arg)) {
+                        pace = Double.parseDouble(value);
+                    } else {
+                        query.option(arg, value);
+                    }
+                } else {
+                    paths.add(new File(arg));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            paths.clear();
+        }
+        if (target == null || paths.isEmpty()) {
+            System.err.println("usage: java -cp whisper.jar com.air.TrafficReplayer --target http://host:port "
+                + "[--workers n] [--pace speed] [--no-diff] [--from time] [--to time] [--method method] "
+                + "[--route route] [--status status] [--request-id id] [--limit n] file-or-directory...");
+            System.exit(1);
+        }
+        final Report report = new TrafficReplayer(target, workers, pace, diff).replay(query, paths);
+        for (String difference : report.getDifferences()) {
+            System.out.println(difference);
+        }
+        System.err.println(report.summary());
+    }
+
+    void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    void setMaxReportedDiffs(int maxReportedDiffs) {
+        this.maxReportedDiffs = maxReportedDiffs;
+    }
+
+    /**
+     * 读取线程按原始时间间隔把记录交给发送线程，队列满时读取线程等待，不会堆积整个日志
+     */
+    Report replay(TrafficQuery query, List<File> paths) throws IOException, InterruptedException {
+        final Report report = new Report(maxReportedDiffs);
+        final BlockingQueue<BinaryLogRecord> queue = new ArrayBlockingQueue<>(workers * 64);
+        final List<Thread> threads = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            final Thread thread = new Thread(() -> drain(queue, report), "whisper-replay-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        final long replayStart = System.nanoTime();
+        final long[] firstStartAt = {Long.MIN_VALUE};
+        try {
+            query.execute(paths, logRecord -> {
+                if (firstStartAt[0] == Long.MIN_VALUE) {
+                    firstStartAt[0] = logRecord.requestStartAt;
+                }
+                try {
+                    if (pace > 0) {
+                        final long due = replayStart + (long)(TimeUnit.MILLISECONDS.toNanos(
+                            logRecord.requestStartAt - firstStartAt[0]) / pace);
+                        TimeUnit.NANOSECONDS.sleep(due - System.nanoTime());
+                    }
+                    queue.put(logRecord);
+                } catch (InterruptedException e) {
+                    Thread.currentThread()
+                        .interrupt();
+                    throw new CancellationException("replay interrupted");
+                }
+            });
+        } finally {
+            for (int i = 0; i < workers; i++) {
+                queue.put(END);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        report.elapsedNanos = System.nanoTime() - replayStart;
+        return report;
+    }
+
+    private void drain(BlockingQueue<BinaryLogRecord> queue, Report report) {
+        try {
+            BinaryLogRecord logRecord;
+            while ((logRecord = queue.take()) != END) {
+                send(logRecord, report);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                .interrupt();
+        }
+    }
+
+    private void send(BinaryLogRecord logRecord, Report report) {
+        final RequestSnapshot snapshot = logRecord.requestSnapshot;
+        if (snapshot.multipart || logRecord.hasRequestBody()
+            && logRecord.requestBodyTotalSize > logRecord.requestBody.length) {
+            report.skipped.increment();
+            return;
+        }
+        byte[] body = logRecord.hasRequestBody() ? logRecord.requestBody : null;
+        String queryString = queryString(snapshot);
+        if (body == null && !queryString.isEmpty() && isForm(snapshot)) {
+            // 表单参数在 filter 里只记录为参数，重新编码成 body
+            body = queryString.getBytes(StandardCharsets.UTF_8);
+            queryString = "";
+        }
+        final long start = System.nanoTime();
+        try {
+            final HttpURLConnection connection = (HttpURLConnection)new URL(
+                target + snapshot.requestURI + (queryString.isEmpty() ? "" : "?" + queryString)).openConnection();
+            connection.setRequestMethod(snapshot.method);
+            connection.setInstanceFollowRedirects(false);
+            connection.setUseCaches(false);
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            for (int i = 0; i < snapshot.headerCount; i++) {
+                if (!SKIPPED_HEADERS.contains(snapshot.headerNames[i].toLowerCase(Locale.ROOT))) {
+                    connection.addRequestProperty(snapshot.headerNames[i], snapshot.headerValues[i]);
+                }
+            }
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(body.length);
+                try (OutputStream outputStream = connection.getOutputStream()) {
+                    outputStream.write(body);
+                }
+            }
+            final int status = connection.getResponseCode();
+            final byte[] responseBody = readFully(
+                status >= 400 ? connection.getErrorStream() : connection.getInputStream());
+            report.latencyMicros.recordValue(
+                Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start)));
+            report.sent.increment();
+            if (diff) {
+                compare(logRecord, status, responseBody, report);
+            }
+        } catch (ProtocolException e) {
+            report.skipped.increment();
+        } catch (IOException e) {
+            report.failed.increment();
+            report.addDifference(snapshot.method + " " + snapshot.requestURI + " failed: " + e);
+        }
+    }
+
+    private void compare(BinaryLogRecord logRecord, int status, byte[] responseBody, Report report) {
+        final RequestSnapshot snapshot = logRecord.requestSnapshot;
+        final String request = snapshot.method + " " + snapshot.requestURI;
+        if (status != logRecord.status) {
+            report.statusMismatches.increment();
+            report.addDifference(request + " status " + logRecord.status + " -> " + status);
+        }
+        if (!logRecord.hasResponseBody()) {
+            return;
+        }
+        byte[] recorded = logRecord.responseBody;
+        boolean truncated = logRecord.responseBodyTotalSize > recorded.length;
+        if (logRecord.responseContentEncoding != null) {
+            // 回放时去掉了 accept-encoding，目标返回的是未压缩的内容，先解压记录的响应
+            final ContentDecoder.Decoded decoded = ContentDecoder.decode(new ByteArrayInputStream(recorded),
+                recorded.length, logRecord.responseBodyTotalSize, logRecord.responseContentEncoding,
+                ContentDecoder.DEFAULT_LIMIT);
+            if (decoded == null) {
+                report.addDifference(request + " body not compared, can not decode "
+                    + logRecord.responseContentEncoding);
+                return;
+            }
+            recorded = decoded.bytes;
+            truncated = decoded.truncated;
+        }
+        report.compared.increment();
+        final int length = Math.min(recorded.length, responseBody.length);
+        int mismatch = -1;
+        for (int i = 0; i < length; i++) {
+            if (recorded[i] != responseBody[i]) {
+                mismatch = i;
+                break;
+            }
+        }
+        if (mismatch < 0 && (truncated ? responseBody.length < recorded.length
+            : responseBody.length != recorded.length)) {
+            mismatch = length;
+        }
+        if (mismatch >= 0) {
+            report.bodyMismatches.increment();
+            final Charset charset = charset(logRecord.responseCharset);
+            report.addDifference(request + " body differs at byte " + mismatch + ": recorded ["
+                + excerpt(recorded, mismatch, charset) + "] replayed [" + excerpt(responseBody, mismatch, charset)
+                + "]");
+        }
+    }
+
+    private static String excerpt(byte[] bytes, int from, Charset charset) {
+        final int start = Math.max(0, from - DIFF_CONTEXT_CHARS / 2);
+        final int end = Math.min(bytes.length, from + DIFF_CONTEXT_CHARS / 2);
+        return new String(bytes, start, end - start, charset);
+    }
+
+    private static Charset charset(String name) {
+        try {
+            return name == null || name.isEmpty() ? StandardCharsets.UTF_8 : Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    private static boolean isForm(RequestSnapshot snapshot) {
+        for (int i = 0; i < snapshot.headerCount; i++) {
+            if ("content-type".equalsIgnoreCase(snapshot.headerNames[i])) {
+                return snapshot.headerValues[i].toLowerCase(Locale.ROOT)
+                    .startsWith(FORM_CONTENT_TYPE);
+            }
+        }
+        return false;
+    }
+
+    private static String queryString(RequestSnapshot snapshot) {
+        final StringBuilder query = new StringBuilder();
+        try {
+            for (int i = 0; i < snapshot.paramNames.length; i++) {
+                final String name = URLEncoder.encode(snapshot.paramNames[i], "UTF-8");
+                final String[] values = snapshot.paramValues[i];
+                for (String value : values == null ? new String[] {""} : values) {
+                    if (query.length() > 0) {
+                        query.append('&');
+                    }
+                    query.append(name)
+                        .append('=')
+                        .append(URLEncoder.encode(value, "UTF-8"));
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return query.toString();
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        if (inputStream == null) {
+            return new byte[0];
+        }
+        try (InputStream input = inputStream) {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int n;
+            while ((n = input.read(buffer)) >= 0) {
+                output.write(buffer, 0, n);
+            }
+            return output.toByteArray();
+        }
+    }
+
+    static final class Report {
+
+        final LongAdder sent = new LongAdder();
+
+        final LongAdder failed = new LongAdder();
+
+        final LongAdder skipped = new LongAdder();
+
+        final LongAdder compared = new LongAdder();
+
+        final LongAdder statusMismatches = new LongAdder();
+
+        final LongAdder bodyMismatches = new LongAdder();
+
+        final Histogram latencyMicros = new ConcurrentHistogram(TimeUnit.HOURS.toMicros(1), 2);
+
+        volatile long elapsedNanos;
+
+        private final int maxDifferences;
+
+        private final List<String> differences = new ArrayList<>();
+
+        Report(int maxDifferences) {
+            this.maxDifferences = maxDifferences;
+        }
+
+        synchronized void addDifference(String difference) {
+            if (differences.size() < maxDifferences) {
+                differences.add(difference);
+            }
+        }
+
+        synchronized List<String> getDifferences() {
+            return Collections.unmodifiableList(new ArrayList<>(differences));
+        }
+
+        double throughput() {
+            return elapsedNanos <= 0 ? 0 : sent.sum() * 1e9 / elapsedNanos;
+        }
+
+        String summary() {
+            return String.format(Locale.ROOT,
+                "sent %d in %.1fs (%.1f req/s), failed %d, skipped %d; latency ms p50=%.1f p90=%.1f p99=%.1f "
+                    + "max=%.1f; compared %d bodies, %d status mismatches, %d body mismatches", sent.sum(),
+                elapsedNanos / 1e9, throughput(), failed.sum(), skipped.sum(),
+                latencyMicros.getValueAtPercentile(50) / 1000.0, latencyMicros.getValueAtPercentile(90) / 1000.0,
+                latencyMicros.getValueAtPercentile(99) / 1000.0, latencyMicros.getMaxValue() / 1000.0,
+                compared.sum(), statusMismatches.sum(), bodyMismatches.sum());
+        }
+    }
+}
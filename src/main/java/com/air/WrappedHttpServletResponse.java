@@ -1,12 +1,16 @@
 package com.air;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 
 import javax.servlet.ServletOutputStream;
-import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 
@@ -22,40 +26,25 @@ public class WrappedHttpServletResponse extends HttpServletResponseWrapper {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(WrappedHttpServletResponse.class);
 
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
     private PrintWriter proxyPrintWriter;
 
     private ServletOutputStream proxyOutputStream;
 
-    private ByteArrayOutputStream buffer;
+    private CaptureBuffer buffer;
 
     /**
      * Constructs a response adaptor wrapping the given response.
      *
      * @param response
+     * @param buffer 响应内容的捕获缓冲
      * @throws IllegalArgumentException if the response is null
      */
-    WrappedHttpServletResponse(HttpServletResponse response) throws IOException {
+    WrappedHttpServletResponse(HttpServletResponse response, CaptureBuffer buffer) throws IOException {
         super(response);
 
-        buffer = new ByteArrayOutputStream(1024);
-        proxyOutputStream = new ServletOutputStream() {
-
-            @Override
-            public boolean isReady() {
-                return false;
-            }
-
-            @Override
-            public void setWriteListener(WriteListener writeListener) {
-
-            }
-
-            @Override
-            public void write(int b) throws IOException {
-                getResponse().getOutputStream().write(b);
-                buffer.write(b);
-            }
-        };
+        this.buffer = buffer;
     }
 
     @Override
@@ -68,66 +57,179 @@ public class WrappedHttpServletResponse extends HttpServletResponseWrapper {
 
     @Override
     public ServletOutputStream getOutputStream() throws IOException {
+        if (proxyOutputStream == null) {
+            proxyOutputStream = new TeeServletOutputStream(getResponse().getOutputStream(), buffer);
+        }
         return proxyOutputStream;
     }
 
-    String getReponseContent() throws UnsupportedEncodingException {
+    String getReponseContent() throws IOException {
+        final String contentEncoding = getContentEncoding();
+        if (ContentDecoder.isEncoded(contentEncoding)) {
+            return ContentDecoder.toString(buffer, contentEncoding, getResponse().getCharacterEncoding(),
+                ContentDecoder.DEFAULT_LIMIT, null);
+        }
         return buffer.toString(getResponse().getCharacterEncoding());
     }
 
+    /**
+     * 应用或后面的 filter 压缩了输出时，捕获到的是压缩后的字节
+     */
+    String getContentEncoding() {
+        return getHeader("Content-Encoding");
+    }
+
+    CaptureBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * 归还捕获缓冲，日志输出之后调用
+     */
+    void release() {
+        buffer.release();
+    }
+
+    /**
+     * 转发给原始 writer 的同时，用有状态的 CharsetEncoder 只编码本次写入的片段，直接写入捕获缓冲
+     *
+     * 跨两次写入的代理对（高位代理在前一次写入的末尾）会留在 charBuffer 里，等下一次写入再一起编码；
+     * flush 或 close 时仍然落单的高位代理按编码器的 malformed 规则写成替换字符
+     */
     private class ProxyPrintWriter extends PrintWriter {
 
-        private ByteArrayOutputStream buffer;
+        private static final int CHUNK_SIZE = 512;
+
+        private final CaptureBuffer buffer;
+
+        private final CharsetEncoder encoder;
+
+        private final CharBuffer charBuffer = CharBuffer.allocate(CHUNK_SIZE);
+
+        private final ByteBuffer byteBuffer;
 
         /**
          * @param buffer
          * @param printWriter
          */
-        ProxyPrintWriter(ByteArrayOutputStream buffer, PrintWriter printWriter) {
+        ProxyPrintWriter(CaptureBuffer buffer, PrintWriter printWriter) {
             super(printWriter);
             this.buffer = buffer;
+            this.encoder = charsetOf(getCharacterEncoding()).newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.byteBuffer = ByteBuffer.allocate((int)Math.ceil(CHUNK_SIZE * encoder.maxBytesPerChar()));
         }
 
         @Override
         public void write(int c) {
             super.write(c);
-            buffer.write(c);
+            synchronized (lock) {
+                charBuffer.put((char)c);
+                encodeChunk();
+            }
         }
 
         @Override
         public void write(char[] buf, int off, int len) {
             super.write(buf, off, len);
-            buffer.write(toByteArrayQuietly(String.valueOf(buf), getCharacterEncoding()), off, len);
+            synchronized (lock) {
+                while (len > 0) {
+                    final int n = Math.min(len, charBuffer.remaining());
+                    charBuffer.put(buf, off, n);
+                    encodeChunk();
+                    off += n;
+                    len -= n;
+                }
+            }
         }
 
         @Override
-        public void write(char[] buf) {
-            super.write(buf);
-            buffer.write(toByteArrayQuietly(String.valueOf(buf), getCharacterEncoding()), 0, buf.length);
+        public void write(String s, int off, int len) {
+            super.write(s, off, len);
+            capture(s, off, len);
         }
 
         @Override
-        public void write(String s, int off, int len) {
-            super.write(s, off, len);
-            buffer.write(toByteArrayQuietly(s, getCharacterEncoding()), off, len);
+        public void flush() {
+            super.flush();
+            encodePending();
         }
 
         @Override
-        public void write(String s) {
-            super.write(s);
-            buffer.write(toByteArrayQuietly(s, getCharacterEncoding()), 0, s.length());
+        public void close() {
+            super.close();
+            encodePending();
+        }
+
+        /**
+         * PrintWriter 的换行直接写到底层 writer，不经过 write 方法，这里单独捕获
+         */
+        @Override
+        public void println() {
+            super.println();
+            capture(LINE_SEPARATOR, 0, LINE_SEPARATOR.length());
+        }
+
+        private void capture(String s, int off, int len) {
+            synchronized (lock) {
+                while (len > 0) {
+                    final int n = Math.min(len, charBuffer.remaining());
+                    s.getChars(off, off + n, charBuffer.array(), charBuffer.arrayOffset() + charBuffer.position());
+                    charBuffer.position(charBuffer.position() + n);
+                    encodeChunk();
+                    off += n;
+                    len -= n;
+                }
+            }
+        }
+
+        /**
+         * 编码 charBuffer 中已写入的字符，末尾落单的高位代理保留到下一次
+         */
+        private void encodeChunk() {
+            charBuffer.flip();
+            CoderResult result;
+            do {
+                result = encoder.encode(charBuffer, byteBuffer, false);
+                byteBuffer.flip();
+                buffer.write(byteBuffer.array(), byteBuffer.arrayOffset(), byteBuffer.limit());
+                byteBuffer.clear();
+            } while (result.isOverflow());
+            charBuffer.compact();
+        }
+
+        /**
+         * 把 charBuffer 中剩下的字符当作输入的结尾编码，之后重置编码器继续接收写入
+         */
+        private void encodePending() {
+            synchronized (lock) {
+                if (charBuffer.position() == 0) {
+                    return;
+                }
+                charBuffer.flip();
+                CoderResult result;
+                do {
+                    result = encoder.encode(charBuffer, byteBuffer, true);
+                    if (!result.isOverflow()) {
+                        result = encoder.flush(byteBuffer);
+                    }
+                    byteBuffer.flip();
+                    buffer.write(byteBuffer.array(), byteBuffer.arrayOffset(), byteBuffer.limit());
+                    byteBuffer.clear();
+                } while (result.isOverflow());
+                charBuffer.clear();
+                encoder.reset();
+            }
         }
     }
 
-    private byte[] toByteArrayQuietly(String string, String charset) {
+    private static Charset charsetOf(String charset) {
         try {
-            if (string == null) {
-                return new byte[0];
-            }
-            return string.getBytes(charset);
-        } catch (UnsupportedEncodingException e) {
-            LOGGER.error("convert string to byte[] error, string = {}, charset = {}", string, charset);
-            return new byte[0];
+            return Charset.forName(charset);
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("unsupported response charset {}, capture as ISO-8859-1", charset);
+            return StandardCharsets.ISO_8859_1;
         }
     }
 }
@@ -0,0 +1,183 @@
+package com.air;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+public class AlwaysReadableRequestTest {
+
+    private static final byte[] BODY = "{\"id\":1,\"name\":\"whisper\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void shouldNotifyReadListenerOnContainerThreadOnlyWhenAsyncStarted() throws IOException {
+        List<Runnable> dispatched = new ArrayList<>();
+        AlwaysReadableRequest async = eager(request(new FakeInputStream(), true, dispatched));
+        List<String> events = new ArrayList<>();
+        ServletInputStream inputStream = async.getInputStream();
+        inputStream.setReadListener(new RecordingListener(inputStream, events));
+        assertTrue(events.isEmpty());
+        assertEquals(1, dispatched.size());
+        dispatched.get(0)
+            .run();
+        assertEquals("[onDataAvailable " + BODY.length + ", onAllDataRead]", events.toString());
+
+        // 没有开启异步时直接在当前线程回调
+        AlwaysReadableRequest sync = eager(request(new FakeInputStream(), false, dispatched));
+        events.clear();
+        inputStream = sync.getInputStream();
+        inputStream.setReadListener(new RecordingListener(inputStream, events));
+        assertEquals(1, dispatched.size());
+        assertEquals("[onDataAvailable " + BODY.length + ", onAllDataRead]", events.toString());
+    }
+
+    @Test
+    public void shouldDrainUnreadBodyOnlyInBlockingMode() throws IOException {
+        AlwaysReadableRequest blocking = tee(new FakeInputStream());
+        assertEquals(BODY[0], blocking.getInputStream()
+            .read());
+        blocking.drainUnreadBody();
+        assertEquals(new String(BODY, StandardCharsets.UTF_8), blocking.getBody()
+            .toString("UTF-8"));
+
+        FakeInputStream nonBlockingSource = new FakeInputStream();
+        AlwaysReadableRequest nonBlocking = tee(nonBlockingSource);
+        ServletInputStream inputStream = nonBlocking.getInputStream();
+        inputStream.setReadListener(new RecordingListener(inputStream, new ArrayList<>()));
+        byte[] chunk = new byte[7];
+        assertEquals(7, inputStream.read(chunk));
+        // 非阻塞模式下阻塞读会抛出 IllegalStateException，只保留应用已经读取的部分
+        nonBlockingSource.blocked = true;
+        nonBlocking.drainUnreadBody();
+        assertEquals("{\"id\":1", nonBlocking.getBody()
+            .toString("UTF-8"));
+    }
+
+    private static AlwaysReadableRequest eager(HttpServletRequest request) throws IOException {
+        return new AlwaysReadableRequest(request);
+    }
+
+    private static AlwaysReadableRequest tee(FakeInputStream inputStream) throws IOException {
+        return new AlwaysReadableRequest(request(inputStream, false, new ArrayList<>()),
+            new CaptureBuffer(new CaptureBufferPool(false, 4), 1024), true);
+    }
+
+    private static HttpServletRequest request(ServletInputStream inputStream, boolean asyncStarted,
+        List<Runnable> dispatched) {
+        AsyncContext asyncContext = (AsyncContext)Proxy.newProxyInstance(
+            AlwaysReadableRequestTest.class.getClassLoader(), new Class<?>[] {AsyncContext.class},
+            (proxy, method, args) -> {
+                if ("start".equals(method.getName())) {
+                    dispatched.add((Runnable)args[0]);
+                }
+                return null;
+            });
+        return (HttpServletRequest)Proxy.newProxyInstance(AlwaysReadableRequestTest.class.getClassLoader(),
+            new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getInputStream":
+                        return inputStream;
+                    case "isAsyncStarted":
+                        return asyncStarted;
+                    case "getAsyncContext":
+                        if (!asyncStarted) {
+                            throw new IllegalStateException("async not started");
+                        }
+                        return asyncContext;
+                    default:
+                        return null;
+                }
+            });
+    }
+
+    /**
+     * 读完整个 body 的监听器，按 ReadListener 的约定在 isReady 为 true 时一直读
+     */
+    private static final class RecordingListener implements ReadListener {
+
+        private final ServletInputStream inputStream;
+
+        private final List<String> events;
+
+        RecordingListener(ServletInputStream inputStream, List<String> events) {
+            this.inputStream = inputStream;
+            this.events = events;
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException {
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4];
+            int n;
+            while (inputStream.isReady() && (n = inputStream.read(chunk)) >= 0) {
+                read.write(chunk, 0, n);
+            }
+            events.add("onDataAvailable " + read.size());
+        }
+
+        @Override
+        public void onAllDataRead() {
+            events.add("onAllDataRead");
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            events.add("onError " + t);
+        }
+    }
+
+    /**
+     * 设置 ReadListener 之后在没有就绪时读取会像容器一样抛出 IllegalStateException
+     */
+    private static final class FakeInputStream extends ServletInputStream {
+
+        private final ByteArrayInputStream delegate = new ByteArrayInputStream(BODY);
+
+        private boolean blocked;
+
+        @Override
+        public boolean isFinished() {
+            return delegate.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return !blocked;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+        }
+
+        @Override
+        public int read() {
+            checkReady();
+            return delegate.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            checkReady();
+            return delegate.read(b, off, len);
+        }
+
+        private void checkReady() {
+            if (blocked) {
+                throw new IllegalStateException("not ready");
+            }
+        }
+    }
+}
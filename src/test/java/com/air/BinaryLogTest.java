@@ -0,0 +1,329 @@
+package com.air;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BinaryLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldRoundTripEventsAcrossRolledFiles() throws IOException {
+        BinaryLogWriter writer = new BinaryLogWriter(new RollingFileSink(folder.getRoot(), 1, 3600000L));
+        writer.append(event("/api/order", "{\"id\":1}", 200));
+        File first = writer.getCurrentFile();
+        writer.append(event("/api/order", "{\"id\":2}", 500));
+        File second = writer.getCurrentFile();
+        writer.close();
+        assertNotEquals(first, second);
+
+        LogEvent expected = event("/api/order", "{\"id\":2}", 500);
+        try (BinaryLogDecoder decoder = new BinaryLogDecoder(second)) {
+            BinaryLogRecord logRecord = decoder.next();
+            assertEquals(500, logRecord.status);
+            assertEquals("/api/order", logRecord.requestSnapshot.requestURI);
+            assertEquals("POST", logRecord.requestSnapshot.method);
+            assertArrayEquals(new String[] {"a", "b"}, logRecord.requestSnapshot.paramValues[0]);
+            assertEquals("{\"id\":2}", logRecord.requestBodyText());
+            assertEquals("ok...[truncated, 5 bytes total]", logRecord.responseBodyText());
+            assertEquals(TextLogLayout.format(TextLogLayout.requestInfo(expected.requestSnapshot, "{\"id\":2}"),
+                1000L, 1042L, "ok...[truncated, 5 bytes total]"), logRecord.toText());
+            assertTrue(BinaryLogDecoder.toJson(logRecord)
+                .contains("\"headers\":{\"User-Agent\":\"curl\"}"));
+            assertNull(decoder.next());
+        }
+    }
+
+    @Test
+    public void shouldRoundTripTailWindowAndChecksum() throws IOException {
+        BinaryLogWriter writer = new BinaryLogWriter(new RollingFileSink(folder.getRoot(), 1024 * 1024, 3600000L));
+        LogEvent event = event("/api/upload", "{}", 200);
+        event.responseBody = new CaptureBuffer(new CaptureBufferPool(false, 0), 3, null, new CaptureWindow(3, true));
+        byte[] payload = "head-middle-end".getBytes(StandardCharsets.UTF_8);
+        event.responseBody.write(payload, 0, payload.length);
+        String expected = event.responseBody.toString("UTF-8");
+        writer.append(event);
+        File file = writer.getCurrentFile();
+        writer.close();
+
+        assertTrue(expected, expected.startsWith("hea...[9 bytes elided, 15 bytes total, crc32="));
+        try (BinaryLogDecoder decoder = new BinaryLogDecoder(file)) {
+            BinaryLogRecord logRecord = decoder.next();
+            assertEquals("{}", logRecord.requestBodyText());
+            assertEquals(expected, logRecord.responseBodyText());
+            assertEquals("end", new String(logRecord.responseBodyTail, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void shouldGatherWriteLargeBodiesWithoutCopying() throws IOException {
+        CaptureBufferPool pool = new CaptureBufferPool(true, 4);
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 100 * 1024) {
+            body.append("{\"line\":").append(body.length()).append("}\n");
+        }
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        RecordSink[] sinks = {new RollingFileSink(folder.newFolder(), 1024 * 1024, 3600000L),
+            new MappedJournalSink(folder.newFolder(), 1024 * 1024, 3600000L, 0)};
+        for (RecordSink sink : sinks) {
+            BinaryLogWriter writer = new BinaryLogWriter(sink);
+            LogEvent event = event("/api/export", "{}", 200);
+            event.responseBody = new CaptureBuffer(pool, Integer.MAX_VALUE);
+            event.responseBody.write(bytes, 0, bytes.length);
+            writer.append(event);
+            File file = writer.getCurrentFile();
+            event.clear();
+            assertEquals(0, pool.bytesInUse());
+            writer.close();
+
+            try (BinaryLogDecoder decoder = new BinaryLogDecoder(file)) {
+                BinaryLogRecord logRecord = decoder.next();
+                assertArrayEquals(bytes, logRecord.responseBody);
+                assertEquals("{}", logRecord.requestBodyText());
+                assertNull(decoder.next());
+            }
+        }
+
+        CaptureBuffer retained = new CaptureBuffer(pool, Integer.MAX_VALUE);
+        retained.write(bytes, 0, bytes.length);
+        retained.retain();
+        retained.release();
+        assertTrue(pool.bytesInUse() > 0);
+        retained.releaseRetained();
+        assertEquals(0, pool.bytesInUse());
+    }
+
+    @Test
+    public void shouldShrinkEncoderAfterOversizedRecord() {
+        RecordEncoder encoder = new RecordEncoder(4096);
+        encoder.begin(BinaryRecordFormat.TYPE_EVENT);
+        encoder.writeBytes(new byte[200 * 1024], 0, 200 * 1024);
+        encoder.finish();
+        assertTrue(encoder.array().length > 200 * 1024);
+        encoder.releaseReferences();
+        encoder.shrink();
+        assertEquals(4096, encoder.array().length);
+    }
+
+    @Test
+    public void shouldKeepEveryEventWhenAppendingConcurrentlyToMappedJournal() throws Exception {
+        MappedJournalSink sink = new MappedJournalSink(folder.getRoot(), 64 * 1024, 3600000L, 0);
+        BinaryLogWriter writer = new BinaryLogWriter(sink);
+        int threads = 4;
+        int eventsPerThread = 500;
+        AtomicInteger failures = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int worker = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < eventsPerThread; i++) {
+                    try {
+                        writer.append(event("/api/order/" + worker, "{\"id\":" + i + "}", 200));
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            workers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : workers) {
+            thread.join();
+        }
+        writer.close();
+        assertEquals(0, failures.get());
+        assertEquals(0, sink.getDroppedCount());
+
+        File[] files = folder.getRoot().listFiles((dir, name) -> name.endsWith(BinaryRecordFormat.FILE_SUFFIX));
+        assertTrue(files.length > 1);
+        int decoded = 0;
+        for (File file : files) {
+            assertEquals(64 * 1024, file.length());
+            try (BinaryLogDecoder decoder = new BinaryLogDecoder(file)) {
+                BinaryLogRecord logRecord;
+                while ((logRecord = decoder.next()) != null) {
+                    assertTrue(logRecord.requestSnapshot.requestURI.startsWith("/api/order/"));
+                    decoded++;
+                }
+            }
+        }
+        assertEquals(threads * eventsPerThread, decoded);
+    }
+
+    @Test
+    public void shouldReadPastPaddedAndUnfinishedRecordsInMappedJournal() throws Exception {
+        MappedJournalSink sink = new MappedJournalSink(folder.getRoot(), 64 * 1024, 3600000L, 0);
+        BinaryLogWriter writer = new BinaryLogWriter(sink);
+        writer.append(event("/api/order/1", "{}", 200));
+        // 第二段为 null，写到一半失败，领取的区域被写成 PAD 记录
+        ByteBuffer partial = ByteBuffer.wrap(new byte[] {18, BinaryRecordFormat.TYPE_EVENT, 1, 2, 3});
+        try {
+            sink.append(new ByteBuffer[] {partial, null}, 2, 20, new IndexEntry());
+            fail("expected the broken record to fail");
+        } catch (NullPointerException expected) {
+            // expected
+        }
+        writer.append(event("/api/order/2", "{}", 200));
+        writer.append(event("/api/order/3", "{}", 200));
+        File file = writer.getCurrentFile();
+        writer.close();
+        assertEquals(1, sink.getDroppedCount());
+
+        List<BinaryLogRecord> records = new ArrayList<>();
+        try (BinaryLogDecoder decoder = new BinaryLogDecoder(file)) {
+            BinaryLogRecord logRecord;
+            while ((logRecord = decoder.next()) != null) {
+                records.add(logRecord);
+            }
+            // PAD 记录按普通记录跳过，不是空洞
+            assertEquals(0, decoder.getHoleCount());
+        }
+        assertEquals(3, records.size());
+        assertEquals("/api/order/2", records.get(1).requestSnapshot.requestURI);
+
+        // 模拟写入线程领取之后退出：长度前缀仍然是0，按索引跳到下一条记录
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(records.get(1).offset);
+            randomAccessFile.write(0);
+        }
+        try (BinaryLogDecoder decoder = new BinaryLogDecoder(file)) {
+            assertEquals("/api/order/1", decoder.next().requestSnapshot.requestURI);
+            assertEquals("/api/order/3", decoder.next().requestSnapshot.requestURI);
+            assertNull(decoder.next());
+            assertEquals(1, decoder.getHoleCount());
+        }
+
+        // 没有索引时无法区分空洞和结尾
+        assertTrue(SegmentIndex.fileFor(file)
+            .delete());
+        assertEquals(1, decodeAll(file).size());
+    }
+
+    @Test
+    public void shouldQueryRecordsThroughSegmentIndex() throws IOException {
+        BinaryLogWriter writer = new BinaryLogWriter(new RollingFileSink(folder.getRoot(), 1024 * 1024, 3600000L));
+        for (int i = 0; i < 100; i++) {
+            LogEvent event = event("/api/order/" + i, "{}", i % 10 == 0 ? 500 : 200);
+            event.requestStartAt = 1000L + i;
+            event.requestSnapshot.headerNames = new String[] {"User-Agent", "X-Request-Id"};
+            event.requestSnapshot.headerValues = new String[] {"curl", "req-" + i};
+            event.requestSnapshot.headerCount = 2;
+            writer.append(event);
+        }
+        writer.append(event("/api/user/1", "{}", 500));
+        File file = writer.getCurrentFile();
+        writer.close();
+
+        TrafficQuery query = new TrafficQuery().from(1020L)
+            .to(1060L)
+            .method("POST")
+            .route("/api/order/*")
+            .status(500, 599);
+        List<BinaryLogRecord> records = query.list(Collections.singletonList(folder.getRoot()));
+        assertEquals(4, records.size());
+        assertEquals("/api/order/20", records.get(0).requestSnapshot.requestURI);
+        assertEquals(1, query.getIndexedFiles());
+        assertEquals(0, query.getScannedFiles());
+        // 通配符不能按索引过滤路由，其余条件已经把候选记录缩小到 /api/order 的 5xx
+        assertEquals(4, query.getDecodedRecords());
+
+        TrafficQuery byRequestId = new TrafficQuery().requestId("req-42")
+            .route("/api/order/{id}");
+        assertEquals(1, byRequestId.list(Collections.singletonList(file))
+            .size());
+        assertEquals(1, byRequestId.getDecodedRecords());
+
+        assertTrue(SegmentIndex.fileFor(file)
+            .delete());
+        TrafficQuery scan = new TrafficQuery().route("/api/order/7");
+        assertEquals("/api/order/0", scan.list(Collections.singletonList(file))
+            .get(0).requestSnapshot.requestURI);
+        assertEquals(1, scan.getScannedFiles());
+    }
+
+    @Test
+    public void shouldGrowSegmentIndexInChunks() throws IOException {
+        SegmentIndex index = new SegmentIndex(folder.newFile("grow" + BinaryRecordFormat.FILE_SUFFIX),
+            128L * 1024 * 1024);
+        long initialBytes = index.getFile()
+            .length();
+        assertTrue(initialBytes < 1024 * 1024);
+
+        int entries = 20000;
+        for (int i = 0; i < entries; i++) {
+            IndexEntry entry = new IndexEntry();
+            entry.startAt = i;
+            entry.status = 200;
+            index.add(entry, 16L + i);
+        }
+        assertTrue(index.getFile()
+            .length() > initialBytes);
+        index.seal();
+
+        SegmentIndex.Contents contents = SegmentIndex.read(index.getFile());
+        assertTrue(contents.complete);
+        assertEquals(entries, contents.entries.size());
+        assertEquals(16L + entries - 1, contents.entries.get(entries - 1).offset);
+        assertEquals(entries - 1, contents.maxStartAt);
+    }
+
+    private static List<BinaryLogRecord> decodeAll(File file) throws IOException {
+        List<BinaryLogRecord> records = new ArrayList<>();
+        try (BinaryLogDecoder decoder = new BinaryLogDecoder(file)) {
+            BinaryLogRecord logRecord;
+            while ((logRecord = decoder.next()) != null) {
+                records.add(logRecord);
+            }
+        }
+        return records;
+    }
+
+    private static LogEvent event(String uri, String body, int status) {
+        RequestSnapshot snapshot = new RequestSnapshot();
+        snapshot.remoteAddr = "127.0.0.1";
+        snapshot.method = "POST";
+        snapshot.scheme = "http";
+        snapshot.serverName = "localhost";
+        snapshot.serverPort = 8080;
+        snapshot.requestURI = uri;
+        snapshot.paramNames = new String[] {"q"};
+        snapshot.paramValues = new String[][] {{"a", "b"}};
+        snapshot.headerNames = new String[] {"User-Agent"};
+        snapshot.headerValues = new String[] {"curl"};
+        snapshot.headerCount = 1;
+
+        LogEvent event = new LogEvent();
+        event.requestSnapshot = snapshot;
+        event.routePolicy = new RoutePolicy(uri, false, true);
+        event.status = status;
+        event.requestStartAt = 1000L;
+        event.requestEndTime = 1042L;
+        event.requestBody = new CaptureBuffer(new CaptureBufferPool(false, 0), 1024);
+        event.requestBody.write(body.getBytes(StandardCharsets.UTF_8), 0, body.length());
+        event.requestCharset = "UTF-8";
+        event.logResponse = true;
+        event.responseBody = new CaptureBuffer(new CaptureBufferPool(false, 0), 2);
+        event.responseBody.write("okay!".getBytes(StandardCharsets.UTF_8), 0, 5);
+        event.responseCharset = "UTF-8";
+        return event;
+    }
+}
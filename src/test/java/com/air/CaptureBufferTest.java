@@ -0,0 +1,190 @@
+package com.air;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class CaptureBufferTest {
+
+    @Test
+    public void shouldKeepBytesAcrossSegments() {
+        CaptureBuffer buffer = new CaptureBuffer(new CaptureBufferPool(false, 4), 1 << 20);
+        byte[] payload = new byte[20000];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte)i;
+        }
+        buffer.write(payload, 0, 100);
+        buffer.write(payload[100]);
+        buffer.write(payload, 101, payload.length - 101);
+
+        assertEquals(payload.length, buffer.size());
+        assertFalse(buffer.isTruncated());
+        assertArrayEquals(payload, buffer.toByteArray());
+    }
+
+    @Test
+    public void shouldTruncateAtLimit() throws Exception {
+        CaptureBuffer buffer = new CaptureBuffer(new CaptureBufferPool(true, 4), 5);
+        byte[] payload = "hello world".getBytes("UTF-8");
+        buffer.write(payload, 0, payload.length);
+        buffer.write('!');
+
+        assertTrue(buffer.isTruncated());
+        assertEquals(5, buffer.size());
+        assertEquals(12, buffer.totalSize());
+        assertEquals("hello...[truncated, 12 bytes total]", buffer.toString("UTF-8"));
+    }
+
+    @Test
+    public void shouldKeepHeadAndTailWithChecksumOfFullBody() throws Exception {
+        CaptureBuffer buffer = new CaptureBuffer(new CaptureBufferPool(false, 4), 4, null, new CaptureWindow(6,
+            true));
+        byte[] payload = "0123456789abcdefghij".getBytes("UTF-8");
+        buffer.write(payload, 0, 7);
+        buffer.write(payload[7]);
+        buffer.write(payload, 8, payload.length - 8);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        assertEquals(4, buffer.size());
+        assertEquals(6, buffer.tailSize());
+        assertEquals("0123...[10 bytes elided, 20 bytes total, crc32=" + String.format("%08x", crc.getValue())
+            + "]...efghij", buffer.toString("UTF-8"));
+
+        CaptureBuffer small = new CaptureBuffer(new CaptureBufferPool(false, 4), 4, null, new CaptureWindow(6,
+            false));
+        small.write(payload, 0, 9);
+        assertEquals("012345678", small.toString("UTF-8"));
+    }
+
+    @Test
+    public void shouldCaptureOffHeapWithinArenaBudget() throws Exception {
+        CaptureArena arena = new CaptureArena(1024 * 1024, 4);
+        byte[] payload = new byte[4096];
+        Arrays.fill(payload, (byte)'a');
+
+        // 第二个段需要新的 8KB 级 slab，超出预算后截断
+        CaptureBuffer bounded = new CaptureBuffer(arena, 64 * 1024);
+        bounded.write(payload, 0, payload.length);
+        assertEquals(1024, bounded.size());
+        assertEquals(4096, bounded.totalSize());
+        assertEquals(1024, arena.bytesInUse());
+        assertEquals(1, arena.getExhaustedCount());
+
+        // 必须完整保存的缓冲退回到堆内存
+        CaptureBuffer unbounded = new CaptureBuffer(arena, Integer.MAX_VALUE);
+        unbounded.write(payload, 0, payload.length);
+        assertEquals(4096, unbounded.size());
+        assertEquals(2048, arena.bytesInUse());
+
+        bounded.release();
+        unbounded.release();
+        assertEquals(0, arena.bytesInUse());
+        assertEquals(1024 * 1024, arena.reservedBytes());
+
+        leak(arena);
+        assertEquals(1024, arena.bytesInUse());
+        for (int i = 0; i < 50 && arena.getLeakCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+            new CaptureBuffer(arena, 16).write('x');
+        }
+        assertEquals(1, arena.getLeakCount());
+    }
+
+    @Test
+    public void shouldReclaimSegmentsCachedByIdleThreadsAndFreeOnClose() throws Exception {
+        CaptureArena arena = new CaptureArena(1024 * 1024, 2048);
+        CountDownLatch cached = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread idle = new Thread(() -> {
+            // 一个 slab 的段全部留在这个线程的缓存里
+            CaptureBuffer[] buffers = new CaptureBuffer[1024];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = new CaptureBuffer(arena, 16);
+                buffers[i].write('x');
+            }
+            for (CaptureBuffer buffer : buffers) {
+                buffer.release();
+            }
+            cached.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread()
+                    .interrupt();
+            }
+        });
+        idle.start();
+        try {
+            cached.await();
+            CaptureBuffer buffer = new CaptureBuffer(arena, 16);
+            buffer.write('x');
+            assertEquals(1, buffer.size());
+            assertEquals(0, arena.getExhaustedCount());
+
+            arena.close();
+            assertEquals(1024 * 1024, arena.reservedBytes());
+            buffer.release();
+            assertEquals(0, arena.reservedBytes());
+
+            CaptureBuffer closed = new CaptureBuffer(arena, 16);
+            closed.write('x');
+            assertEquals(0, closed.size());
+        } finally {
+            done.countDown();
+            idle.join();
+        }
+    }
+
+    private static void leak(CaptureArena arena) {
+        new CaptureBuffer(arena, 16).write('x');
+    }
+
+    @Test
+    public void shouldSpillToDiskOverMemoryBudget() throws Exception {
+        File directory = Files.createTempDirectory("whisper-spill").toFile();
+        SpillPolicy spillPolicy = new SpillPolicy(1024, Long.MAX_VALUE, directory, 4096);
+        CaptureBuffer buffer = new CaptureBuffer(new CaptureBufferPool(false, 4), 1 << 20, spillPolicy);
+        byte[] payload = new byte[20000];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte)(i * 31);
+        }
+        buffer.write(payload, 0, 3000);
+        buffer.write(payload[3000]);
+        buffer.write(payload, 3001, payload.length - 3001);
+
+        assertTrue(buffer.isSpilled());
+        assertEquals(1, directory.listFiles().length);
+        assertArrayEquals(payload, buffer.toByteArray());
+        assertArrayEquals(payload, IOUtils.toByteArray(buffer.newInputStream()));
+        // 输出日志时只读回内存预算以内的部分
+        assertEquals(1024, buffer.textSize());
+        assertTrue(buffer.toString("ISO-8859-1")
+            .endsWith("...[truncated, 20000 bytes total]"));
+
+        buffer.release();
+        assertEquals(0, directory.listFiles().length);
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void shouldReuseReleasedSegments() {
+        CaptureBufferPool pool = new CaptureBufferPool(false, 4);
+        ByteBuffer segment = pool.acquire(0);
+        pool.release(segment);
+        assertSame(segment, pool.acquire(0));
+    }
+}
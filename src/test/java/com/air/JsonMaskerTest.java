@@ -0,0 +1,126 @@
+package com.air;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class JsonMaskerTest {
+
+    private final JsonMasker masker = new JsonMasker("password, IdCard", "$.user.phone,$.items[*].cardNo", "***");
+
+    @Test
+    public void shouldMaskKeysAndPathsInSinglePass() throws IOException {
+        assertEquals("{\"user\":{\"name\":\"a\\\"b\",\"phone\":\"***\",\"Password\":\"***\"},"
+                + "\"items\":[{\"cardNo\":\"***\",\"n\":1},{\"cardNo\":\"***\"}],\"idcard\":\"***\","
+                + "\"phone\":\"13800000000\",\"nested\":{\"password\":\"***\",\"ok\":true}}",
+            mask("{\"user\":{\"name\":\"a\\\"b\",\"phone\":13800000000,\"Password\":\"p\\\"w,}\"},"
+                + "\"items\":[{\"cardNo\":\"6222\",\"n\":1},{\"cardNo\":[1,{\"x\":2}]}],\"idcard\":{\"no\":\"1\"},"
+                + "\"phone\":\"13800000000\",\"nested\":{\"password\":null,\"ok\":true}}"));
+    }
+
+    @Test
+    public void shouldPassThroughNonJsonAndKeepMaskingAcrossChunks() throws IOException {
+        assertEquals("password=secret", mask("password=secret"));
+
+        StringBuilder json = new StringBuilder("[");
+        StringBuilder expected = new StringBuilder("[");
+        for (int i = 0; i < 2000; i++) {
+            if (i > 0) {
+                json.append(", ");
+                expected.append(", ");
+            }
+            json.append("{\"id\":")
+                .append(i)
+                .append(",\"password\":\"secret-")
+                .append(i)
+                .append("\"}");
+            expected.append("{\"id\":")
+                .append(i)
+                .append(",\"password\":\"***\"}");
+        }
+        String masked = mask(json.append(']')
+            .toString());
+        assertEquals(expected.append(']')
+            .toString(), masked);
+        assertFalse(masked.contains("secret"));
+    }
+
+    @Test
+    public void shouldSuppressBrokenJsonAndMatchEscapedKeys() throws IOException {
+        assertEquals("{\"pass\\u0077ord\":\"***\",\"Id\\u0043ard\":\"***\"}",
+            mask("{\"pass\\u0077ord\":\"secret\",\"Id\\u0043ard\":\"1\"}"));
+
+        String broken = "{\"a\":1,oops,\"password\":\"secret\"}";
+        assertEquals("{\"a\":1,[unparseable json, 25 bytes]", mask(broken));
+
+        StringBuilder deep = new StringBuilder();
+        for (int i = 0; i < 70; i++) {
+            deep.append('[');
+        }
+        String masked = mask(deep.append("{\"password\":\"secret\"}")
+            .toString());
+        assertFalse(masked, masked.contains("secret"));
+        assertTrue(masked, masked.endsWith("[unparseable json, 27 bytes]"));
+    }
+
+    @Test
+    public void shouldFallBackToUtf8ForUnknownCharset() throws IOException {
+        assertEquals(StandardCharsets.UTF_8.name(), masker.outputCharset("no-such-charset"));
+        assertEquals(StandardCharsets.UTF_8.name(), masker.outputCharset("bad charset!"));
+
+        CaptureBuffer body = new CaptureBuffer(new CaptureBufferPool(false, 0), 1024);
+        body.write("{\"name\":\"张三\",\"password\":\"secret\"}".getBytes(StandardCharsets.UTF_8));
+        assertEquals("{\"name\":\"张三\",\"password\":\"***\"}", masker.toString(body, "no-such-charset"));
+    }
+
+    @Test
+    public void shouldWriteMaskedBodyIntoBinaryRecord() throws IOException {
+        CaptureBuffer body = new CaptureBuffer(new CaptureBufferPool(false, 0), 24);
+        byte[] bytes = "{\"password\":\"1\",\"name\":\"whisper\"}".getBytes(StandardCharsets.UTF_8);
+        body.write(bytes, 0, bytes.length);
+        assertTrue(body.isTruncated());
+
+        RecordEncoder encoder = new RecordEncoder(16);
+        encoder.begin(BinaryRecordFormat.TYPE_EVENT);
+        encoder.writeCapture(body, masker, "UTF-8");
+        int start = encoder.finish();
+
+        byte[] record = new byte[encoder.position() - start];
+        System.arraycopy(encoder.array(), start, record, 0, record.length);
+        assertEquals("{\"password\":\"***\",\"name\":\"...[truncated, 33 bytes total]",
+            masker.toString(body, "UTF-8"));
+        ByteArrayInputStream input = new ByteArrayInputStream(record);
+        input.skip(2);
+        long total = readVarint(input);
+        int length = (int)readVarint(input);
+        byte[] masked = new byte[length];
+        assertEquals(length, input.read(masked));
+        assertEquals("{\"password\":\"***\",\"name\":\"", new String(masked, StandardCharsets.UTF_8));
+        assertEquals(length + bytes.length - 24, total);
+    }
+
+    private String mask(String json) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        masker.mask(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), "UTF-8", output);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static long readVarint(ByteArrayInputStream input) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = input.read();
+            value |= (long)(b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,65 @@
+package com.air;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.Test;
+
+public class LogRingBufferTest {
+
+    @Test
+    public void shouldRejectClaimWhenFull() {
+        LogRingBuffer ringBuffer = new LogRingBuffer(3);
+        assertEquals(4, ringBuffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            long sequence = ringBuffer.tryClaim();
+            assertEquals(i, sequence);
+            ringBuffer.publish(sequence);
+        }
+        assertEquals(-1, ringBuffer.tryClaim());
+
+        long taken = ringBuffer.tryTake();
+        assertEquals(0, taken);
+        ringBuffer.release(taken);
+        assertEquals(4, ringBuffer.tryClaim());
+    }
+
+    @Test
+    public void shouldDeliverEveryEventWithBlockPolicy() throws Exception {
+        final int producers = 4;
+        final int eventsPerProducer = 20000;
+        final LongAdder consumed = new LongAdder();
+        final LongAdder costSum = new LongAdder();
+        AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(64, 2, AsyncLogDispatcher.FullPolicy.BLOCK,
+            event -> {
+                consumed.increment();
+                costSum.add(event.requestEndTime - event.requestStartAt);
+            });
+        dispatcher.start();
+
+        final RequestSnapshot snapshot = new RequestSnapshot();
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            new Thread(() -> {
+                for (int i = 0; i < eventsPerProducer; i++) {
+                    long sequence = dispatcher.claim();
+                    LogEvent event = dispatcher.event(sequence);
+                    event.requestSnapshot = snapshot;
+                    event.requestEndTime = 1L;
+                    dispatcher.publish(sequence);
+                }
+                done.countDown();
+            }).start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        dispatcher.shutdown(30000L);
+
+        assertEquals(producers * eventsPerProducer, consumed.sum());
+        assertEquals(producers * eventsPerProducer, costSum.sum());
+        assertEquals(0, dispatcher.getDroppedCount());
+    }
+}
@@ -0,0 +1,57 @@
+package com.air;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LogSamplerTest {
+
+    @Test
+    public void shouldLimitBurstAndRefill() {
+        TokenBucket bucket = new TokenBucket(10, 3);
+        long now = System.nanoTime();
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+
+        long later = now + TimeUnit.MILLISECONDS.toNanos(100);
+        assertTrue(bucket.tryAcquire(later));
+        assertFalse(bucket.tryAcquire(later));
+    }
+
+    @Test
+    public void shouldShareBucketPerRouteTemplate() {
+        LogSampler sampler = new LogSampler(1D, 1D, 1, false, 0L, 1);
+        RoutePolicy first = new RoutePolicy("/api/order/123", false, false,
+            sampler.routeBucket(RouteNormalizer.template("/api/order/123")));
+        RoutePolicy second = new RoutePolicy("/api/order/124", false, false,
+            sampler.routeBucket(RouteNormalizer.template("/api/order/124")));
+        assertSame(first.sampleBucket, second.sampleBucket);
+        assertTrue(sampler.sample(first));
+        assertFalse(sampler.sample(second));
+
+        // 超出 maxRoutes 的模板共用一个桶
+        assertSame(sampler.routeBucket("/api/user"), sampler.routeBucket("/api/item"));
+        assertNull(new LogSampler(1D, 0D, 1, false, 0L, 1).routeBucket("/api/order"));
+    }
+
+    @Test
+    public void shouldForceLogErrorsAndSlowRequests() {
+        LogSampler sampler = new LogSampler(0D, 0D, 1, true, 500L, 16);
+        RoutePolicy policy = new RoutePolicy("/api/order", false, false, sampler.routeBucket("/api/order"));
+        assertFalse(sampler.sample(policy));
+
+        assertFalse(sampler.forceLog(200, null, 10L));
+        assertTrue(sampler.forceLog(502, null, 10L));
+        assertTrue(sampler.forceLog(200, new IllegalStateException(), 10L));
+        assertTrue(sampler.forceLog(200, null, 500L));
+        assertEquals(3, sampler.getForcedCount());
+    }
+}
@@ -0,0 +1,98 @@
+package com.air;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsEndpointTest {
+
+    private Server server;
+
+    private String baseUrl;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new Server(0);
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/app");
+        FilterHolder filter = new FilterHolder(new RequestResponseInfoLogFilter());
+        filter.setInitParameter("metricsPath", "/__whisper/metrics");
+        filter.setInitParameter("logResp", "true");
+        filter.setInitParameter("latencyHistogram", "true");
+        filter.setInitParameter("latencyReportIntervalSeconds", "1");
+        context.addFilter(filter, "/*", EnumSet.of(DispatcherType.REQUEST));
+        context.addServlet(new ServletHolder(new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                resp.getWriter()
+                    .write("hello");
+            }
+        }), "/*");
+        server.setHandler(context);
+        server.start();
+        baseUrl = "http://localhost:" + ((ServerConnector)server.getConnectors()[0]).getLocalPort() + "/app";
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void shouldServeMetricsWithoutReachingApplication() throws Exception {
+        assertEquals("hello", get("/api/order/1"));
+        assertEquals("hello", get("/api/order/2"));
+
+        HttpURLConnection connection = (HttpURLConnection)new URL(baseUrl + "/__whisper/metrics").openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType()
+            .startsWith("text/plain; version=0.0.4"));
+        String metrics = read(connection);
+        assertTrue(metrics, metrics.contains("whisper_requests_total 2\n"));
+        assertTrue(metrics, metrics.contains("whisper_requests_sampled_total 2\n"));
+        assertTrue(metrics, metrics.contains("whisper_captured_bytes_total{direction=\"response\"} 10\n"));
+        assertTrue(metrics, metrics.contains("# TYPE whisper_request_latency_seconds summary\n"));
+
+        // 统计周期结束后 summary 同时输出 _sum 和 _count
+        String route = "{route=\"/app/api/order/{id}\"}";
+        for (int i = 0; i < 50 && !metrics.contains("whisper_request_latency_seconds_count" + route); i++) {
+            Thread.sleep(100);
+            metrics = get("/__whisper/metrics");
+        }
+        assertTrue(metrics, metrics.contains("whisper_request_latency_seconds_count" + route + " 2\n"));
+        assertTrue(metrics, metrics.contains("whisper_request_latency_seconds_sum" + route + " "));
+    }
+
+    private String get(String path) throws IOException {
+        return read((HttpURLConnection)new URL(baseUrl + path).openConnection());
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        try (InputStream inputStream = connection.getInputStream()) {
+            return IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
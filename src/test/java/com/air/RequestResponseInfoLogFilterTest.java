@@ -0,0 +1,225 @@
+package com.air;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+
+public class RequestResponseInfoLogFilterTest {
+
+    private static final Pattern COST = Pattern.compile("cost: (\\d+)");
+
+    private final Logger requestResponseLogger = (Logger)LoggerFactory.getLogger("http.request.response.log");
+
+    private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+
+    private Server server;
+
+    private String baseUrl;
+
+    @Before
+    public void attachAppender() {
+        appender.start();
+        requestResponseLogger.addAppender(appender);
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        requestResponseLogger.detachAppender(appender);
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void shouldLogAsyncRequestOnceWithFullBodyAndLatency() throws Exception {
+        FilterHolder filter = new FilterHolder(new RequestResponseInfoLogFilter());
+        filter.setInitParameter("logResp", "true");
+        startServer(filter, new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
+                AsyncContext asyncContext = req.startAsync();
+                new Thread(() -> {
+                    try {
+                        Thread.sleep(200);
+                        resp.getWriter()
+                            .write("async body from worker");
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    } finally {
+                        asyncContext.complete();
+                    }
+                }).start();
+            }
+        });
+
+        assertEquals("async body from worker", get("/api/async"));
+        List<String> lines = awaitLogLines(1);
+        assertEquals(lines.toString(), 1, lines.size());
+        assertTrue(lines.get(0), lines.get(0)
+            .contains("response info: async body from worker"));
+        Matcher cost = COST.matcher(lines.get(0));
+        assertTrue(lines.get(0), cost.find());
+        assertTrue(lines.get(0), Long.parseLong(cost.group(1)) >= 200);
+    }
+
+    @Test
+    public void shouldLogOnlyFailedOrSlowRequestsWhenTailCapturingUnsampled() throws Exception {
+        FilterHolder filter = new FilterHolder(new RequestResponseInfoLogFilter());
+        filter.setInitParameter("logResp", "true");
+        filter.setInitParameter("metricsPath", "/__whisper/metrics");
+        filter.setInitParameter("sampleRate", "0");
+        filter.setInitParameter("tailCapture", "true");
+        filter.setInitParameter("sampleSlowThresholdMillis", "300");
+        startServer(filter, new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                if (req.getRequestURI()
+                    .endsWith("/slow")) {
+                    try {
+                        Thread.sleep(400);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread()
+                            .interrupt();
+                    }
+                } else if (req.getRequestURI()
+                    .endsWith("/fail")) {
+                    resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                }
+                resp.getWriter()
+                    .write(req.getRequestURI()
+                        .substring(5) + " body");
+            }
+        });
+
+        assertEquals("fast body", get("/api/fast"));
+        assertEquals("slow body", get("/api/slow"));
+        assertEquals("fail body", get("/api/fail"));
+
+        // 快的 2xx 请求捕获之后直接回收，不输出日志
+        List<String> lines = awaitLogLines(2);
+        assertEquals(lines.toString(), 2, lines.size());
+        assertTrue(lines.get(0), lines.get(0)
+            .contains("response info: slow body"));
+        assertTrue(lines.get(1), lines.get(1)
+            .contains("response info: fail body"));
+        // 没有采样的请求在决定输出之后才收集请求信息
+        assertTrue(lines.get(1), lines.get(1)
+            .contains("/api/fail"));
+
+        String metrics = get("/__whisper/metrics");
+        assertTrue(metrics, metrics.contains("whisper_requests_skipped_total 3\n"));
+        assertTrue(metrics, metrics.contains("whisper_requests_forced_total 2\n"));
+        assertTrue(metrics, metrics.contains("whisper_captured_bytes_total{direction=\"response\"} 27\n"));
+        assertTrue(metrics, metrics.contains("whisper_capture_buffer_bytes_in_use 0\n"));
+    }
+
+    @Test
+    public void shouldDecodeCompressedResponseOnlyWithAsyncLog() throws Exception {
+        FilterHolder filter = new FilterHolder(new RequestResponseInfoLogFilter());
+        filter.setInitParameter("logResp", "true");
+        startServer(filter, gzipServlet());
+        get("/api/gzip");
+        List<String> lines = awaitLogLines(1);
+        assertEquals(lines.toString(), 1, lines.size());
+        assertTrue(lines.get(0), lines.get(0)
+            .contains("response info: [gzip encoded, "));
+        assertTrue(lines.get(0), lines.get(0)
+            .contains("bytes total, not decoded without asyncLog]"));
+    }
+
+    @Test
+    public void shouldDecodeCompressedResponseOnAsyncLogThread() throws Exception {
+        FilterHolder filter = new FilterHolder(new RequestResponseInfoLogFilter());
+        filter.setInitParameter("logResp", "true");
+        filter.setInitParameter("asyncLog", "true");
+        startServer(filter, gzipServlet());
+        get("/api/gzip");
+        List<String> lines = awaitLogLines(1);
+        assertEquals(lines.toString(), 1, lines.size());
+        assertTrue(lines.get(0), lines.get(0)
+            .contains("response info: {\"compressed\":true}"));
+    }
+
+    private static HttpServlet gzipServlet() {
+        return new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                resp.setContentType("application/json;charset=UTF-8");
+                resp.setHeader("Content-Encoding", "gzip");
+                try (GZIPOutputStream gzip = new GZIPOutputStream(resp.getOutputStream())) {
+                    gzip.write("{\"compressed\":true}".getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        };
+    }
+
+    private void startServer(FilterHolder filter, HttpServlet servlet) throws Exception {
+        server = new Server(0);
+        ServletContextHandler context = new ServletContextHandler();
+        filter.setAsyncSupported(true);
+        context.addFilter(filter, "/*", EnumSet.of(DispatcherType.REQUEST));
+        ServletHolder holder = new ServletHolder(servlet);
+        holder.setAsyncSupported(true);
+        context.addServlet(holder, "/*");
+        server.setHandler(context);
+        server.start();
+        baseUrl = "http://localhost:" + ((ServerConnector)server.getConnectors()[0]).getLocalPort();
+    }
+
+    /**
+     * 异步请求的日志在响应发出之后才输出，等待一会
+     */
+    private List<String> awaitLogLines(int expected) throws InterruptedException {
+        for (int i = 0; i < 50 && appender.list.size() < expected; i++) {
+            Thread.sleep(20);
+        }
+        Thread.sleep(100);
+        List<String> lines = new ArrayList<>();
+        for (ILoggingEvent event : appender.list) {
+            lines.add(event.getFormattedMessage());
+        }
+        return lines;
+    }
+
+    private String get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)new URL(baseUrl + path).openConnection();
+        try (InputStream inputStream = connection.getResponseCode() >= 400 ? connection.getErrorStream()
+            : connection.getInputStream()) {
+            return IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
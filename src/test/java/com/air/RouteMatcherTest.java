@@ -0,0 +1,43 @@
+package com.air;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RouteMatcherTest {
+
+    @Test
+    public void shouldMatchLikeFullRegexMatch() {
+        RouteMatcher matcher = new RouteMatcher("/health", "/api/order/.*", "/user/\\d+/profile", "/(a)\\1",
+            "[invalid");
+
+        assertTrue(matcher.matches("/health"));
+        assertFalse(matcher.matches("/health/check"));
+        assertTrue(matcher.matches("/api/order/"));
+        assertTrue(matcher.matches("/api/order/1/items"));
+        assertFalse(matcher.matches("/api/orders"));
+        assertTrue(matcher.matches("/user/42/profile"));
+        assertFalse(matcher.matches("/user/x/profile"));
+        assertTrue(matcher.matches("/aa"));
+        assertFalse(matcher.matches("/ab"));
+    }
+
+    @Test
+    public void shouldFallBackWhenPatternsCanNotBeCombined() {
+        RouteMatcher matcher = new RouteMatcher("/(?<id>\\d+)/a", "/(?<id>\\d+)/b", "/quote/\\Q(x)");
+
+        assertFalse(matcher.isEmpty());
+        assertTrue(matcher.matches("/1/a"));
+        assertTrue(matcher.matches("/2/b"));
+        assertTrue(matcher.matches("/quote/(x)"));
+        assertFalse(matcher.matches("/3/c"));
+    }
+
+    @Test
+    public void shouldMatchNothingWhenEmpty() {
+        RouteMatcher matcher = new RouteMatcher();
+        assertTrue(matcher.isEmpty());
+        assertFalse(matcher.matches("/"));
+    }
+}
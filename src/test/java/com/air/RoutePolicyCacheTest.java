@@ -0,0 +1,68 @@
+package com.air;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RoutePolicyCacheTest {
+
+    @Test
+    public void shouldNormalizeUri() {
+        String normalized = "/api/order/1";
+        assertSame(normalized, RouteNormalizer.normalize(normalized));
+        assertEquals("/api/order/1", RouteNormalizer.normalize("//api//order/1/"));
+        assertEquals("/api/order", RouteNormalizer.normalize("/api/order;jsessionid=abc"));
+        assertEquals("/", RouteNormalizer.normalize("///"));
+        assertEquals("/", RouteNormalizer.normalize(""));
+    }
+
+    @Test
+    public void shouldTemplateIdSegments() {
+        String route = "/api/order";
+        assertSame(route, RouteNormalizer.template(route));
+        assertEquals("/api/order/{id}", RouteNormalizer.template("/api/order/123"));
+        assertEquals("/api/{id}/item/{id}",
+            RouteNormalizer.template("/api/3f2504e0-4f89-11d3-9a0c-0305e82c3301/item/7"));
+        assertEquals("/api/v2/order", RouteNormalizer.template("/api/v2/order"));
+        assertEquals("/", RouteNormalizer.template("/"));
+    }
+
+    @Test
+    public void shouldResolveOncePerRoute() {
+        AtomicInteger resolved = new AtomicInteger();
+        RoutePolicyCache cache = new RoutePolicyCache(16, route -> {
+            resolved.incrementAndGet();
+            return new RoutePolicy(route, false, true);
+        });
+
+        RoutePolicy policy = cache.resolve("/api/order");
+        assertSame(policy, cache.resolve("/api/order"));
+        assertEquals(1, resolved.get());
+        assertEquals(1, cache.stats().hitCount());
+        assertEquals(1, cache.stats().missCount());
+    }
+
+    @Test
+    public void shouldMatchWhitePatternsAgainstRawUri() {
+        RouteMatcher matcher = new RouteMatcher("/api/order/", "/api/item;jsessionid=.*", "//api/legacy");
+        RoutePolicyCache cache = new RoutePolicyCache(16, requestURI -> {
+            boolean inWhite = matcher.matches(requestURI);
+            return new RoutePolicy(RouteNormalizer.normalize(requestURI), inWhite, inWhite);
+        });
+
+        assertTrue(cache.resolve("/api/order/").inWhite);
+        assertFalse(cache.resolve("/api/order").inWhite);
+        assertTrue(cache.resolve("/api/item;jsessionid=abc").inWhite);
+        assertFalse(cache.resolve("/api/item").inWhite);
+        assertTrue(cache.resolve("//api/legacy").inWhite);
+        assertFalse(cache.resolve("/api/legacy").inWhite);
+        // 原始 uri 不同的请求共享同一个路由和模板
+        assertEquals("/api/order", cache.resolve("/api/order/").route);
+        assertEquals("/api/item", cache.resolve("/api/item;jsessionid=abc").template);
+    }
+}
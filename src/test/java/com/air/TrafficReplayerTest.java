@@ -0,0 +1,130 @@
+package com.air;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TrafficReplayerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReplayRecordedTrafficAndReportDifferences() throws Exception {
+        Server recording = startServer("v1", true);
+        String baseUrl = baseUrl(recording);
+        assertEquals("v1 order 1 q=a", send(baseUrl + "/api/order/1?q=a", "GET", null));
+        assertEquals("v1 order 2 q=b", send(baseUrl + "/api/order/2?q=b", "GET", null));
+        assertEquals("{\"id\":3}", send(baseUrl + "/api/echo", "POST", "{\"id\":3}"));
+        send(baseUrl + "/api/gzip", "GET", null);
+        recording.stop();
+
+        Server replaying = startServer("v2", false);
+        try {
+            TrafficReplayer replayer = new TrafficReplayer(baseUrl(replaying), 2, 0, true);
+            TrafficReplayer.Report report = replayer.replay(new TrafficQuery(),
+                Collections.singletonList(folder.getRoot()));
+            assertEquals(4, report.sent.sum());
+            assertEquals(0, report.failed.sum());
+            // 记录的 gzip 响应解压之后和回放的未压缩响应一致
+            assertEquals(4, report.compared.sum());
+            assertEquals(0, report.statusMismatches.sum());
+            assertEquals(2, report.bodyMismatches.sum());
+            assertTrue(report.getDifferences()
+                .get(0), report.getDifferences()
+                .get(0)
+                .contains("recorded [v1 order"));
+            assertEquals(4, report.latencyMicros.getTotalCount());
+        } finally {
+            replaying.stop();
+        }
+    }
+
+    private Server startServer(String version, boolean record) throws Exception {
+        Server server = new Server(0);
+        ServletContextHandler context = new ServletContextHandler();
+        if (record) {
+            FilterHolder filter = new FilterHolder(new RequestResponseInfoLogFilter());
+            filter.setInitParameter("logResp", "true");
+            filter.setInitParameter("logFormat", "binary");
+            filter.setInitParameter("binaryLogDirectory", folder.getRoot()
+                .getPath());
+            context.addFilter(filter, "/*", EnumSet.of(DispatcherType.REQUEST));
+        }
+        context.addServlet(new ServletHolder(new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                if ("/api/gzip".equals(req.getRequestURI())) {
+                    byte[] body = "{\"compressed\":true}".getBytes(StandardCharsets.UTF_8);
+                    if (record) {
+                        resp.setHeader("Content-Encoding", "gzip");
+                        try (GZIPOutputStream gzip = new GZIPOutputStream(resp.getOutputStream())) {
+                            gzip.write(body);
+                        }
+                    } else {
+                        resp.getOutputStream()
+                            .write(body);
+                    }
+                    return;
+                }
+                resp.getWriter()
+                    .write(version + " order " + req.getRequestURI()
+                        .substring("/api/order/".length()) + " q=" + req.getParameter("q"));
+            }
+
+            @Override
+            protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                resp.setContentType("application/json");
+                IOUtils.copy(req.getInputStream(), resp.getOutputStream());
+            }
+        }), "/*");
+        server.setHandler(context);
+        server.start();
+        return server;
+    }
+
+    private static String baseUrl(Server server) {
+        return "http://localhost:" + ((ServerConnector)server.getConnectors()[0]).getLocalPort();
+    }
+
+    private static String send(String url, String method, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        try (InputStream inputStream = connection.getInputStream()) {
+            return IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.air;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+public class WrappedHttpServletResponseTest {
+
+    @Test
+    public void shouldCaptureWriterOutputEncodedOnce() throws IOException {
+        StringWriter forwarded = new StringWriter();
+        WrappedHttpServletResponse response = wrap(forwarded);
+        // 🐳 是代理对，拆在两次写入之间
+        String text = "中文 ok 🐳!";
+        int split = text.indexOf('\uDC33');
+
+        PrintWriter writer = response.getWriter();
+        writer.write(text, 0, split);
+        writer.write(text.toCharArray(), split, text.length() - split);
+        writer.write('x');
+        writer.print(42);
+        writer.println();
+        writer.flush();
+
+        String expected = text + "x42" + System.lineSeparator();
+        assertEquals(expected, forwarded.toString());
+        assertEquals(expected, response.getReponseContent());
+    }
+
+    @Test
+    public void shouldReplaceDanglingHighSurrogateOnFlushAndClose() throws IOException {
+        StringWriter forwarded = new StringWriter();
+        WrappedHttpServletResponse response = wrap(forwarded);
+        PrintWriter writer = response.getWriter();
+        writer.write("a\uD83D");
+        writer.flush();
+        assertEquals("a?", response.getReponseContent());
+
+        // flush 之后编码器已重置，后续写入正常捕获
+        writer.write("b\uD83D");
+        writer.close();
+        assertEquals("a?b?", response.getReponseContent());
+    }
+
+    @Test
+    public void shouldDecodeCompressedContentLazily() throws IOException {
+        byte[] body = "{\"items\":[1,2,3],\"text\":\"压缩\"}".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(body);
+        }
+        assertEquals(new String(body, StandardCharsets.UTF_8), decode(gzipped.toByteArray(), "gzip", 1024));
+        assertEquals("{\"items\":[...[truncated, at least 11 bytes decoded from " + gzipped.size()
+            + " gzip encoded bytes]", decode(gzipped.toByteArray(), "gzip", 10));
+
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(deflated, new Deflater(6, true))) {
+            deflate.write(body);
+        }
+        assertEquals(new String(body, StandardCharsets.UTF_8), decode(deflated.toByteArray(), "deflate", 1024));
+        assertEquals("[br encoded, 3 bytes total]", decode(new byte[] {1, 2, 3}, "br", 1024));
+    }
+
+    @Test
+    public void shouldStopDecodingAtLimit() throws IOException {
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(deflated)) {
+            deflate.write(new byte[64 * 1024 * 1024]);
+        }
+        ContentDecoder.Decoded decoded = ContentDecoder.decode(new ByteArrayInputStream(deflated.toByteArray()),
+            deflated.size(), deflated.size(), "deflate", 1024);
+        assertEquals(1024, decoded.bytes.length);
+        assertTrue(decoded.truncated);
+        assertEquals(1025, decoded.decodedSize);
+    }
+
+    private static String decode(byte[] encoded, String contentEncoding, int limit) throws IOException {
+        CaptureBuffer buffer = new CaptureBuffer(new CaptureBufferPool(false, 4), 1024);
+        buffer.write(encoded, 0, encoded.length);
+        return ContentDecoder.toString(buffer, contentEncoding, "UTF-8", limit, null);
+    }
+
+    private static WrappedHttpServletResponse wrap(StringWriter forwarded) throws IOException {
+        PrintWriter printWriter = new PrintWriter(forwarded);
+        HttpServletResponse response = (HttpServletResponse)Proxy.newProxyInstance(
+            WrappedHttpServletResponseTest.class.getClassLoader(), new Class<?>[] {HttpServletResponse.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getWriter":
+                        return printWriter;
+                    case "getCharacterEncoding":
+                        return "UTF-8";
+                    default:
+                        return null;
+                }
+            });
+        return new WrappedHttpServletResponse(response, new CaptureBuffer(new CaptureBufferPool(false, 4), 1024));
+    }
+}
@@ -0,0 +1,35 @@
+package com.air;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 生成指定大小的 json 负载
+ *
+ * @date 2026/10/15
+ */
+final class BenchmarkPayloads {
+
+    private static final String ITEM = "{\"id\":123456,\"name\":\"whisper\",\"tags\":[\"a\",\"b\"],\"price\":12.5},";
+
+    private BenchmarkPayloads() {
+    }
+
+    static byte[] json(int size) {
+        if (size <= 0) {
+            return new byte[0];
+        }
+        StringBuilder builder = new StringBuilder(size);
+        builder.append('[');
+        while (builder.length() < size - 1) {
+            builder.append(ITEM);
+        }
+        builder.setLength(size - 1);
+        builder.append(']');
+        return builder.toString()
+            .getBytes(StandardCharsets.UTF_8);
+    }
+
+    static String jsonString(int size) {
+        return new String(json(size), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,51 @@
+package com.air;
+
+import java.io.PrintWriter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import org.apache.commons.io.output.NullWriter;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * 丢弃响应内容的 mock，避免把 MockHttpServletResponse 逐字节写入和 flush 的开销算进基准
+ *
+ * @date 2026/10/15
+ */
+final class DiscardingHttpServletResponse extends MockHttpServletResponse {
+
+    private final ServletOutputStream outputStream = new ServletOutputStream() {
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+
+        }
+
+        @Override
+        public void write(int b) {
+
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+
+        }
+    };
+
+    private final PrintWriter writer = new PrintWriter(NullWriter.NULL_WRITER);
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+        return writer;
+    }
+}
@@ -0,0 +1,123 @@
+package com.air;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+
+/**
+ * {@link RequestResponseInfoLogFilter#doFilter} 的整体开销，覆盖不同 body 大小、content type 和白名单数量
+ *
+ * 建议配合 -prof gc 观察分配速率
+ *
+ * @date 2026/10/15
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+
+    @Param({"0", "1024", "65536", "4194304"})
+    private int bodySize;
+
+    @Param({"application/json", "application/x-www-form-urlencoded", "multipart/form-data"})
+    private String contentType;
+
+    @Param({"0", "10", "100"})
+    private int whitePatternCount;
+
+    private RequestResponseInfoLogFilter filter;
+
+    private byte[] requestBody;
+
+    private byte[] responseBody;
+
+    private FilterChain filterChain;
+
+    private MockServletContext servletContext;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ServletException {
+        MockFilterConfig filterConfig = new MockFilterConfig("httpLogFilter");
+        // 所有行都捕获响应，白名单条数只影响匹配开销
+        filterConfig.addInitParameter("logResp", "true");
+        if (whitePatternCount > 0) {
+            StringBuilder whitePatterns = new StringBuilder();
+            for (int i = 0; i < whitePatternCount; i++) {
+                if (i > 0) {
+                    whitePatterns.append(';');
+                }
+                // 字面量、前缀、正则三种形态交替出现
+                switch (i % 3) {
+                    case 0:
+                        whitePatterns.append("/api/v1/resource").append(i);
+                        break;
+                    case 1:
+                        whitePatterns.append("/api/v2/resource").append(i).append("/.*");
+                        break;
+                    default:
+                        whitePatterns.append("/api/v3/resource").append(i).append("/\\d+");
+                }
+            }
+            filterConfig.addInitParameter("whitePatterns", whitePatterns.toString());
+        }
+        servletContext = new MockServletContext();
+        filter = new RequestResponseInfoLogFilter();
+        filter.init(filterConfig);
+
+        requestBody = BenchmarkPayloads.json(bodySize);
+        responseBody = BenchmarkPayloads.json(bodySize);
+        filterChain = (request, response) -> {
+            try (InputStream inputStream = request.getInputStream()) {
+                IOUtils.skip(inputStream, Long.MAX_VALUE);
+            }
+            response.setContentType("application/json;charset=UTF-8");
+            response.getOutputStream()
+                .write(responseBody);
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        filter.destroy();
+    }
+
+    @Benchmark
+    public void doFilter(Blackhole blackhole) throws IOException, ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest(servletContext, "POST", "/api/v2/resource1/42");
+        request.addHeader("User-Agent", "whisper-benchmark");
+        request.addHeader("Accept", "application/json");
+        request.setParameter("page", "1");
+        request.setContentType(contentType);
+        request.setContent(requestBody);
+        MockHttpServletResponse response = new DiscardingHttpServletResponse();
+
+        filter.doFilter(request, response, filterChain);
+        blackhole.consume(response.getStatus());
+    }
+}
@@ -0,0 +1,100 @@
+package com.air;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * {@link WrappedHttpServletResponse} 不同写入方式的开销：逐字节、整块写 OutputStream、通过 Writer 写字符串
+ *
+ * @date 2026/10/15
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseWriteBenchmark {
+
+    private static final int CHUNK_SIZE = 512;
+
+    @Param({"1024", "65536", "4194304"})
+    private int bodySize;
+
+    @Param({"65536", "2147483647"})
+    private int maxCaptureBytes;
+
+    private CaptureBufferPool captureBufferPool;
+
+    private byte[] body;
+
+    private String bodyString;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        captureBufferPool = new CaptureBufferPool(false, 256);
+        body = BenchmarkPayloads.json(bodySize);
+        bodyString = BenchmarkPayloads.jsonString(bodySize);
+    }
+
+    @Benchmark
+    public void byteWise(Blackhole blackhole) throws IOException {
+        WrappedHttpServletResponse response = newResponse();
+        ServletOutputStream outputStream = response.getOutputStream();
+        for (byte b : body) {
+            outputStream.write(b);
+        }
+        consumeAndRelease(response, blackhole);
+    }
+
+    @Benchmark
+    public void bulk(Blackhole blackhole) throws IOException {
+        WrappedHttpServletResponse response = newResponse();
+        ServletOutputStream outputStream = response.getOutputStream();
+        for (int off = 0; off < body.length; off += CHUNK_SIZE) {
+            outputStream.write(body, off, Math.min(CHUNK_SIZE, body.length - off));
+        }
+        consumeAndRelease(response, blackhole);
+    }
+
+    @Benchmark
+    public void writer(Blackhole blackhole) throws IOException {
+        WrappedHttpServletResponse response = newResponse();
+        PrintWriter writer = response.getWriter();
+        for (int off = 0; off < bodyString.length(); off += CHUNK_SIZE) {
+            writer.write(bodyString, off, Math.min(CHUNK_SIZE, bodyString.length() - off));
+        }
+        writer.flush();
+        consumeAndRelease(response, blackhole);
+    }
+
+    private WrappedHttpServletResponse newResponse() throws IOException {
+        MockHttpServletResponse mockResponse = new DiscardingHttpServletResponse();
+        mockResponse.setCharacterEncoding("UTF-8");
+        return new WrappedHttpServletResponse(mockResponse, new CaptureBuffer(captureBufferPool, maxCaptureBytes));
+    }
+
+    private void consumeAndRelease(WrappedHttpServletResponse response, Blackhole blackhole) {
+        blackhole.consume(response.getBuffer()
+            .size());
+        response.release();
+    }
+}